@@ -0,0 +1,239 @@
+package ejemplo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import utilidades.EjecutorTareas;
+
+/**
+ * Consultas de agregación sobre la tabla TRAYECTO. El cálculo (SUM, AVG,
+ * COUNT, MIN o MAX) se hace en la propia base de datos, de forma que sólo
+ * viaja por JDBC una fila por grupo en lugar de todos los trayectos.
+ *
+ * La suma, la media y el número de trayectos se calculan sobre los resúmenes
+ * mensuales (ResumenesMensuales), que tienen una fila por mes y coche o
+ * conductor, en lugar de recorrer todos los trayectos. El mínimo y el máximo
+ * sí necesitan los trayectos.
+ *
+ * @author Jose Cabello
+ */
+public class AgregadosTrayecto {
+
+    /**
+     * Función de agregación a aplicar.
+     */
+    public enum Funcion {
+        SUMA("SUM", "Suma"),
+        MEDIA("AVG", "Media"),
+        CUENTA("COUNT", "Número de trayectos"),
+        MINIMO("MIN", "Mínimo"),
+        MAXIMO("MAX", "Máximo");
+
+        private final String sql;
+        private final String descripcion;
+
+        Funcion(String sql, String descripcion) {
+            this.sql = sql;
+            this.descripcion = descripcion;
+        }
+
+        public String getDescripcion() {
+            return descripcion;
+        }
+    }
+
+    /**
+     * Columna de TRAYECTO sobre la que se agrega.
+     */
+    public enum Medida {
+        GASTO("GASTOREPOSTAJE", "gasto en repostaje (euros)"),
+        KMS("KMS", "kilómetros");
+
+        private final String columna;
+        private final String descripcion;
+
+        Medida(String columna, String descripcion) {
+            this.columna = columna;
+            this.descripcion = descripcion;
+        }
+
+        public String getDescripcion() {
+            return descripcion;
+        }
+    }
+
+    /**
+     * Criterio de agrupación de los trayectos.
+     */
+    public enum Agrupacion {
+        NINGUNA(null, "Total"),
+        CONDUCTOR("NSS", "NSS"),
+        COCHE("N_BASTIDOR", "N_Bastidor"),
+        MES("FORMATDATETIME(FECHA, 'yyyy-MM')", "Mes"),
+        ANIO("YEAR(FECHA)", "Año");
+
+        private final String expresion;
+        private final String descripcion;
+
+        Agrupacion(String expresion, String descripcion) {
+            this.expresion = expresion;
+            this.descripcion = descripcion;
+        }
+
+        public String getDescripcion() {
+            return descripcion;
+        }
+    }
+
+    /**
+     * Resultado de la agregación para un grupo.
+     */
+    public static class Fila {
+
+        private final String grupo;
+        private final double valor;
+
+        public Fila(String grupo, double valor) {
+            this.grupo = grupo;
+            this.valor = valor;
+        }
+
+        /**
+         * @return Valor del criterio de agrupación (NSS, bastidor, mes...) o
+         * null si no se agrupa.
+         */
+        public String getGrupo() {
+            return grupo;
+        }
+
+        /**
+         * @return Resultado de la función de agregación para el grupo.
+         */
+        public double getValor() {
+            return valor;
+        }
+    }
+
+    /**
+     * Construye la sentencia SQL para la agregación pedida.
+     *
+     * @param funcion Función de agregación.
+     * @param medida Columna a agregar.
+     * @param agrupacion Criterio de agrupación.
+     * @return Sentencia SELECT, ordenada por grupo.
+     */
+    static String construirSql(Funcion funcion, Medida medida, Agrupacion agrupacion) {
+        String agregado = funcion.sql + "(" + medida.columna + ") AS VALOR";
+        if (agrupacion.expresion == null) {
+            return "SELECT " + agregado + " FROM TRAYECTO";
+        }
+        return "SELECT " + agrupacion.expresion + " AS GRUPO, " + agregado
+                + " FROM TRAYECTO GROUP BY GRUPO ORDER BY GRUPO";
+    }
+
+    /**
+     * Elige la sentencia con la que se calcula una agregación: sobre los
+     * resúmenes mensuales si la función lo permite y sobre TRAYECTO si no.
+     *
+     * @param funcion Función de agregación.
+     * @param medida Columna a agregar.
+     * @param agrupacion Criterio de agrupación.
+     * @return Sentencia SELECT con las columnas GRUPO (si se agrupa) y VALOR,
+     * ordenada por grupo.
+     */
+    static String elegirSql(Funcion funcion, Medida medida, Agrupacion agrupacion) {
+        return ResumenesMensuales.admite(funcion)
+                ? ResumenesMensuales.construirSql(funcion, medida, agrupacion)
+                : construirSql(funcion, medida, agrupacion);
+    }
+
+    /**
+     * Ejecuta la agregación en la base de datos.
+     *
+     * @param con Conexión a la BD
+     * @param funcion Función de agregación.
+     * @param medida Columna a agregar.
+     * @param agrupacion Criterio de agrupación.
+     * @return Una fila por grupo. Sin agrupación, una única fila (con valor 0
+     * si no hay trayectos).
+     * @throws SQLException Si falla la consulta.
+     */
+    public static List<Fila> agregar(Connection con, Funcion funcion, Medida medida, Agrupacion agrupacion) throws SQLException {
+        return agregar(con, funcion, medida, agrupacion, null);
+    }
+
+    /**
+     * Ejecuta la agregación en la base de datos como parte de una tarea en
+     * segundo plano, que puede cancelarla mientras se ejecuta.
+     *
+     * @param con Conexión a la BD
+     * @param funcion Función de agregación.
+     * @param medida Columna a agregar.
+     * @param agrupacion Criterio de agrupación.
+     * @param progreso Progreso de la tarea o null si no se ejecuta como
+     * tarea.
+     * @return Una fila por grupo. Sin agrupación, una única fila (con valor 0
+     * si no hay trayectos).
+     * @throws SQLException Si falla la consulta o se cancela.
+     */
+    public static List<Fila> agregar(Connection con, Funcion funcion, Medida medida, Agrupacion agrupacion,
+            EjecutorTareas.Progreso progreso) throws SQLException {
+        List<Fila> filas = new ArrayList<>();
+
+        try (PreparedStatement consulta = con.prepareStatement(elegirSql(funcion, medida, agrupacion))) {
+            if (progreso != null) {
+                progreso.vigilar(consulta);
+            }
+
+            try (ResultSet resultados = consulta.executeQuery()) {
+                if (agrupacion.expresion == null) {
+                    double valor = resultados.next() ? resultados.getDouble(1) : 0;
+                    filas.add(new Fila(null, valor));
+                }
+                else {
+                    while (resultados.next()) {
+                        filas.add(new Fila(resultados.getString(1), resultados.getDouble(2)));
+                        if (progreso != null) {
+                            progreso.comprobar();
+                            progreso.avanzar(filas.size(), -1);
+                        }
+                    }
+                }
+            }
+        }
+        return filas;
+    }
+
+    /**
+     * Ejecuta una agregación sin agrupar.
+     *
+     * @param con Conexión a la BD
+     * @param funcion Función de agregación.
+     * @param medida Columna a agregar.
+     * @return Resultado de la agregación sobre todos los trayectos.
+     * @throws SQLException Si falla la consulta.
+     */
+    public static double agregarTotal(Connection con, Funcion funcion, Medida medida) throws SQLException {
+        return agregarTotal(con, funcion, medida, null);
+    }
+
+    /**
+     * Ejecuta una agregación sin agrupar como parte de una tarea en segundo
+     * plano.
+     *
+     * @param con Conexión a la BD
+     * @param funcion Función de agregación.
+     * @param medida Columna a agregar.
+     * @param progreso Progreso de la tarea o null si no se ejecuta como
+     * tarea.
+     * @return Resultado de la agregación sobre todos los trayectos.
+     * @throws SQLException Si falla la consulta o se cancela.
+     */
+    public static double agregarTotal(Connection con, Funcion funcion, Medida medida,
+            EjecutorTareas.Progreso progreso) throws SQLException {
+        return agregar(con, funcion, medida, Agrupacion.NINGUNA, progreso).get(0).getValor();
+    }
+}
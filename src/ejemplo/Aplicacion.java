@@ -1,11 +1,18 @@
 package ejemplo;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.Date;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.PreparedStatement;
@@ -13,9 +20,26 @@ import org.h2.tools.Server;
 import static java.lang.System.*;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.ResultSet;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import utilidades.Cronometro;
 import utilidades.ES;
+import utilidades.EjecutorScript;
+import utilidades.EjecutorTareas;
+import utilidades.ExportadorResultados;
+import utilidades.Metricas;
+import utilidades.ConfirmacionAgrupada;
+import utilidades.PoolConexiones;
+import utilidades.RegistroConsultasLentas;
+import utilidades.UnidadTrabajo;
+import utilidades.ValidadorMatricula;
 
 /**
  * Clase principal de inicio del programa.
@@ -40,6 +64,120 @@ public class Aplicacion {
      * Opciones de conexión.
      */
     private static final String PARAMS = ";MODE=MySQL;AUTO_RECONNECT=TRUE";
+    /**
+     * Opción de conexión del modo compartido: el primer proceso que abre el
+     * archivo inicia un servidor TCP de H2 y los siguientes se conectan a él.
+     */
+    private static final String PARAMS_COMPARTIDA = ";AUTO_SERVER=TRUE";
+    /**
+     * Puerto fijo del servidor TCP en modo compartido (propiedad del sistema
+     * vehiculos.puertoTcp). Con 0 lo elige H2.
+     */
+    private static final int PUERTO_TCP = Integer.getInteger("vehiculos.puertoTcp", 0);
+    /**
+     * Conexiones que el pool mantiene siempre abiertas.
+     */
+    private static final int POOL_MINIMO = 1;
+    /**
+     * Conexiones que el pool puede tener abiertas a la vez como máximo.
+     */
+    private static final int POOL_MAXIMO = 8;
+    /**
+     * Hilos del informe de eficiencia en paralelo. Cada uno ocupa una
+     * conexión, así que por defecto se deja sitio en el pool para el resto de
+     * operaciones.
+     */
+    private static final int HILOS_EFICIENCIA = Integer.getInteger("vehiculos.eficiencia.hilos",
+            Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), POOL_MAXIMO / 2)));
+    /**
+     * Milisegundos que una conexión libre puede seguir abierta por encima del mínimo.
+     */
+    private static final long POOL_MS_OCIOSO = 60_000;
+    /**
+     * Milisegundos máximos de espera para obtener una conexión del pool.
+     */
+    private static final long POOL_MS_ADQUISICION = 5_000;
+    /**
+     * Milisegundos de préstamo a partir de los cuales se avisa de una posible fuga.
+     */
+    private static final long POOL_MS_FUGA = 300_000;
+    /**
+     * Sentencias preparadas que se guardan en caché por cada conexión del pool.
+     */
+    private static final int POOL_SENTENCIAS = 64;
+    /**
+     * Filas por página en los listados (propiedad del sistema vehiculos.pagina).
+     */
+    private static final int TAMANO_PAGINA = Integer.getInteger("vehiculos.pagina", 20);
+    /**
+     * Filas que se piden al driver en cada viaje (propiedad del sistema vehiculos.fetch).
+     */
+    private static final int TAMANO_FETCH = Integer.getInteger("vehiculos.fetch", TAMANO_PAGINA);
+    /**
+     * Milisegundos de la ventana de confirmación agrupada de escrituras
+     * (propiedad del sistema vehiculos.commitAgrupado). Con 0 cada operación
+     * confirma sus propias escrituras.
+     */
+    private static final long MS_COMMIT_AGRUPADO = Long.getLong("vehiculos.commitAgrupado", 0);
+    /**
+     * Escrituras como máximo en cada confirmación agrupada (propiedad del
+     * sistema vehiculos.commitGrupo).
+     */
+    private static final int COMMIT_GRUPO = Integer.getInteger("vehiculos.commitGrupo", 256);
+    /**
+     * Milisegundos a partir de los cuales una sentencia se anota en el
+     * registro de consultas lentas (propiedad del sistema vehiculos.lentas.ms).
+     * Con un valor negativo no se lleva el registro.
+     */
+    private static final long MS_CONSULTA_LENTA = Long.getLong("vehiculos.lentas.ms", 500);
+    /**
+     * Patrón de los archivos del registro de consultas lentas (propiedad del
+     * sistema vehiculos.lentas.archivo); %g es el número de archivo.
+     */
+    private static final String ARCHIVO_CONSULTAS_LENTAS = System.getProperty("vehiculos.lentas.archivo", "consultas-lentas.%g.log");
+    /**
+     * Bytes de cada archivo del registro de consultas lentas y número de
+     * archivos que se conservan al rotar.
+     */
+    private static final int BYTES_CONSULTAS_LENTAS = 1_000_000;
+    private static final int ARCHIVOS_CONSULTAS_LENTAS = 5;
+
+    /**
+     * Página de conductores a partir de un NSS (parámetros: último NSS, filas).
+     */
+    static final String SQL_PAGINA_CONDUCTORES = "SELECT NSS, NOMBRE, APELLIDOS FROM CONDUCTOR WHERE NSS > ? ORDER BY NSS LIMIT ?";
+    /**
+     * Página de coches a partir de un bastidor (parámetros: último bastidor, filas).
+     */
+    static final String SQL_PAGINA_COCHES = "SELECT N_BASTIDOR, MATRICULA, MARCA, MODELO, COLOR FROM COCHE WHERE N_BASTIDOR > ? ORDER BY N_BASTIDOR LIMIT ?";
+    /**
+     * Cambio de matrícula (parámetros: matrícula, bastidor).
+     */
+    static final String SQL_MODIFICAR_MATRICULA = "UPDATE COCHE SET MATRICULA =? WHERE N_BASTIDOR =?";
+    /**
+     * Alta de conductor (parámetros: NSS, nombre, apellidos).
+     */
+    static final String SQL_NUEVO_CONDUCTOR = "INSERT INTO CONDUCTOR (nss, nombre, apellidos) VALUES (?,?,?)";
+    /**
+     * Baja de conductor, que borra en cascada sus trayectos (parámetro: NSS).
+     */
+    static final String SQL_BORRAR_CONDUCTOR = "DELETE FROM CONDUCTOR WHERE NSS = ?";
+    /**
+     * Listados completos que pueden exportarse.
+     */
+    static final String SQL_EXPORTAR_CONDUCTORES = "SELECT NSS, NOMBRE, APELLIDOS FROM CONDUCTOR ORDER BY NSS";
+    static final String SQL_EXPORTAR_COCHES = "SELECT N_BASTIDOR, MATRICULA, MARCA, MODELO, COLOR FROM COCHE ORDER BY N_BASTIDOR";
+    static final String SQL_EXPORTAR_TRAYECTOS = "SELECT NSS, N_BASTIDOR, KMS, FECHA, GASTOREPOSTAJE FROM TRAYECTO ORDER BY FECHA";
+    /**
+     * Filas que se piden al driver en cada viaje al exportar.
+     */
+    private static final int TAMANO_FETCH_EXPORTACION = Integer.getInteger("vehiculos.exportar.fetch", 10_000);
+
+    /**
+     * Tabla en la que se guarda la suma de control del script de estructura
+     * con el que se creó la base de datos.
+     */
+    private static final String SQL_TABLA_VERSION = "CREATE TABLE IF NOT EXISTS VERSION_ESQUEMA (ID INTEGER NOT NULL PRIMARY KEY, SUMA BIGINT NOT NULL)";
 
     /**
      * Path al archivo que contiene la estructura de la base de datos.
@@ -51,20 +189,92 @@ public class Aplicacion {
      */
     public final static String INSERTA_DB = "/resources/cargaBD.sql";
 
+    /**
+     * Modo de arranque rápido (--rapido): sin consola web salvo que se pida.
+     */
+    private static boolean arranqueRapido = false;
+    /**
+     * Modo compartido (--compartida): varios procesos usan la base de datos a
+     * la vez a través del servidor TCP automático de H2.
+     */
+    private static boolean baseCompartida = false;
+    /**
+     * Consola web de H2, o null si no está iniciada.
+     */
+    private static Server consolaWeb = null;
+    /**
+     * Duración de las fases del arranque.
+     */
+    private static final Cronometro arranque = new Cronometro();
+    /**
+     * Agrupador de las escrituras de las operaciones, o null si cada
+     * operación confirma las suyas.
+     */
+    private static ConfirmacionAgrupada confirmacionAgrupada = null;
+    /**
+     * Copia por columnas de los trayectos para la analítica en memoria. Se
+     * carga la primera vez que se usa y después sólo se actualiza.
+     */
+    private static final InstantaneaTrayectos instantanea = new InstantaneaTrayectos();
+
+    /**
+     * Informe que puede escribirse en la consola o, en segundo plano, en un
+     * texto que se muestra al terminar.
+     */
+    private interface Informe {
+
+        /**
+         * @param con Conexión a la BD
+         * @param salida Destino del informe.
+         * @param progreso Progreso de la tarea o null si se ejecuta en primer
+         * plano.
+         * @throws SQLException Si falla la consulta.
+         */
+        void escribir(Connection con, PrintStream salida, EjecutorTareas.Progreso progreso) throws SQLException;
+    }
+
+    /**
+     * Informe que toma del pool las conexiones que necesita, en vez de usar
+     * una que se le preste.
+     */
+    private interface InformePool {
+
+        /**
+         * @param salida Destino del informe.
+         * @param progreso Progreso de la tarea o null si se ejecuta en primer
+         * plano.
+         * @throws SQLException Si falla la consulta.
+         */
+        void escribir(PrintStream salida, EjecutorTareas.Progreso progreso) throws SQLException;
+    }
+
     /**
      * Método principal de la aplicación. En él se realiza la preparación del
      * entorno antes de empezar. A destacar:
      *
-     * - Se carga el driver (Class.forName). - Se establece una conexión con la
-     * base de datos (DriverManager.getConnection) - Se crean las tablas, si no
-     * están creadas, invocando el método createTables. - Se ejecuta una
-     * consulta de prueba
+     * - Se carga el driver (Class.forName). - Se crea el pool de conexiones con
+     * la base de datos (PoolConexiones). Cada operación del menú toma una
+     * conexión del pool y la devuelve al terminar. - Se crea el ejecutor de
+     * tareas en segundo plano (EjecutorTareas), para los informes que el
+     * usuario no quiera esperar. - Se inicia la consola web
+     * de H2 en segundo plano. - Se crean las tablas, si no están creadas,
+     * invocando el método createTables. - Se ejecuta una consulta de prueba
+     *
+     * Argumentos admitidos: --guion archivo (lee las respuestas del archivo,
+     * una por línea, en lugar del teclado), --rapido (no inicia la consola
+     * web, que puede abrirse después desde el menú) y --compartida (permite
+     * que otros procesos de la aplicación usen la misma base de datos a la
+     * vez).
      *
      * @param args
      */
     public static void main(String[] args) {
         boolean driverCargado = false;
 
+        if (!procesarArgumentos(args)) {
+            return;
+        }
+
         //Carga del driver de la base de datos.
         try {
             Class.forName(DRIVER).getDeclaredConstructor().newInstance();
@@ -79,108 +289,58 @@ public class Aplicacion {
         catch (IllegalArgumentException | InvocationTargetException | NoSuchMethodException | SecurityException ex) {
             java.util.logging.Logger.getLogger(Aplicacion.class.getName()).log(Level.SEVERE, null, ex);
         }
+        arranque.marcar("driver");
 
         //Si el driver está cargado, aseguramos que podremos conectar.
         if (driverCargado) {
-            //Conectamos con la base de datos.
-            //El try-with-resources asegura que se cerrará la conexión al salir.
-            String[] wsArgs = {"-baseDir", System.getProperty("user.dir"), "-browser"};
-            try (Connection con = DriverManager.getConnection(URL_CONEXION + PARAMS, "", "")) {
-
-                // Iniciamos el servidor web interno (consola H2 para depuraciones)
-                Server sr = Server.createWebServer(wsArgs);
-                sr.start();
-
-                // Presentamos información inicial por consola
-                out.println("¡¡Atención!!");
-                out.println();
-                out.println("Mientras tu aplicación se esté ejecutando \n"
-                        + "puedes acceder a la consola de la base de datos \n"
-                        + "a través del navegador web.");
-                out.println();
-                out.println("Página local: " + sr.getURL());
-                out.println();
-                out.println("Datos de acceso");
-                out.println("---------------");
-                out.println("Controlador: " + DRIVER);
-                out.println("URL JDBC: " + URL_CONEXION);
-                out.println("Usuario: (no indicar nada)");
-                out.println("Password: (no indicar nada)");
+            //Creamos el pool de conexiones con la base de datos.
+            //El try-with-resources asegura que se cerrarán las conexiones al salir,
+            //después de cancelar las tareas en segundo plano que sigan en curso.
+            try (RegistroConsultasLentas registro = MS_CONSULTA_LENTA >= 0 ? new RegistroConsultasLentas(MS_CONSULTA_LENTA,
+                    ARCHIVO_CONSULTAS_LENTAS, BYTES_CONSULTAS_LENTAS, ARCHIVOS_CONSULTAS_LENTAS) : null;
+                    PoolConexiones pool = new PoolConexiones(getUrlConexion() + PARAMS, "", "", POOL_MINIMO, POOL_MAXIMO,
+                    POOL_MS_OCIOSO, POOL_MS_ADQUISICION, POOL_MS_FUGA, POOL_SENTENCIAS);
+                    ConfirmacionAgrupada agrupada = MS_COMMIT_AGRUPADO > 0 ? new ConfirmacionAgrupada(pool, MS_COMMIT_AGRUPADO, COMMIT_GRUPO) : null;
+                    EjecutorTareas tareas = new EjecutorTareas()) {
+                confirmacionAgrupada = agrupada;
+                // Todas las sentencias de la aplicación se miden y las lentas se anotan con su plan.
+                pool.setRegistroConsultas(registro);
+                arranque.marcar("conexión");
+                if (baseCompartida) {
+                    out.println("Base de datos compartida: otros procesos pueden usarla a la vez.");
+                }
+
+                // Iniciamos el servidor web interno (consola H2 para depuraciones) en segundo plano,
+                // para no retrasar la aparición del menú. En modo rápido sólo se inicia si se pide.
+                if (!arranqueRapido) {
+                    Thread hiloConsola = new Thread(Aplicacion::iniciarConsola, "consola-h2");
+                    hiloConsola.setDaemon(true);
+                    hiloConsola.start();
+                }
 
                 // Creamos las tablas y algunos datos de prueba si no existen y continuamos
                 // en el método crearTablas() se encuentra el Statement 
-                if (crearTablas(con) ) {
-                    
-                    //Verificar si no hay datos
-                    boolean hayDatos = hayDatosEnTablasAplicacion(con);
+                if (prepararBaseDatos(pool) ) {
+                    out.printf("Arranque: %s\n", arranque);
                     
-                    //Si no hay datos, insertar los datos en las tablas
-                    if (hayDatos) {
-                        // Insertar los datos en las tablas de la BD
-                        insertarDatosTablas(con);
-                    }
-                    
-                    boolean continuar = true;
-
-                    do {
-                        System.out.println();
-                        System.out.println();
-                        System.out.println("----------------  MENÚ DE LA APLICACIÓN ----------------");
-                        System.out.println("------------ ---------------------------- --------------");
-                        System.out.println("1 - Consultar conductores");
-                        System.out.println("2 - Consultar coches");
-                        System.out.println("3 - Consultar suma de gasto total de todos los trayectos");
-                        System.out.println("4 - Modificar matrícula de coche");
-                        System.out.println("5 - Borrar conductor");
-                        System.out.println("6 - Nuevo conductor (Implementación adicional mia)");
-                        System.out.println("0 - Salir");
-                        System.out.println("--------------------------------------------------------");
-                        System.out.println("--------------------------------------------------------");
-                        System.out.println();
-                        System.out.println();
-
-                        // Leer la opción correspondiente a ejecutar.
-                        int opcion = ES.leeEntero("Escriba opción: ", 0, 6);
-                        switch (opcion) {
-                            case 0:
-                                continuar = false;
-                                break;
-
-                            case 1:
-                                consultarConductores(con);
-                                break;
-
-                            case 2:
-                                consultarCoches(con);
-                                break;
-
-                            case 3:
-                                consultarSumaGasto(con) ;
-                                break;
-
-                            case 4:
-                                modificarMatricula(con);
-                                break;
-
-                            case 5:
-                                borrarConductor(con);
-                                break;
-                            case 6:
-                                nuevoConductor(con);
-                                break;
+                    try {
+                        ejecutarMenu(pool, tareas);
+
+                        // Esperar tecla
+                        if (consolaWeb != null) {
+                            ES.leeCadena("Antes de terminar, puedes acceder a la consola de H2 para ver y modificar la BD. Pulsa cualquier tecla para salir.");
                         }
                     }
-                    while (continuar);
-
-                    // Esperar tecla
-                    ES.leeCadena("Antes de terminar, puedes acceder a la consola de H2 para ver y modificar la BD. Pulsa cualquier tecla para salir.");                    
+                    catch (NoSuchElementException e) {
+                        // Se ha acabado la entrada (por ejemplo, el guion de respuestas).
+                        out.println("Fin de la entrada de datos.");
+                    }
                 }
                 else {
                     System.err.println("Problema creando las tablas.");
                 }
 
-                sr.stop();
-                sr.shutdown();
+                pararConsola();
 
             }
             catch (SQLException ex) {
@@ -191,10 +351,626 @@ public class Aplicacion {
     }
 
     
+    /**
+     * Inicia la consola web de H2, si no lo está ya, y muestra los datos de
+     * acceso.
+     */
+    private static synchronized void iniciarConsola() {
+        if (consolaWeb != null) {
+            out.println("La consola web ya está iniciada: " + consolaWeb.getURL());
+            return;
+        }
+
+        String[] wsArgs = {"-baseDir", System.getProperty("user.dir"), "-browser"};
+        try {
+            Server sr = Server.createWebServer(wsArgs);
+            sr.start();
+            consolaWeb = sr;
+
+            // Presentamos información inicial por consola
+            out.println("¡¡Atención!!");
+            out.println();
+            out.println("Mientras tu aplicación se esté ejecutando \n"
+                    + "puedes acceder a la consola de la base de datos \n"
+                    + "a través del navegador web.");
+            out.println();
+            out.println("Página local: " + sr.getURL());
+            out.println();
+            out.println("Datos de acceso");
+            out.println("---------------");
+            out.println("Controlador: " + DRIVER);
+            out.println("URL JDBC: " + getUrlConexion());
+            out.println("Usuario: (no indicar nada)");
+            out.println("Password: (no indicar nada)");
+        }
+        catch (SQLException ex) {
+            err.printf("No se pudo iniciar la consola web de H2 (%s)\n", ex.getMessage());
+        }
+    }
+
+    
+    /**
+     * Para la consola web de H2, si se inició.
+     */
+    private static synchronized void pararConsola() {
+        if (consolaWeb != null) {
+            consolaWeb.stop();
+            consolaWeb.shutdown();
+            consolaWeb = null;
+        }
+    }
+
+    
+    /**
+     * Ejecuta las escrituras de una operación y las confirma juntas. Si está
+     * activa la confirmación agrupada, se confirman además junto con las de
+     * otras operaciones que lleguen a la vez; si no, en una unidad de trabajo
+     * sobre la conexión de la operación.
+     *
+     * @param con Conexión de la operación
+     * @param escritura Escrituras a ejecutar
+     * @return Resultado de la escritura
+     * @throws SQLException Si falla la escritura o su confirmación (en ese
+     * caso no se confirma nada de ella).
+     */
+    private static <T> T escribir(Connection con, UnidadTrabajo.Escritura<T> escritura) throws SQLException {
+        if (confirmacionAgrupada != null) {
+            return confirmacionAgrupada.ejecutar(escritura);
+        }
+        try (UnidadTrabajo unidad = new UnidadTrabajo(con) ) {
+            T resultado = unidad.ejecutar(escritura);
+            unidad.confirmar();
+            return resultado;
+        }
+    }
+
+    
+    /**
+     * URL de la base de datos, sin las opciones de conexión. En modo
+     * compartido el proceso que abre primero el archivo inicia un servidor TCP
+     * (anotando su dirección en el archivo de bloqueo) y el resto se conecta a
+     * ese servidor en lugar de fallar con "The file is locked". Si ese proceso
+     * termina, otro toma su lugar gracias a AUTO_RECONNECT.
+     *
+     * @return URL JDBC.
+     */
+    private static String getUrlConexion() {
+        if (!baseCompartida) {
+            return URL_CONEXION;
+        }
+        return URL_CONEXION + PARAMS_COMPARTIDA + (PUERTO_TCP > 0 ? ";AUTO_SERVER_PORT=" + PUERTO_TCP : "");
+    }
+
+    
+    /**
+     * Procesa los argumentos de la línea de comandos.
+     *
+     * @param args Argumentos recibidos por main.
+     * @return false si hay algún argumento no válido y no debe continuarse.
+     */
+    private static boolean procesarArgumentos(String[] args) {
+        boolean todoBien = true;
+
+        for (int i = 0; i < args.length && todoBien; i++) {
+            switch (args[i]) {
+                case "--rapido":
+                    arranqueRapido = true;
+                    break;
+                case "--compartida":
+                    baseCompartida = true;
+                    break;
+                case "--guion":
+                    if (i + 1 < args.length) {
+                        try {
+                            ES.usarGuion(Paths.get(args[++i]) );
+                        }
+                        catch (IOException | InvalidPathException e) {
+                            err.printf("No se ha podido abrir el guion: %s\n", args[i]);
+                            todoBien = false;
+                        }
+                    }
+                    else {
+                        err.printf("Falta el archivo de guion tras --guion\n");
+                        todoBien = false;
+                    }
+                    break;
+                default:
+                    err.printf("Argumento desconocido: %s\n", args[i]);
+                    todoBien = false;
+                    break;
+            }
+        }
+        return todoBien;
+    }
+
+    
+    /**
+     * Muestra el menú y ejecuta las opciones elegidas hasta que se elija salir.
+     *
+     * @param pool Pool de conexiones a la BD
+     * @param tareas Ejecutor de las tareas en segundo plano
+     * @throws NoSuchElementException Si se acaba la entrada de datos.
+     */
+    private static void ejecutarMenu(PoolConexiones pool, EjecutorTareas tareas) {
+        boolean continuar = true;
+
+        do {
+            System.out.println();
+            avisarTareasAcabadas(tareas);
+            System.out.println();
+            System.out.println("----------------  MENÚ DE LA APLICACIÓN ----------------");
+            System.out.println("------------ ---------------------------- --------------");
+            System.out.println("1 - Consultar conductores");
+            System.out.println("2 - Consultar coches");
+            System.out.println("3 - Consultar suma de gasto total de todos los trayectos");
+            System.out.println("4 - Modificar matrícula de coche");
+            System.out.println("5 - Borrar conductor");
+            System.out.println("6 - Nuevo conductor (Implementación adicional mia)");
+            System.out.println("7 - Consultar gasto y kilómetros agrupados");
+            System.out.println("8 - Importar datos desde un archivo CSV");
+            System.out.println("9 - Consultar trayectos de un conductor o coche entre dos fechas");
+            System.out.println("10 - Buscar coche por matrícula");
+            System.out.println("11 - Abrir la consola web de H2");
+            System.out.println("12 - Lanzar un informe en segundo plano");
+            System.out.println("13 - Ver las tareas en segundo plano");
+            System.out.println("14 - Cancelar una tarea en segundo plano");
+            System.out.println("15 - Borrar conductores en bloque (lista o rango de NSS)");
+            System.out.println("16 - Mostrar las métricas de rendimiento");
+            System.out.println("17 - Consultar gasto y kilómetros agrupados en memoria");
+            System.out.println("18 - Informe de eficiencia de la flota (euros por km)");
+            System.out.println("19 - Resúmenes mensuales (periodo, comprobar, reconstruir)");
+            System.out.println("20 - Exportar un listado o informe a CSV o JSON");
+            System.out.println("0 - Salir");
+            System.out.println("--------------------------------------------------------");
+            System.out.println("--------------------------------------------------------");
+            System.out.println();
+            System.out.println();
+
+            // Leer la opción correspondiente a ejecutar.
+            int opcion = ES.leeEntero("Escriba opción: ", 0, 20);
+            if (opcion == 0) {
+                continuar = false;
+            }
+            else if (opcion == 11) {
+                iniciarConsola();
+            }
+            else if (opcion == 12) {
+                invalidarEstadisticas();
+                lanzarInforme(pool, tareas);
+            }
+            else if (opcion == 13) {
+                verTareas(tareas);
+            }
+            else if (opcion == 14) {
+                cancelarTarea(tareas);
+            }
+            else if (opcion == 16) {
+                System.out.print(Metricas.volcar() );
+            }
+            else if (opcion == 18) {
+                invalidarEstadisticas();
+                consultarEficiencia(pool);
+            }
+            else if (opcion == 20) {
+                exportar(pool, tareas);
+            }
+            else {
+                ejecutarOpcion(pool, opcion);
+            }
+        }
+        while (continuar);
+    }
+
+    
+    /**
+     * Pide un informe y sus datos y lo lanza en segundo plano con una conexión
+     * propia del pool. El resultado se guarda para verlo con la opción 13.
+     *
+     * @param pool Pool de conexiones a la BD
+     * @param tareas Ejecutor de las tareas en segundo plano
+     */
+    private static void lanzarInforme(PoolConexiones pool, EjecutorTareas tareas) {
+        ES.msgln("1 - Suma de gasto total de todos los trayectos");
+        ES.msgln("2 - Gasto y kilómetros agrupados");
+        ES.msgln("3 - Trayectos de un conductor o coche entre dos fechas");
+        ES.msgln("4 - Eficiencia de la flota (euros por km)");
+        int tipo = ES.leeEntero("Escriba el informe a lanzar:", 1, 4);
+
+        String descripcion;
+        Informe informe;
+        if (tipo == 1) {
+            descripcion = "Suma de gasto total";
+            informe = Aplicacion::informeSumaGasto;
+        }
+        else if (tipo == 2) {
+            AgregadosTrayecto.Funcion funcion = elegir("Escriba la función a calcular:", AgregadosTrayecto.Funcion.values(), AgregadosTrayecto.Funcion::getDescripcion);
+            AgregadosTrayecto.Medida medida = elegir("Escriba la columna a calcular:", AgregadosTrayecto.Medida.values(), AgregadosTrayecto.Medida::getDescripcion);
+            AgregadosTrayecto.Agrupacion agrupacion = elegir("Escriba cómo agrupar:", AgregadosTrayecto.Agrupacion.values(), AgregadosTrayecto.Agrupacion::getDescripcion);
+            descripcion = String.format("%s de %s por %s", funcion.getDescripcion(), medida.getDescripcion(), agrupacion.getDescripcion());
+            informe = (con, salida, progreso) -> informeAgregados(con, funcion, medida, agrupacion, salida, progreso);
+        }
+        else if (tipo == 4) {
+            EficienciaFlota.Agrupacion agrupacion = elegir("Escriba cómo agrupar:", EficienciaFlota.Agrupacion.values(), EficienciaFlota.Agrupacion::getDescripcion);
+            int puestos = ES.leeEntero("Escriba cuántos mostrar en cada clasificación:", 1);
+            boolean todas = ES.leeRespuesta("¿Mostrar también el detalle de todos? (S/N)").equals("S");
+            descripcion = String.format("Eficiencia de la flota por %s", agrupacion.getDescripcion().toLowerCase());
+            // El informe toma sus propias conexiones para agregar en paralelo.
+            lanzarTarea(tareas, descripcion, (salida, progreso) -> informeEficiencia(pool, agrupacion, puestos, todas, salida, progreso));
+            return;
+        }
+        else {
+            boolean porConductor = leerTipoTrayectos();
+            int clave = ES.leeEntero(porConductor ? "Escriba el NSS del conductor:" : "Escriba el número de bastidor:");
+            Date desde = solicitarFecha("Escriba la fecha inicial (AAAA-MM-DD):");
+            Date hasta = solicitarFecha("Escriba la fecha final (AAAA-MM-DD):");
+            descripcion = String.format("Trayectos de %s %d entre %s y %s", porConductor ? "NSS" : "bastidor", clave, desde, hasta);
+            informe = (con, salida, progreso) -> informeTrayectos(con, porConductor, clave, desde, hasta, salida, progreso);
+        }
+
+        lanzarTarea(pool, tareas, descripcion, informe);
+    }
+
+    
+    /**
+     * Lanza un informe en segundo plano con una conexión propia del pool. Lo
+     * que escribe se guarda como resultado de la tarea.
+     *
+     * @param pool Pool de conexiones a la BD
+     * @param tareas Ejecutor de las tareas en segundo plano
+     * @param descripcion Descripción de la tarea
+     * @param informe Informe a ejecutar
+     */
+    private static void lanzarTarea(PoolConexiones pool, EjecutorTareas tareas, String descripcion, Informe informe) {
+        lanzarTarea(tareas, descripcion, (salida, progreso) -> {
+            try (Connection con = pool.obtenerConexion()) {
+                informe.escribir(con, salida, progreso);
+            }
+        });
+    }
+
+    
+    /**
+     * Lanza en segundo plano un informe que toma sus propias conexiones del
+     * pool. Lo que escribe se guarda como resultado de la tarea.
+     *
+     * @param tareas Ejecutor de las tareas en segundo plano
+     * @param descripcion Descripción de la tarea
+     * @param informe Informe a ejecutar
+     */
+    private static void lanzarTarea(EjecutorTareas tareas, String descripcion, InformePool informe) {
+        EjecutorTareas.Tarea tarea = tareas.lanzar(descripcion, progreso -> {
+            ByteArrayOutputStream texto = new ByteArrayOutputStream();
+            try (PrintStream salida = new PrintStream(texto, true, StandardCharsets.UTF_8) ) {
+                informe.escribir(salida, progreso);
+            }
+            return texto.toString(StandardCharsets.UTF_8);
+        });
+        System.out.printf("Lanzada la tarea %d: %s \n", tarea.getId(), descripcion);
+    }
+
+    
+    /**
+     * Pide qué exportar, el formato y el archivo, y hace la exportación en
+     * primer plano o como tarea en segundo plano.
+     *
+     * @param pool Pool de conexiones a la BD
+     * @param tareas Ejecutor de las tareas en segundo plano
+     */
+    private static void exportar(PoolConexiones pool, EjecutorTareas tareas) {
+        ES.msgln("1 - Conductores");
+        ES.msgln("2 - Coches");
+        ES.msgln("3 - Trayectos");
+        ES.msgln("4 - Gasto y kilómetros agrupados");
+        ES.msgln("5 - Resumen mensual por coche");
+        ES.msgln("6 - Resumen mensual por conductor");
+        int tipo = ES.leeEntero("Escriba qué exportar:", 1, 6);
+
+        String nombre;
+        String sql;
+        switch (tipo) {
+            case 1:
+                nombre = "conductores";
+                sql = SQL_EXPORTAR_CONDUCTORES;
+                break;
+            case 2:
+                nombre = "coches";
+                sql = SQL_EXPORTAR_COCHES;
+                break;
+            case 3:
+                nombre = "trayectos";
+                sql = SQL_EXPORTAR_TRAYECTOS;
+                break;
+            case 4: {
+                AgregadosTrayecto.Funcion funcion = elegir("Escriba la función a calcular:", AgregadosTrayecto.Funcion.values(), AgregadosTrayecto.Funcion::getDescripcion);
+                AgregadosTrayecto.Medida medida = elegir("Escriba la columna a calcular:", AgregadosTrayecto.Medida.values(), AgregadosTrayecto.Medida::getDescripcion);
+                AgregadosTrayecto.Agrupacion agrupacion = elegir("Escriba cómo agrupar:", AgregadosTrayecto.Agrupacion.values(), AgregadosTrayecto.Agrupacion::getDescripcion);
+                nombre = "agregados";
+                sql = AgregadosTrayecto.elegirSql(funcion, medida, agrupacion);
+                break;
+            }
+            case 5:
+                nombre = "resumen-coches";
+                sql = ResumenesMensuales.construirSqlListado(ResumenesMensuales.Resumen.COCHE);
+                break;
+            default:
+                nombre = "resumen-conductores";
+                sql = ResumenesMensuales.construirSqlListado(ResumenesMensuales.Resumen.CONDUCTOR);
+                break;
+        }
+
+        ExportadorResultados.Formato formato = elegir("Escriba el formato:", ExportadorResultados.Formato.values(), ExportadorResultados.Formato::name);
+        String ruta = ES.leeCadena(String.format("Escriba el archivo de destino (vacío para %s.%s):", nombre, formato.getExtension())).trim();
+        Path destino;
+        try {
+            destino = Paths.get(ruta.isEmpty() ? nombre + "." + formato.getExtension() : ruta);
+        }
+        catch (InvalidPathException e) {
+            err.printf("La ruta no es válida: %s\n", ruta);
+            return;
+        }
+
+        Informe informe = (con, salida, progreso) -> informeExportacion(con, sql, destino, formato, salida, progreso);
+        if (ES.leeRespuesta("¿Exportar en segundo plano? (S/N)").equals("S") ) {
+            lanzarTarea(pool, tareas, String.format("Exportar %s a %s", nombre, destino), informe);
+        }
+        else {
+            try (Connection con = pool.obtenerConexion()) {
+                informe.escribir(con, System.out, null);
+            }
+            catch (SQLException e) {
+                err.printf("No se ha podido exportar (%s)\n", e.getMessage());
+            }
+        }
+    }
+
+    
+    /**
+     * Exporta el resultado de una consulta a un archivo según se va leyendo.
+     * La consulta se ejecuta en modo perezoso de H2 (LAZY_QUERY_EXECUTION),
+     * que va leyendo las filas a medida que se piden en lugar de preparar el
+     * resultado completo, y con un fetch size grande.
+     *
+     * @param con Conexión a la BD
+     * @param sql Consulta a exportar
+     * @param destino Archivo de destino
+     * @param formato Formato del archivo
+     * @param salida Destino del resumen de la exportación
+     * @param progreso Progreso de la tarea o null en primer plano
+     * @throws SQLException Si falla la consulta o la escritura del archivo
+     */
+    private static void informeExportacion(Connection con, String sql, Path destino, ExportadorResultados.Formato formato,
+            PrintStream salida, EjecutorTareas.Progreso progreso) throws SQLException {
+
+        Cronometro cronometro = new Cronometro();
+        long filas;
+        try (Metricas.Medicion medicion = Metricas.medir("exportar");
+                Statement modo = con.createStatement() ) {
+            modo.execute("SET LAZY_QUERY_EXECUTION 1");
+            try (PreparedStatement consulta = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY) ) {
+                consulta.setFetchSize(TAMANO_FETCH_EXPORTACION);
+                if (progreso != null) {
+                    progreso.vigilar(consulta);
+                }
+                try (ResultSet resultados = consulta.executeQuery() ) {
+                    filas = ExportadorResultados.exportar(resultados, destino, formato, progreso);
+                }
+            }
+            catch (IOException ex) {
+                throw new SQLException("No se ha podido escribir " + destino + ": " + ex.getMessage(), ex);
+            }
+            finally {
+                // La conexión vuelve al pool: se deja como estaba.
+                modo.execute("SET LAZY_QUERY_EXECUTION 0");
+            }
+            medicion.correcta();
+        }
+        cronometro.marcar("exportación");
+        salida.printf("Exportadas %d filas a %s en %d ms \n", filas, destino.toAbsolutePath(), cronometro.getTotalMs());
+    }
+
+    
+    /**
+     * Muestra las tareas en segundo plano y, si se pide, el resultado de una
+     * de ellas. Después permite olvidar las tareas acabadas.
+     *
+     * @param tareas Ejecutor de las tareas en segundo plano
+     */
+    private static void verTareas(EjecutorTareas tareas) {
+        if (tareas.getTareas().isEmpty()) {
+            ES.msgln("No se ha lanzado ninguna tarea en segundo plano.");
+            return;
+        }
+
+        ES.msgln("-----------------------------------------------------------------");
+        ES.msgln(" Id  Estado       Duración  Progreso       Descripción"           );
+        ES.msgln("-----------------------------------------------------------------");
+        int ultimoId = 0;
+        for (EjecutorTareas.Tarea tarea : tareas.getTareas()) {
+            ES.msgln(tarea.toString());
+            ultimoId = tarea.getId();
+        }
+
+        int id = ES.leeEntero("Escriba la tarea cuyo resultado quiere ver (0 para ninguna):", 0, ultimoId);
+        EjecutorTareas.Tarea tarea = tareas.getTarea(id);
+        if (tarea != null) {
+            switch (tarea.getEstado()) {
+                case TERMINADA:
+                    System.out.print(tarea.getResultado());
+                    break;
+                case FALLIDA:
+                    System.err.printf("La tarea %d ha fallado (%s)\n", id, tarea.getError());
+                    break;
+                default:
+                    System.out.printf("La tarea %d está %s. \n", id, tarea.getEstado().getDescripcion());
+                    break;
+            }
+        }
+
+        if (ES.leeRespuesta("¿Olvidar las tareas acabadas y sus resultados? (S/N)").equals("S") ) {
+            tareas.limpiarAcabadas();
+        }
+    }
+
+    
+    /**
+     * Cancela la tarea en segundo plano cuyo número se introduzca por
+     * teclado.
+     *
+     * @param tareas Ejecutor de las tareas en segundo plano
+     */
+    private static void cancelarTarea(EjecutorTareas tareas) {
+        int id = ES.leeEntero("Escriba la tarea a cancelar:", 1);
+        EjecutorTareas.Tarea tarea = tareas.getTarea(id);
+
+        if (tarea == null) {
+            ES.msgln("No existe ninguna tarea con ese número.");
+        }
+        else if (tarea.cancelar() ) {
+            System.out.printf("Se ha pedido cancelar la tarea %d. \n", id);
+        }
+        else {
+            System.out.printf("La tarea %d ya está %s. \n", id, tarea.getEstado().getDescripcion());
+        }
+    }
+
+    
+    /**
+     * Avisa de las tareas en segundo plano que han acabado desde la última
+     * vez que se mostró el menú.
+     *
+     * @param tareas Ejecutor de las tareas en segundo plano
+     */
+    private static void avisarTareasAcabadas(EjecutorTareas tareas) {
+        for (EjecutorTareas.Tarea tarea : tareas.recogerAcabadas()) {
+            System.out.printf("Tarea %d %s en %d ms: %s \n", tarea.getId(), tarea.getEstado().getDescripcion(),
+                    tarea.getDuracionMs(), tarea.getDescripcion());
+        }
+    }
+
+    
+    /**
+     * Crea las tablas, si no existen, y carga los datos de prueba si la base
+     * de datos está vacía, usando una conexión del pool.
+     *
+     * @param pool Pool de conexiones a la BD
+     * @return true si la estructura está lista y false en caso contrario.
+     */
+    private static boolean prepararBaseDatos(PoolConexiones pool) {
+        boolean todoBien = false;
+
+        try (Connection con = pool.obtenerConexion()) {
+            if (crearTablas(con) ) {
+                arranque.marcar("esquema");
+
+                // Calcular de una vez el número de filas y los extremos de las claves
+                EstadisticasTablas.cargar(con);
+
+                //Verificar si no hay datos
+                boolean hayDatos = hayDatosEnTablasAplicacion(con);
+
+                //Si no hay datos, insertar los datos en las tablas
+                if (hayDatos) {
+                    // Insertar los datos en las tablas de la BD
+                    insertarDatosTablas(con);
+                    EstadisticasTablas.cargar(con);
+                }
+                arranque.marcar("datos");
+                
+                // Cargar el índice de matrículas en memoria
+                IndiceMatriculas.cargar(con);
+                arranque.marcar("índice");
+                todoBien = true;
+            }
+        }
+        catch (SQLException ex) {
+            err.printf("No se pudo preparar la base de datos (%s)\n", ex.getMessage());
+        }
+        return todoBien;
+    }
+
+    
+    /**
+     * Con la base de datos compartida, otros procesos pueden haber cambiado
+     * las tablas: las estadísticas en memoria se vuelven a calcular cuando se
+     * pidan.
+     */
+    private static void invalidarEstadisticas() {
+        if (baseCompartida) {
+            for (EstadisticasTablas.Tabla tabla : EstadisticasTablas.Tabla.values()) {
+                EstadisticasTablas.invalidar(tabla);
+            }
+        }
+    }
+
+    
+    /**
+     * Ejecuta una opción del menú con una conexión prestada por el pool, que
+     * se devuelve al terminar la operación.
+     *
+     * @param pool Pool de conexiones a la BD
+     * @param opcion Opción elegida en el menú (distinta de 0)
+     */
+    private static void ejecutarOpcion(PoolConexiones pool, int opcion) {
+        invalidarEstadisticas();
+        try (Connection con = pool.obtenerConexion()) {
+            switch (opcion) {
+                case 1:
+                    consultarConductores(con);
+                    break;
+
+                case 2:
+                    consultarCoches(con);
+                    break;
+
+                case 3:
+                    consultarSumaGasto(con) ;
+                    break;
+
+                case 4:
+                    modificarMatricula(con);
+                    break;
+
+                case 5:
+                    borrarConductor(con);
+                    break;
+                case 6:
+                    nuevoConductor(con);
+                    break;
+                case 7:
+                    consultarAgregados(con);
+                    break;
+                case 8:
+                    importarCsv(con);
+                    break;
+                case 9:
+                    consultarTrayectosEntreFechas(con);
+                    break;
+                case 10:
+                    buscarCochePorMatricula(con);
+                    break;
+                case 15:
+                    borrarConductoresEnBloque(con);
+                    break;
+                case 17:
+                    consultarAgregadosEnMemoria(con);
+                    break;
+                case 19:
+                    gestionarResumenes(con);
+                    break;
+            }
+        }
+        catch (SQLException ex) {
+            err.printf("No se pudo obtener una conexión del pool (%s)\n", ex.getMessage());
+        }
+    }
+
+    
     /**
      * Dada una conexión válida, lleva a cabo la creación de la estructura de la
      * base de datos, usando como SQL para la creación el contenido en la
-     * constante ESTRUCTURA_DB
+     * constante ESTRUCTURA_DB. Si la base de datos ya se creó con este mismo
+     * script (según su suma de control, guardada en la tabla VERSION_ESQUEMA)
+     * no se vuelve a ejecutar.
      *
      * @param con conexión a la base de datos.
      * @see ESTRUCTURA_DB
@@ -203,28 +979,63 @@ public class Aplicacion {
     public static boolean crearTablas(Connection con) {
         boolean todoBien = false;
 
-        try (Statement consulta = con.createStatement() ) {
+        long suma = sumaControlRecurso(ESTRUCTURA_DB);
 
-            String sqlScript = loadResourceAsString(ESTRUCTURA_DB);
-            
-            if (sqlScript != null) {
-                consulta.execute(sqlScript);
+        if (suma < 0) {
+            System.out.printf("Problema cargando el archivo: %s \n", ESTRUCTURA_DB);
+            System.out.printf("Para ejecutar este proyecto no puede usarse 'Run File'\n");
+        }
+        else if (getSumaEsquema(con) == suma) {
+            todoBien = true;
+        }
+        else {
+            try (Reader script = abrirRecurso(ESTRUCTURA_DB);
+                    Statement consulta = con.createStatement() ) {
+
+                EjecutorScript.ejecutar(con, script);
+                consulta.execute(SQL_TABLA_VERSION);
+                try (PreparedStatement version = con.prepareStatement("MERGE INTO VERSION_ESQUEMA (ID, SUMA) KEY (ID) VALUES (1, ?)") ){
+                    version.setLong(1, suma);
+                    version.executeUpdate();
+                }
                 todoBien = true;
             }
-            else {
-                System.out.printf("Problema cargando el archivo: %s \n", ESTRUCTURA_DB);
-                System.out.printf("Para ejecutar este proyecto no puede usarse 'Run File'\n");
+            catch (IOException ex) {
+                System.err.printf("Problema leyendo el archivo: %s\n", ESTRUCTURA_DB);
+            }
+            catch (SQLException ex) {
+                System.err.printf("Problema creando la estructura de la base de datos (%s)\n", ex.getMessage());
             }
-
-        } catch (SQLException ex) {
-            System.err.printf("Problema creando la estructura de la base de datos.\n");
-            //ex.printStackTrace();
         }
         
         return todoBien;
     }
 
     
+    /**
+     * Lee la suma de control del script de estructura con el que se creó la
+     * base de datos.
+     *
+     * @param con conexión a la base de datos.
+     * @return La suma guardada o -1 si no hay ninguna (base de datos nueva o
+     * anterior a la tabla VERSION_ESQUEMA).
+     */
+    private static long getSumaEsquema(Connection con) {
+        long suma = -1;
+
+        try (Statement consulta = con.createStatement();
+                ResultSet resultado = consulta.executeQuery("SELECT SUMA FROM VERSION_ESQUEMA WHERE ID = 1") ){
+            if (resultado.next() ) {
+                suma = resultado.getLong(1);
+            }
+        }
+        catch (SQLException ex) {
+            // La tabla no existe todavía: hay que ejecutar el script.
+        }
+        return suma;
+    }
+
+    
     /**
      * Dada una conexión válida, lleva a cabo la inserción de datos de la base
      * de datos, usando como SQL para la creación el contenido en la constante
@@ -238,12 +1049,11 @@ public class Aplicacion {
         
         boolean todoBien = false;
 
-        try (Statement consulta = con.createStatement() ) {
+        try (Reader script = abrirRecurso(INSERTA_DB) ) {
 
-            String sqlScript = loadResourceAsString(INSERTA_DB);
-            
-            if (sqlScript != null) {
-                consulta.execute(sqlScript);
+            if (script != null) {
+                EjecutorScript.ejecutar(con, script, EjecutorScript.TAMANO_LOTE,
+                        (sentencias, linea) -> out.printf("Cargando datos: %d sentencias (línea %d)\n", sentencias, linea) );
                 todoBien = true;
             }
             else {
@@ -252,9 +1062,11 @@ public class Aplicacion {
             }
 
         }
+        catch (IOException ex) {
+            System.err.printf("Problema leyendo el archivo: %s\n", INSERTA_DB);
+        }
         catch (SQLException ex) {
-            System.err.printf("Problema insertando datos en la base de datos.\n");
-            //ex.printStackTrace();
+            System.err.printf("Problema insertando datos en la base de datos (%s)\n", ex.getMessage());
         }
         
         return todoBien;
@@ -262,51 +1074,84 @@ public class Aplicacion {
 
     
     /**
-     * Carga un recurso que estará dentro del JAR como cadena de texto.
+     * Abre para lectura un recurso de texto que estará dentro del JAR, sin
+     * cargarlo entero en memoria.
      *
      * @param resourceName Nombre del recurso dentro del JAR.
-     * @return Cadena que contiene el contenido del archivo.
+     * @return Lector del recurso (UTF-8) o null si no existe.
      */
-    public static String loadResourceAsString(String resourceName) {
-        String resource = null;
+    public static Reader abrirRecurso(String resourceName) {
+        InputStream is = Aplicacion.class.getResourceAsStream(resourceName);
+        return is != null ? new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8) ) : null;
+    }
+
+    
+    /**
+     * Calcula la suma de control (CRC32) de un recurso que estará dentro del
+     * JAR, leyéndolo por partes.
+     *
+     * @param resourceName Nombre del recurso dentro del JAR.
+     * @return La suma de control o -1 si el recurso no existe o no se puede
+     * leer.
+     */
+    private static long sumaControlRecurso(String resourceName) {
+        long suma = -1;
         InputStream is = Aplicacion.class.getResourceAsStream(resourceName);
         
         if (is != null) {
-            try (InputStreamReader isr = new InputStreamReader(is);
-                     BufferedReader br = new BufferedReader(isr);
-                ) {
-                resource = br.lines().collect(Collectors.joining("\n") );
+            try (CheckedInputStream cis = new CheckedInputStream(is, new CRC32()) ) {
+                byte[] buffer = new byte[8192];
+                while (cis.read(buffer) >= 0) {
+                }
+                suma = cis.getChecksum().getValue();
             }
             catch (IOException ex) {
-                System.err.printf("Problema leyendo el recurso como cadena: %S\n ", resourceName);
+                System.err.printf("Problema leyendo el recurso: %s\n", resourceName);
             }
         }
-        return resource;
+        return suma;
     }
 
     
     /**
-     * Consultar los conductores de la base de datos
+     * Consultar los conductores de la base de datos, por páginas de
+     * TAMANO_PAGINA filas. Cada página continúa a partir del último NSS
+     * mostrado, de forma que pedir la página N cuesta lo mismo que la primera.
      *
      * @param con Conexión a la BD
      */
     private static void consultarConductores(Connection con) {
         if( con != null){
-            try (PreparedStatement consulta = con.prepareStatement("SELECT NSS, NOMBRE, APELLIDOS FROM CONDUCTOR") ){
-                ResultSet resultados = consulta.executeQuery();
+            try (PreparedStatement consulta = con.prepareStatement(SQL_PAGINA_CONDUCTORES) ){
+                consulta.setFetchSize(TAMANO_FETCH);
                 
                 ES.msgln("--------------Listado de conductores--------------");
                 ES.msgln("  NSS    Nombre          Apellidos"                );
                 ES.msgln("--------------------------------------------------");
                 
-                //Recorrer el ResultSet
-                while (resultados.next() ) {                    
-                    int nss          = resultados.getInt   ("NSS");
-                    String nombre    = resultados.getString("NOMBRE");
-                    String apellidos = resultados.getString("APELLIDOS");
+                int ultimoNss = Integer.MIN_VALUE;
+                int filasPagina;
+                do {
+                    consulta.setInt(1, ultimoNss);
+                    consulta.setInt(2, TAMANO_PAGINA);
+                    filasPagina = 0;
                     
-                    System.out.printf("%5d    %-15s %-24s \n", nss, nombre, apellidos);
+                    //Recorrer el ResultSet
+                    try (Metricas.Medicion medicion = Metricas.medir("consultarConductores");
+                            ResultSet resultados = consulta.executeQuery() ) {
+                        while (resultados.next() ) {                    
+                            int nss          = resultados.getInt   ("NSS");
+                            String nombre    = resultados.getString("NOMBRE");
+                            String apellidos = resultados.getString("APELLIDOS");
+
+                            System.out.printf("%5d    %-15s %-24s \n", nss, nombre, apellidos);
+                            ultimoNss = nss;
+                            filasPagina++;
+                        }
+                        medicion.correcta();
+                    }
                 }
+                while (filasPagina == TAMANO_PAGINA && ES.leeRespuesta("¿Mostrar la siguiente página? (S/N)").equals("S") );
             }
             catch (SQLException e) {
                 System.err.printf("Se ha producido un error al ejecutar la consulta SQL.");
@@ -333,12 +1178,18 @@ public class Aplicacion {
             int numBastidor = ES.leeEntero(textoInicial, bastidorMin, bastidorMax);
             String nuevaMatricula = solicitarMatricula();            
 
-            try (PreparedStatement consulta = con.prepareStatement("UPDATE COCHE SET MATRICULA =? WHERE N_BASTIDOR =?") ){
-                consulta.setString(1, nuevaMatricula);
-                consulta.setInt(2, numBastidor);
-
-                int registrosAfectados = consulta.executeUpdate();
+            try (Metricas.Medicion medicion = Metricas.medir("modificarMatricula") ) {
+                int registrosAfectados = escribir(con, c -> {
+                    try (PreparedStatement consulta = c.prepareStatement(SQL_MODIFICAR_MATRICULA) ){
+                        consulta.setString(1, nuevaMatricula);
+                        consulta.setInt(2, numBastidor);
+                        return consulta.executeUpdate();
+                    }
+                });
+                medicion.correcta();
+                CacheEntidades.cocheModificado(numBastidor);
                 if(registrosAfectados > 0) {
+                    IndiceMatriculas.actualizar(numBastidor, nuevaMatricula);
                     ES.msgln("La matrícula ha sido modificada correctamente: " + nuevaMatricula);
                 }
                 else{
@@ -364,28 +1215,30 @@ public class Aplicacion {
             ES.msg("Escriba el NSS del conductor a borrar:");
             int nss = ES.leeEntero();
             
-            try (PreparedStatement consultaLeer   = con.prepareStatement("SELECT NOMBRE, APELLIDOS FROM CONDUCTOR WHERE NSS = ?");
-                  PreparedStatement consultaBorrar = con.prepareStatement("DELETE FROM CONDUCTOR WHERE NSS = ?") 
-                 ){
+            try (Metricas.Medicion medicion = Metricas.medir("borrarConductor") ) {
                 
-                consultaLeer.setInt(1, nss);
-                
-                ResultSet resultado = consultaLeer.executeQuery();
-                if (resultado.next() ) {
-                    String nombre = resultado.getString("NOMBRE");
-                    String apellidos = resultado.getString("APELLIDOS");
-                    
-                    consultaBorrar.setInt(1, nss);
-                
-                    int registrosAfectados  = consultaBorrar.executeUpdate();
+                CacheEntidades.Conductor conductor = CacheEntidades.buscarConductor(con, nss);
+                if (conductor != null) {
+                    int registrosAfectados = escribir(con, c -> {
+                        try (PreparedStatement consultaBorrar = c.prepareStatement(SQL_BORRAR_CONDUCTOR) ){
+                            consultaBorrar.setInt(1, nss);
+                            return consultaBorrar.executeUpdate();
+                        }
+                    });
+                    medicion.correcta();
+                    CacheEntidades.conductorBorrado(nss);
                     if (registrosAfectados > 0) {
-                        System.out.printf ("Borrado conductor con NSS: %d, %s %s \n",nss, nombre, apellidos);
+                        EstadisticasTablas.anotarBaja(EstadisticasTablas.Tabla.CONDUCTOR, nss);
+                        // El borrado en cascada quita un número desconocido de trayectos.
+                        EstadisticasTablas.invalidar(EstadisticasTablas.Tabla.TRAYECTO);
+                        System.out.printf ("Borrado conductor con NSS: %d, %s %s \n",nss, conductor.getNombre(), conductor.getApellidos());
                     }
                     else{
                         ES.msg("No se ha realizado nigún cambio en la base de datos.");
                     }
                 }
                 else{
+                    medicion.correcta();
                     ES.msg("No se ha ningun conductor con NSS especificado.");
                 }
             }
@@ -396,6 +1249,60 @@ public class Aplicacion {
     }
     
     
+    /**
+     * Borrar de una vez los conductores de una lista o de un rango de NSS,
+     * con sus trayectos, en una sola transacción.
+     *
+     * @param con Conexión a la BD
+     */
+    private static void borrarConductoresEnBloque(Connection con) {
+        
+        if (con != null) {
+            
+            ES.msgln("1 - Lista de NSS");
+            ES.msgln("2 - Rango de NSS");
+            boolean porLista = ES.leeEntero("Escriba cómo indicar los conductores:", 1, 2) == 1;
+            
+            int[] lista = null;
+            int desde = 0;
+            int hasta = 0;
+            if (porLista) {
+                while (lista == null) {
+                    lista = leerListaEnteros(ES.leeCadena("Escriba los NSS separados por comas o espacios:") );
+                    if (lista == null) {
+                        ES.msgln("La lista contiene valores que no son números. Intentelo de nuevo.");
+                    }
+                }
+            }
+            else {
+                desde = ES.leeEntero("Escriba el NSS inicial:");
+                hasta = ES.leeEntero("Escriba el NSS final:", desde);
+            }
+            
+            try (Metricas.Medicion medicion = Metricas.medir("borrarConductoresEnBloque") ) {
+                BajaConductores.Resultado resultado = porLista
+                        ? BajaConductores.borrarLista(con, lista)
+                        : BajaConductores.borrarRango(con, desde, hasta);
+                medicion.correcta();
+                
+                for (CacheEntidades.Conductor conductor : resultado.getBorrados()) {
+                    CacheEntidades.conductorBorrado(conductor.getNss() );
+                    System.out.printf ("Borrado conductor con NSS: %d, %s %s \n", conductor.getNss(), conductor.getNombre(), conductor.getApellidos());
+                }
+                if (!resultado.getBorrados().isEmpty() ) {
+                    EstadisticasTablas.invalidar(EstadisticasTablas.Tabla.CONDUCTOR);
+                    EstadisticasTablas.invalidar(EstadisticasTablas.Tabla.TRAYECTO);
+                }
+                System.out.printf("Conductores borrados: %d, trayectos borrados en cascada: %d \n",
+                        resultado.getBorrados().size(), resultado.getTrayectos() );
+            }
+            catch (SQLException e) {
+                System.err.printf("Se ha producido un error al borrar los conductores. No se ha borrado ninguno.");
+            }
+        }
+    }
+    
+    
     /**
      * Método que añade un nuevo conductor a la tabla de conductores
      * 
@@ -414,13 +1321,19 @@ public class Aplicacion {
             ES.msg("Introduce los apellidos del nuevo conductor: ");
             String apellidos = ES.leeCadena();
 
-            try (PreparedStatement consulta = con.prepareStatement("INSERT INTO CONDUCTOR (nss, nombre, apellidos) VALUES (?,?,?)") ){
-                consulta.setInt   (1, nss);
-                consulta.setString(2, nombre);
-                consulta.setString(3, apellidos);
-                
-                int registrosAfectados = consulta.executeUpdate();
+            try (Metricas.Medicion medicion = Metricas.medir("nuevoConductor") ) {
+                int registrosAfectados = escribir(con, c -> {
+                    try (PreparedStatement consulta = c.prepareStatement(SQL_NUEVO_CONDUCTOR) ){
+                        consulta.setInt   (1, nss);
+                        consulta.setString(2, nombre);
+                        consulta.setString(3, apellidos);
+                        return consulta.executeUpdate();
+                    }
+                });
+                medicion.correcta();
                 if (registrosAfectados > 0) {
+                    CacheEntidades.conductorNuevo(new CacheEntidades.Conductor(nss, nombre, apellidos) );
+                    EstadisticasTablas.anotarAlta(EstadisticasTablas.Tabla.CONDUCTOR, nss);
                     System.out.printf ("\nConductor ingresado correctamente. \nNSS:       %d \nNombre:    %s \nApellidos: %s \n", nss, nombre, apellidos);
                 }
                 else {
@@ -435,29 +1348,46 @@ public class Aplicacion {
 
     
     /**
-     * Consultar los coches de la base de datos
+     * Consultar los coches de la base de datos, por páginas de TAMANO_PAGINA
+     * filas. Cada página continúa a partir del último número de bastidor
+     * mostrado.
      *
      * @param con Conexión a la BD
      */
     private static void consultarCoches(Connection con) {
         if (con != null) {
-            try (PreparedStatement consulta = con.prepareStatement("SELECT N_BASTIDOR, MATRICULA, MARCA, MODELO, COLOR FROM COCHE") ){
-                ResultSet resultados = consulta.executeQuery();
+            try (PreparedStatement consulta = con.prepareStatement(SQL_PAGINA_COCHES) ){
+                consulta.setFetchSize(TAMANO_FETCH);
                 
                 ES.msgln("----------------------------------------------------------------");
                 ES.msgln("N_Bastidor   Matrícula        Marca     Modelo          Color"   );
                 ES.msgln("----------------------------------------------------------------");
                 
-                //Recorrer el ResultSet
-                while (resultados.next() ){
-                    int nBastidor    = resultados.getInt   ("N_BASTIDOR");
-                    String matricula = resultados.getString("MATRICULA");
-                    String marca     = resultados.getString("MARCA");
-                    String modelo    = resultados.getString("MODELO");
-                    String color     = resultados.getString("COLOR");
+                int ultimoBastidor = Integer.MIN_VALUE;
+                int filasPagina;
+                do {
+                    consulta.setInt(1, ultimoBastidor);
+                    consulta.setInt(2, TAMANO_PAGINA);
+                    filasPagina = 0;
                     
-                    System.out.printf("%10d %11s %12s %10s %14s \n", nBastidor, matricula, marca, modelo, color);
+                    //Recorrer el ResultSet
+                    try (Metricas.Medicion medicion = Metricas.medir("consultarCoches");
+                            ResultSet resultados = consulta.executeQuery() ) {
+                        while (resultados.next() ){
+                            int nBastidor    = resultados.getInt   ("N_BASTIDOR");
+                            String matricula = resultados.getString("MATRICULA");
+                            String marca     = resultados.getString("MARCA");
+                            String modelo    = resultados.getString("MODELO");
+                            String color     = resultados.getString("COLOR");
+
+                            System.out.printf("%10d %11s %12s %10s %14s \n", nBastidor, matricula, marca, modelo, color);
+                            ultimoBastidor = nBastidor;
+                            filasPagina++;
+                        }
+                        medicion.correcta();
+                    }
                 }
+                while (filasPagina == TAMANO_PAGINA && ES.leeRespuesta("¿Mostrar la siguiente página? (S/N)").equals("S") );
             }
             catch (SQLException e){
                 System.err.printf("Se ha producido un error en la consulta SQL.");
@@ -467,24 +1397,454 @@ public class Aplicacion {
         
     
     /**
-     * Consultar la suma del gasto
+     * Consultar la suma del gasto. La suma se calcula en la base de datos.
      * @param con 
      */
     private static void consultarSumaGasto(Connection con) {
         
         if (con != null) {
-            try (PreparedStatement consulta = con.prepareStatement("SELECT GASTOREPOSTAJE FROM TRAYECTO") ){
-                ResultSet resultados = consulta.executeQuery();
+            try {
+                informeSumaGasto(con, System.out, null);
+            }
+            catch (SQLException e) {
+                System.err.printf("Se ha producido un error en la consulta SQL.");
+            }
+        }
+    }
+    
+    
+    /**
+     * Escribe la suma del gasto de todos los trayectos.
+     * @param con Conexión a la BD
+     * @param salida Destino del informe
+     * @param progreso Progreso de la tarea o null en primer plano
+     * @throws SQLException Si falla la consulta
+     */
+    private static void informeSumaGasto(Connection con, PrintStream salida, EjecutorTareas.Progreso progreso) throws SQLException {
+        double gastoTotal;
+        try (Metricas.Medicion medicion = Metricas.medir("consultarSumaGasto") ) {
+            gastoTotal = AgregadosTrayecto.agregarTotal(con, AgregadosTrayecto.Funcion.SUMA, AgregadosTrayecto.Medida.GASTO, progreso);
+            medicion.correcta();
+        }
+
+        salida.println("--------------------Total de gasto en todos los trayectos--------------------");
+        salida.println("El total de euros de los gastos en repostaje de los trayectos es: " + gastoTotal);
+    }
+    
+    
+    /**
+     * Consultar el gasto o los kilómetros de los trayectos con la función de
+     * agregación y la agrupación que se elijan por teclado.
+     * @param con Conexión a la BD
+     */
+    private static void consultarAgregados(Connection con) {
+        
+        if (con != null) {
+            AgregadosTrayecto.Funcion funcion = elegir("Escriba la función a calcular:", AgregadosTrayecto.Funcion.values(), AgregadosTrayecto.Funcion::getDescripcion);
+            AgregadosTrayecto.Medida medida = elegir("Escriba la columna a calcular:", AgregadosTrayecto.Medida.values(), AgregadosTrayecto.Medida::getDescripcion);
+            AgregadosTrayecto.Agrupacion agrupacion = elegir("Escriba cómo agrupar:", AgregadosTrayecto.Agrupacion.values(), AgregadosTrayecto.Agrupacion::getDescripcion);
+            
+            try {
+                informeAgregados(con, funcion, medida, agrupacion, System.out, null);
+            }
+            catch (SQLException e) {
+                System.err.printf("Se ha producido un error en la consulta SQL.");
+            }
+        }
+    }
+    
+    
+    /**
+     * Escribe el resultado de una agregación de los trayectos, un grupo por
+     * línea.
+     * @param con Conexión a la BD
+     * @param funcion Función de agregación
+     * @param medida Columna a agregar
+     * @param agrupacion Criterio de agrupación
+     * @param salida Destino del informe
+     * @param progreso Progreso de la tarea o null en primer plano
+     * @throws SQLException Si falla la consulta
+     */
+    private static void informeAgregados(Connection con, AgregadosTrayecto.Funcion funcion, AgregadosTrayecto.Medida medida,
+            AgregadosTrayecto.Agrupacion agrupacion, PrintStream salida, EjecutorTareas.Progreso progreso) throws SQLException {
+        
+        salida.println("--------------------------------------------------");
+        salida.printf("%-12s %s de %s\n", agrupacion.getDescripcion(), funcion.getDescripcion(), medida.getDescripcion());
+        salida.println("--------------------------------------------------");
+
+        List<AgregadosTrayecto.Fila> filas;
+        try (Metricas.Medicion medicion = Metricas.medir("consultarAgregados") ) {
+            filas = AgregadosTrayecto.agregar(con, funcion, medida, agrupacion, progreso);
+            medicion.correcta();
+        }
+        for (AgregadosTrayecto.Fila fila : filas) {
+            salida.printf("%-12s %.2f \n", fila.getGrupo() != null ? fila.getGrupo() : "", fila.getValor());
+        }
+    }
+    
+    /**
+     * Calcula una agregación de los trayectos sobre la copia en memoria, que
+     * antes se pone al día con los trayectos nuevos. Además de agrupar, puede
+     * filtrarse por conductor, coche y fechas.
+     * @param con Conexión a la BD
+     */
+    private static void consultarAgregadosEnMemoria(Connection con) {
+        
+        if (con != null) {
+            AgregadosTrayecto.Funcion funcion = elegir("Escriba la función a calcular:", AgregadosTrayecto.Funcion.values(), AgregadosTrayecto.Funcion::getDescripcion);
+            AgregadosTrayecto.Medida medida = elegir("Escriba la columna a calcular:", AgregadosTrayecto.Medida.values(), AgregadosTrayecto.Medida::getDescripcion);
+            AgregadosTrayecto.Agrupacion agrupacion = elegir("Escriba cómo agrupar:", AgregadosTrayecto.Agrupacion.values(), AgregadosTrayecto.Agrupacion::getDescripcion);
+            
+            InstantaneaTrayectos.Filtro filtro = InstantaneaTrayectos.Filtro.TODOS;
+            if (ES.leeRespuesta("¿Filtrar los trayectos? (S/N)").equals("S") ) {
+                int nss = ES.leeEntero("Escriba el NSS del conductor (0 para todos):", 0);
+                int bastidor = ES.leeEntero("Escriba el número de bastidor (0 para todos):", 0);
+                Date desde = solicitarFecha("Escriba la fecha inicial (AAAA-MM-DD):");
+                Date hasta = solicitarFecha("Escriba la fecha final (AAAA-MM-DD):");
+                filtro = new InstantaneaTrayectos.Filtro(nss > 0 ? nss : null, bastidor > 0 ? bastidor : null,
+                        desde.toLocalDate(), hasta.toLocalDate());
+            }
+            
+            try {
+                int leidas;
+                try (Metricas.Medicion medicion = Metricas.medir("actualizarInstantanea") ) {
+                    leidas = instantanea.actualizar(con);
+                    medicion.correcta();
+                }
+                System.out.printf("Trayectos en memoria: %d (%d leídos de la BD%s)\n", instantanea.getFilas(), leidas,
+                        instantanea.isFueraDelHeap() ? ", fuera del heap" : "");
+                
+                List<AgregadosTrayecto.Fila> filas;
+                try (Metricas.Medicion medicion = Metricas.medir("consultarAgregadosEnMemoria") ) {
+                    filas = instantanea.agregar(funcion, medida, agrupacion, filtro);
+                    medicion.correcta();
+                }
                 
-                double gastoTotal = 0;
+                System.out.println("--------------------------------------------------");
+                System.out.printf("%-12s %s de %s\n", agrupacion.getDescripcion(), funcion.getDescripcion(), medida.getDescripcion());
+                System.out.println("--------------------------------------------------");
+                for (AgregadosTrayecto.Fila fila : filas) {
+                    System.out.printf("%-12s %.2f \n", fila.getGrupo() != null ? fila.getGrupo() : "", fila.getValor());
+                }
+            }
+            catch (SQLException e) {
+                System.err.printf("Se ha producido un error en la consulta SQL.");
+            }
+        }
+    }
+    
+    /**
+     * Pide cómo agrupar y cuántos puestos mostrar y escribe el informe de
+     * eficiencia de la flota.
+     * @param pool Pool de conexiones a la BD
+     */
+    private static void consultarEficiencia(PoolConexiones pool) {
+        EficienciaFlota.Agrupacion agrupacion = elegir("Escriba cómo agrupar:", EficienciaFlota.Agrupacion.values(), EficienciaFlota.Agrupacion::getDescripcion);
+        int puestos = ES.leeEntero("Escriba cuántos mostrar en cada clasificación:", 1);
+        boolean todas = ES.leeRespuesta("¿Mostrar también el detalle de todos? (S/N)").equals("S");
+        
+        try {
+            informeEficiencia(pool, agrupacion, puestos, todas, System.out, null);
+        }
+        catch (SQLException e) {
+            System.err.printf("Se ha producido un error en la consulta SQL.");
+        }
+    }
+    
+    /**
+     * Escribe el informe de eficiencia de la flota: totales, los más caros y
+     * los más eficientes por euros por kilómetro y, si se pide, el detalle.
+     * @param pool Pool de conexiones a la BD, para agregar en paralelo
+     * @param agrupacion Por coche o por conductor
+     * @param puestos Filas de cada clasificación
+     * @param todas true para escribir también todas las filas
+     * @param salida Destino del informe
+     * @param progreso Progreso de la tarea o null en primer plano
+     * @throws SQLException Si falla la consulta
+     */
+    private static void informeEficiencia(PoolConexiones pool, EficienciaFlota.Agrupacion agrupacion, int puestos, boolean todas,
+            PrintStream salida, EjecutorTareas.Progreso progreso) throws SQLException {
+        
+        EficienciaFlota.Resultado resultado;
+        Cronometro cronometro = new Cronometro();
+        try (Metricas.Medicion medicion = Metricas.medir("informeEficiencia") ) {
+            resultado = EficienciaFlota.calcular(pool, agrupacion, HILOS_EFICIENCIA, progreso);
+            medicion.correcta();
+        }
+        cronometro.marcar("cálculo");
+        
+        long trayectos = 0;
+        long kms = 0;
+        double gasto = 0;
+        for (EficienciaFlota.Fila fila : resultado.getFilas()) {
+            trayectos += fila.getTrayectos();
+            kms += fila.getKms();
+            gasto += fila.getGasto();
+        }
+        salida.printf("%s: %d con trayectos, %d trayectos, %d km, %.2f euros, %.4f euros/km (%d tramos, %d ms)\n",
+                agrupacion.getDescripcion(), resultado.getFilas().size(), trayectos, kms, gasto,
+                kms > 0 ? gasto / kms : 0.0, resultado.getTramos(), cronometro.getTotalMs());
+        
+        escribirEficiencia(salida, String.format("Los %d más caros", puestos), agrupacion, resultado.getMasCaras(puestos));
+        escribirEficiencia(salida, String.format("Los %d más eficientes", puestos), agrupacion, resultado.getMasEficientes(puestos));
+        if (todas) {
+            escribirEficiencia(salida, "Todos", agrupacion, resultado.getFilas());
+        }
+    }
+    
+    /**
+     * Escribe una tabla del informe de eficiencia.
+     * @param salida Destino del informe
+     * @param titulo Título de la tabla
+     * @param agrupacion Por coche o por conductor
+     * @param filas Filas a escribir
+     */
+    private static void escribirEficiencia(PrintStream salida, String titulo, EficienciaFlota.Agrupacion agrupacion,
+            List<EficienciaFlota.Fila> filas) {
+        
+        salida.println(titulo);
+        salida.println("------------------------------------------------------------");
+        salida.printf("%12s %10s %12s %12s %10s\n", agrupacion.getDescripcion(), "Trayectos", "Kms", "Gasto", "Euros/km");
+        salida.println("------------------------------------------------------------");
+        for (EficienciaFlota.Fila fila : filas) {
+            salida.printf("%12d %10d %12d %12.2f %10.4f\n", fila.getClave(), fila.getTrayectos(), fila.getKms(),
+                    fila.getGasto(), fila.getEurosPorKm());
+        }
+    }
+    
+    /**
+     * Consulta los totales de un periodo en los resúmenes mensuales, o los
+     * comprueba o reconstruye a partir de los trayectos.
+     * @param con Conexión a la BD
+     */
+    private static void gestionarResumenes(Connection con) {
+        
+        if (con != null) {
+            ES.msgln("1 - Totales de un periodo");
+            ES.msgln("2 - Comprobar los resúmenes con los trayectos");
+            ES.msgln("3 - Reconstruir los resúmenes");
+            int accion = ES.leeEntero("Escriba la acción:", 1, 3);
+            
+            try {
+                if (accion == 1) {
+                    consultarPeriodo(con);
+                }
+                else if (accion == 2) {
+                    List<ResumenesMensuales.Diferencia> diferencias;
+                    try (Metricas.Medicion medicion = Metricas.medir("comprobarResumenes") ) {
+                        diferencias = ResumenesMensuales.comprobar(con);
+                        medicion.correcta();
+                    }
+                    for (ResumenesMensuales.Diferencia diferencia : diferencias) {
+                        System.out.println(diferencia);
+                    }
+                    System.out.println(diferencias.isEmpty()
+                            ? "Los resúmenes cuadran con los trayectos."
+                            : "Hay " + diferencias.size() + " filas de resumen que no cuadran: reconstruya los resúmenes.");
+                }
+                else {
+                    long filas;
+                    try (Metricas.Medicion medicion = Metricas.medir("reconstruirResumenes") ) {
+                        filas = ResumenesMensuales.reconstruir(con);
+                        medicion.correcta();
+                    }
+                    System.out.printf("Resúmenes reconstruidos: %d filas \n", filas);
+                }
+            }
+            catch (SQLException e) {
+                System.err.printf("Se ha producido un error con los resúmenes (%s)\n", e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Pide un periodo y escribe sus totales por mes, coche o conductor,
+     * leídos de los resúmenes mensuales.
+     * @param con Conexión a la BD
+     * @throws SQLException Si falla la consulta
+     */
+    private static void consultarPeriodo(Connection con) throws SQLException {
+        ES.msgln("1 - Por mes");
+        ES.msgln("2 - Por coche");
+        ES.msgln("3 - Por conductor");
+        int agrupacion = ES.leeEntero("Escriba cómo agrupar:", 1, 3);
+        YearMonth desde = solicitarMes("Escriba el mes inicial (AAAA-MM):");
+        YearMonth hasta = solicitarMes("Escriba el mes final (AAAA-MM):");
+        ResumenesMensuales.Resumen resumen = agrupacion == 2 ? ResumenesMensuales.Resumen.COCHE : ResumenesMensuales.Resumen.CONDUCTOR;
+        
+        List<ResumenesMensuales.Fila> filas;
+        try (Metricas.Medicion medicion = Metricas.medir("consultarPeriodo") ) {
+            filas = ResumenesMensuales.consultarPeriodo(con, resumen, agrupacion == 1, desde, hasta);
+            medicion.correcta();
+        }
+        
+        System.out.println("------------------------------------------------------------");
+        System.out.printf("%12s %10s %12s %12s %10s\n", agrupacion == 1 ? "Mes" : resumen.getDescripcion(), "Trayectos", "Kms", "Gasto", "Euros/km");
+        System.out.println("------------------------------------------------------------");
+        for (ResumenesMensuales.Fila fila : filas) {
+            System.out.printf("%12s %10d %12d %12.2f %10.4f\n", fila.getGrupo(), fila.getTrayectos(), fila.getKms(),
+                    fila.getGasto(), fila.getKms() > 0 ? fila.getGasto() / fila.getKms() : 0.0);
+        }
+    }
+    
+    /**
+     * Importa en una tabla las filas de un archivo CSV cuya ruta se introduce
+     * por teclado, informando de las filas rechazadas.
+     * @param con Conexión a la BD
+     */
+    private static void importarCsv(Connection con) {
+        
+        if (con != null) {
+            ImportadorCsv.Tabla[] tablas = ImportadorCsv.Tabla.values();
+            for (int i = 0; i < tablas.length; i++) {
+                System.out.printf("%d - %s\n", i + 1, tablas[i]);
+            }
+            ImportadorCsv.Tabla tabla = tablas[ES.leeEntero("Escriba la tabla destino:", 1, tablas.length) - 1];
+            String ruta = ES.leeCadena("Escriba la ruta del archivo CSV:");
+            
+            try (Metricas.Medicion medicion = Metricas.medir("importarCsv") ) {
+                ImportadorCsv.Resultado resultado = ImportadorCsv.importar(con, tabla, Paths.get(ruta.trim()));
+                medicion.correcta();
+                EstadisticasTablas.invalidar(EstadisticasTablas.Tabla.valueOf(tabla.name()) );
+                if (tabla == ImportadorCsv.Tabla.COCHE) {
+                    IndiceMatriculas.cargar(con);
+                }
                 
-                //Recorrer el ResultSet
+                System.out.printf("Filas leídas: %d, insertadas: %d, rechazadas: %d \n",
+                        resultado.getLeidas(), resultado.getInsertadas(), resultado.getErroneas());
+                for (String error : resultado.getErrores()) {
+                    ES.msgln(error);
+                }
+            }
+            catch (IOException | InvalidPathException e) {
+                System.err.printf("No se ha podido leer el archivo: %s\n", ruta);
+            }
+            catch (SQLException e) {
+                System.err.printf("Se ha producido un error al importar los datos.");
+            }
+        }
+    }
+    
+    /**
+     * Consultar los trayectos de un conductor o de un coche entre dos fechas
+     * (ambas incluidas). La consulta usa los índices (NSS, FECHA) y
+     * (N_BASTIDOR, FECHA) de la tabla TRAYECTO.
+     * @param con Conexión a la BD
+     */
+    private static void consultarTrayectosEntreFechas(Connection con) {
+        
+        if (con != null) {
+            boolean porConductor = leerTipoTrayectos();
+            int clave = ES.leeEntero(porConductor ? "Escriba el NSS del conductor:" : "Escriba el número de bastidor:");
+            Date desde = solicitarFecha("Escriba la fecha inicial (AAAA-MM-DD):");
+            Date hasta = solicitarFecha("Escriba la fecha final (AAAA-MM-DD):");
+            
+            try {
+                informeTrayectos(con, porConductor, clave, desde, hasta, System.out, null);
+            }
+            catch (SQLException e) {
+                System.err.printf("Se ha producido un error en la consulta SQL.");
+            }
+        }
+    }
+    
+    /**
+     * Escribe los trayectos de un conductor o de un coche entre dos fechas
+     * (ambas incluidas), según se van leyendo.
+     * @param con Conexión a la BD
+     * @param porConductor true si la clave es un NSS y false si es un bastidor
+     * @param clave NSS o número de bastidor
+     * @param desde Fecha inicial
+     * @param hasta Fecha final
+     * @param salida Destino del informe
+     * @param progreso Progreso de la tarea o null en primer plano
+     * @throws SQLException Si falla la consulta
+     */
+    private static void informeTrayectos(Connection con, boolean porConductor, int clave, Date desde, Date hasta,
+            PrintStream salida, EjecutorTareas.Progreso progreso) throws SQLException {
+        
+        String sql = porConductor
+                ? "SELECT NSS, N_BASTIDOR, KMS, FECHA, GASTOREPOSTAJE FROM TRAYECTO WHERE NSS = ? AND FECHA BETWEEN ? AND ? ORDER BY FECHA"
+                : "SELECT NSS, N_BASTIDOR, KMS, FECHA, GASTOREPOSTAJE FROM TRAYECTO WHERE N_BASTIDOR = ? AND FECHA BETWEEN ? AND ? ORDER BY FECHA";
+        
+        try (Metricas.Medicion medicion = Metricas.medir("consultarTrayectosEntreFechas");
+                PreparedStatement consulta = con.prepareStatement(sql) ){
+            consulta.setInt (1, clave);
+            consulta.setDate(2, desde);
+            consulta.setDate(3, hasta);
+            if (progreso != null) {
+                progreso.vigilar(consulta);
+            }
+            
+            salida.println("------------------------------------------------------");
+            salida.println("  NSS   N_Bastidor     Kms       Fecha     Gasto"        );
+            salida.println("------------------------------------------------------");
+            
+            int trayectos = 0;
+            //Recorrer el ResultSet
+            try (ResultSet resultados = consulta.executeQuery() ) {
                 while (resultados.next() ){
-                    double gastoRepostaje = resultados.getDouble("GASTOREPOSTAJE");
-                    gastoTotal += gastoRepostaje;
+                    salida.printf("%5d %12d %7d %11s %9.2f \n", resultados.getInt("NSS"), resultados.getInt("N_BASTIDOR"),
+                            resultados.getInt("KMS"), resultados.getDate("FECHA"), resultados.getDouble("GASTOREPOSTAJE"));
+                    trayectos++;
+                    if (progreso != null) {
+                        progreso.comprobar();
+                        progreso.avanzar(trayectos, -1);
+                    }
+                }
+            }
+            salida.printf("Trayectos encontrados: %d \n", trayectos);
+            medicion.correcta();
+        }
+    }
+    
+    /**
+     * Buscar un coche por su matrícula, usando el índice de matrículas en
+     * memoria para obtener su número de bastidor y la caché de coches para
+     * sus datos.
+     * En modo compartido el coche se lee siempre de la BD para comprobar que
+     * el índice no se ha quedado atrasado.
+     * @param con Conexión a la BD
+     */
+    private static void buscarCochePorMatricula(Connection con) {
+        
+        if (con != null) {
+            String matricula = ES.leeCadena("Escriba la matrícula a buscar:");
+            
+            try (Metricas.Medicion medicion = Metricas.medir("buscarCochePorMatricula") ) {
+                int nBastidor = IndiceMatriculas.buscar(con, matricula);
+                CacheEntidades.Coche coche = null;
+                
+                if (nBastidor >= 0 && baseCompartida) {
+                    // Otro proceso puede haber cambiado la matrícula: se lee el coche de la BD
+                    // y, si ya no tiene esa matrícula, se corrige el índice y se busca de nuevo.
+                    CacheEntidades.cocheModificado(nBastidor);
+                    coche = CacheEntidades.buscarCoche(con, nBastidor);
+                    if (coche == null || !coche.getMatricula().equals(ValidadorMatricula.normalizar(matricula)) ) {
+                        IndiceMatriculas.quitar(nBastidor);
+                        if (coche != null) {
+                            IndiceMatriculas.actualizar(nBastidor, coche.getMatricula());
+                        }
+                        nBastidor = IndiceMatriculas.buscar(con, matricula);
+                        coche = null;
+                    }
+                }
+                
+                if (nBastidor < 0) {
+                    medicion.correcta();
+                    ES.msgln("No se ha encontrado ningún coche con la matrícula especificada.");
+                }
+                else {
+                    if (coche == null) {
+                        coche = CacheEntidades.buscarCoche(con, nBastidor);
+                    }
+                    medicion.correcta();
+                    if (coche != null) {
+                        ES.msgln("N_Bastidor   Matrícula        Marca     Modelo          Color");
+                        System.out.printf("%10d %11s %12s %10s %14s \n", coche.getBastidor(), coche.getMatricula(),
+                                coche.getMarca(), coche.getModelo(), coche.getColor());
+                    }
                 }
-                System.out.println("--------------------Total de gasto en todos los trayectos--------------------");
-                System.out.println("El total de euros de los gastos en repostaje de los trayectos es: " + gastoTotal);
             }
             catch (SQLException e) {
                 System.err.printf("Se ha producido un error en la consulta SQL.");
@@ -496,6 +1856,7 @@ public class Aplicacion {
     
     /**
      * Método que obtiene el número de la primera entrada de bastidor de la tabla COCHE
+     * (de las estadísticas en memoria, sin consultar la BD)
      * @param con
      * @return El primer bastidor
      */
@@ -505,11 +1866,8 @@ public class Aplicacion {
         
         if (con != null) {
             
-            try (PreparedStatement consulta = con.prepareStatement("SELECT MIN(N_BASTIDOR) FROM COCHE") ){
-               ResultSet resultados = consulta.executeQuery();
-               if (resultados.next() ){
-                   primerBastidor = resultados.getInt(1);
-               }
+            try {
+                primerBastidor = (int) EstadisticasTablas.getMinimo(con, EstadisticasTablas.Tabla.COCHE);
             }
             catch (SQLException e){
                 ES.msg("Se ha producido un error al obtener el primer bastidor.");
@@ -521,18 +1879,15 @@ public class Aplicacion {
     
     /**
      * Método que obtiene el número de la última entrada de la tabla COCHE
+     * (de las estadísticas en memoria, sin consultar la BD)
      * @param con
      * @return El último bastidor
      */
     private static int getUltimoNBastidor (Connection con) {
         int ultimoBastidor = 0;
         if (con != null) {
-            try (PreparedStatement consulta = con.prepareStatement("SELECT MAX(N_BASTIDOR) FROM COCHE") ) {
-                ResultSet resultado = consulta.executeQuery();
-                
-                if (resultado.next() ){
-                    ultimoBastidor = resultado.getInt(1);
-                }
+            try {
+                ultimoBastidor = (int) EstadisticasTablas.getMaximo(con, EstadisticasTablas.Tabla.COCHE);
             } 
             catch (SQLException e) {
                 ES.msg("Se ha producido un error al obtener el último bastidor.");
@@ -559,16 +1914,113 @@ public class Aplicacion {
     }
     
     
+    /**
+     * Método que convierte una lista de números separados por comas o
+     * espacios.
+     * @param texto Texto a convertir
+     * @return Los números, o null si alguno no es válido
+     */
+    private static int[] leerListaEnteros(String texto) {
+        String[] partes = texto.trim().split("[,;\\s]+");
+        int[] numeros = new int[partes.length];
+        int cuantos = 0;
+        
+        try {
+            for (String parte : partes) {
+                if (!parte.isEmpty() ) {
+                    numeros[cuantos++] = Integer.parseInt(parte);
+                }
+            }
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+        return Arrays.copyOf(numeros, cuantos);
+    }
+    
+    
+    /**
+     * Muestra las opciones numeradas y lee la elegida.
+     * @param mensaje Mensaje a mostrar por pantalla
+     * @param opciones Opciones posibles
+     * @param descripcion Texto de cada opción
+     * @return La opción elegida
+     */
+    private static <T> T elegir(String mensaje, T[] opciones, Function<T, String> descripcion) {
+        for (int i = 0; i < opciones.length; i++) {
+            System.out.printf("%d - %s\n", i + 1, descripcion.apply(opciones[i]) );
+        }
+        return opciones[ES.leeEntero(mensaje, 1, opciones.length) - 1];
+    }
+    
+    
+    /**
+     * Método que pregunta si los trayectos se consultan por conductor o por
+     * coche.
+     * @return true si es por conductor (NSS)
+     */
+    private static boolean leerTipoTrayectos() {
+        ES.msgln("1 - Por conductor (NSS)");
+        ES.msgln("2 - Por coche (N_BASTIDOR)");
+        return ES.leeEntero("Escriba el tipo de consulta:", 1, 2) == 1;
+    }
+    
+    
+    /**
+     * Método que lee una fecha con formato AAAA-MM-DD, repitiendo la lectura
+     * hasta que sea válida.
+     * @param mensaje Mensaje a mostrar por pantalla
+     * @return La fecha leída
+     */
+    private static Date solicitarFecha(String mensaje) {
+        Date fecha = null;
+        
+        do {
+            try {
+                fecha = Date.valueOf(ES.leeCadena(mensaje).trim() );
+            }
+            catch (IllegalArgumentException e) {
+                ES.msgln("La fecha introducida no es válida. Intentelo de nuevo.");
+            }
+        }
+        while (fecha == null);
+        
+        return fecha;
+    }
+    
+    
+    /**
+     * Lee un mes con el formato AAAA-MM, repitiendo la pregunta hasta que sea
+     * válido.
+     * @param mensaje Mensaje a mostrar por pantalla
+     * @return El mes leído
+     */
+    private static YearMonth solicitarMes(String mensaje) {
+        YearMonth mes = null;
+        
+        do {
+            try {
+                mes = YearMonth.parse(ES.leeCadena(mensaje).trim() );
+            }
+            catch (DateTimeParseException e) {
+                ES.msgln("El mes introducido no es válido. Intentelo de nuevo.");
+            }
+        }
+        while (mes == null);
+        
+        return mes;
+    }
+    
+    
     /**
      * Método que comprueba si la matricula encaja dentro de lo que se considera una matrícula de coche válida.
      * @param matricula
      * @return True si la matricula es válida
      */
     private static boolean esMatriculaValida (String matricula) {
-        String expresion = "\\d{4}[B-DF-HJ-NP-TV-Zb-df-hj-np-tv-z]{3}";
         boolean esValido = false;
         
-        if (matricula.matches(expresion) ){
+        if (ValidadorMatricula.esValida(matricula) ){
              esValido = true;
         }
         else{
@@ -580,19 +2032,15 @@ public class Aplicacion {
     
     
     /**
-     * Metodo que comprueba si hay datos en la BD
+     * Metodo que comprueba si hay datos en la BD, según las estadísticas de
+     * las tablas
      * @param con
-     * @return False si no hay datos
+     * @return True si no hay datos
      */    
     private static boolean hayDatosEnTablasAplicacion(Connection con) throws SQLException {
         
-        try (Statement consulta = con.createStatement() ){
-             ResultSet resultados = consulta.executeQuery("SELECT COUNT(*) FROM CONDUCTOR");
-
-            if (resultados.next() ){
-                int contadorRegistros = resultados.getInt(1);
-                return contadorRegistros == 0;
-            }
+        try {
+            return EstadisticasTablas.getCuenta(con, EstadisticasTablas.Tabla.CONDUCTOR) == 0;
         }
         catch (SQLException e) {
             System.err.println("Se ha producido un error al ejecutar la consulta SQL.");
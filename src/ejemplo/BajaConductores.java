@@ -0,0 +1,178 @@
+package ejemplo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Baja de muchos conductores a la vez, indicados por una lista de NSS o por un
+ * rango. Todo se hace en una sola transacción: o se borran todos o ninguno.
+ *
+ * Por cada lote de NSS se lanzan sólo dos sentencias: una consulta que obtiene
+ * los nombres de los conductores que existen junto con el número de trayectos
+ * de cada uno (los que borrará la cascada) y el DELETE. Las listas se pasan a
+ * H2 como un array (NSS = ANY(?)), así que el número de sentencias no depende
+ * del número de conductores sino del de lotes. Los resúmenes mensuales de los
+ * trayectos borrados en cascada se acumulan en memoria y se restan al final,
+ * en lotes, en lugar de fila a fila.
+ *
+ * @author Jose Cabello
+ */
+public class BajaConductores {
+
+    /**
+     * NSS por lote si no se indica otra cosa.
+     */
+    public static final int TAMANO_LOTE = 1_000;
+
+    private static final String SQL_DATOS_LISTA = "SELECT C.NSS, C.NOMBRE, C.APELLIDOS, "
+            + "(SELECT COUNT(*) FROM TRAYECTO T WHERE T.NSS = C.NSS) FROM CONDUCTOR C WHERE C.NSS = ANY(?) ORDER BY C.NSS";
+    private static final String SQL_BORRAR_LISTA = "DELETE FROM CONDUCTOR WHERE NSS = ANY(?)";
+    private static final String SQL_DATOS_RANGO = "SELECT C.NSS, C.NOMBRE, C.APELLIDOS, "
+            + "(SELECT COUNT(*) FROM TRAYECTO T WHERE T.NSS = C.NSS) FROM CONDUCTOR C WHERE C.NSS BETWEEN ? AND ? ORDER BY C.NSS";
+    private static final String SQL_BORRAR_RANGO = "DELETE FROM CONDUCTOR WHERE NSS BETWEEN ? AND ?";
+
+    /**
+     * Resultado de una baja en bloque.
+     */
+    public static class Resultado {
+
+        private final List<CacheEntidades.Conductor> borrados = new ArrayList<>();
+        private long trayectos = 0;
+
+        /**
+         * @return Conductores borrados, ordenados por NSS.
+         */
+        public List<CacheEntidades.Conductor> getBorrados() {
+            return Collections.unmodifiableList(borrados);
+        }
+
+        /**
+         * @return Trayectos borrados en cascada.
+         */
+        public long getTrayectos() {
+            return trayectos;
+        }
+    }
+
+    /**
+     * Borra los conductores de la lista que existan, con sus trayectos. Los
+     * NSS repetidos se tienen en cuenta una sola vez.
+     *
+     * @param con Conexión a la BD
+     * @param nss NSS de los conductores a borrar.
+     * @return Conductores y trayectos borrados.
+     * @throws SQLException Si falla alguna sentencia. En ese caso no se borra
+     * nada.
+     */
+    public static Resultado borrarLista(Connection con, int[] nss) throws SQLException {
+        return borrarLista(con, nss, TAMANO_LOTE);
+    }
+
+    /**
+     * Borra los conductores de la lista que existan, con sus trayectos.
+     *
+     * @param con Conexión a la BD
+     * @param nss NSS de los conductores a borrar.
+     * @param tamanoLote NSS que se envían juntos en cada sentencia.
+     * @return Conductores y trayectos borrados.
+     * @throws SQLException Si falla alguna sentencia. En ese caso no se borra
+     * nada.
+     */
+    public static Resultado borrarLista(Connection con, int[] nss, int tamanoLote) throws SQLException {
+        if (tamanoLote <= 0) {
+            throw new IllegalArgumentException("El tamaño de lote debe ser positivo.");
+        }
+        int[] claves = Arrays.stream(nss).sorted().distinct().toArray();
+        Resultado resultado = new Resultado();
+
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+
+        try (ResumenesMensuales.Acumulacion resumenes = ResumenesMensuales.acumular(con);
+                PreparedStatement datos = con.prepareStatement(SQL_DATOS_LISTA);
+                PreparedStatement borrado = con.prepareStatement(SQL_BORRAR_LISTA) ) {
+
+            for (int desde = 0; desde < claves.length; desde += tamanoLote) {
+                Integer[] lote = new Integer[Math.min(tamanoLote, claves.length - desde)];
+                for (int i = 0; i < lote.length; i++) {
+                    lote[i] = claves[desde + i];
+                }
+                datos.setObject(1, lote);
+                borrado.setObject(1, lote);
+                borrarLote(datos, borrado, resultado);
+            }
+            resumenes.aplicar();
+            con.commit();
+        }
+        catch (SQLException | RuntimeException ex) {
+            con.rollback();
+            throw ex;
+        }
+        finally {
+            con.setAutoCommit(autoCommit);
+        }
+        return resultado;
+    }
+
+    /**
+     * Borra los conductores con NSS entre dos valores (ambos incluidos), con
+     * sus trayectos.
+     *
+     * @param con Conexión a la BD
+     * @param desde NSS inicial.
+     * @param hasta NSS final.
+     * @return Conductores y trayectos borrados.
+     * @throws SQLException Si falla alguna sentencia. En ese caso no se borra
+     * nada.
+     */
+    public static Resultado borrarRango(Connection con, int desde, int hasta) throws SQLException {
+        Resultado resultado = new Resultado();
+
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+
+        try (ResumenesMensuales.Acumulacion resumenes = ResumenesMensuales.acumular(con);
+                PreparedStatement datos = con.prepareStatement(SQL_DATOS_RANGO);
+                PreparedStatement borrado = con.prepareStatement(SQL_BORRAR_RANGO) ) {
+
+            datos.setInt(1, desde);
+            datos.setInt(2, hasta);
+            borrado.setInt(1, desde);
+            borrado.setInt(2, hasta);
+            borrarLote(datos, borrado, resultado);
+            resumenes.aplicar();
+            con.commit();
+        }
+        catch (SQLException | RuntimeException ex) {
+            con.rollback();
+            throw ex;
+        }
+        finally {
+            con.setAutoCommit(autoCommit);
+        }
+        return resultado;
+    }
+
+    /**
+     * Anota los conductores de un lote y sus trayectos y después los borra.
+     */
+    private static void borrarLote(PreparedStatement datos, PreparedStatement borrado, Resultado resultado) throws SQLException {
+        int encontrados = 0;
+        try (ResultSet filas = datos.executeQuery() ) {
+            while (filas.next() ) {
+                resultado.borrados.add(new CacheEntidades.Conductor(filas.getInt(1), filas.getString(2), filas.getString(3)) );
+                resultado.trayectos += filas.getLong(4);
+                encontrados++;
+            }
+        }
+        if (encontrados > 0) {
+            borrado.executeUpdate();
+        }
+    }
+}
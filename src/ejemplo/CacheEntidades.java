@@ -0,0 +1,187 @@
+package ejemplo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import utilidades.CacheLectura;
+
+/**
+ * Caché en memoria de los coches (por número de bastidor) y de los
+ * conductores (por NSS). Estas tablas cambian poco y se consultan una y otra
+ * vez por clave, así que las lecturas repetidas no llegan a la base de datos.
+ *
+ * Las operaciones de la aplicación que modifican COCHE o CONDUCTOR avisan a
+ * la caché (cocheModificado, conductorNuevo, conductorBorrado). Para los
+ * cambios hechos por otras vías está el tiempo de vida de las entradas.
+ *
+ * Tamaño máximo y tiempo de vida: propiedades del sistema
+ * vehiculos.cache.maximo y vehiculos.cache.ttl (milisegundos).
+ *
+ * @author Jose Cabello
+ */
+public class CacheEntidades {
+
+    /**
+     * Objetos que se guardan como mucho de cada tabla.
+     */
+    private static final int MAXIMO = Integer.getInteger("vehiculos.cache.maximo", 10_000);
+    /**
+     * Milisegundos que se da por buena una entrada.
+     */
+    private static final long MS_VIDA = Long.getLong("vehiculos.cache.ttl", 300_000);
+
+    private static final CacheLectura<Integer, Coche> coches = new CacheLectura<>(MAXIMO, MS_VIDA);
+    private static final CacheLectura<Integer, Conductor> conductores = new CacheLectura<>(MAXIMO, MS_VIDA);
+
+    /**
+     * Fila de la tabla COCHE.
+     */
+    public static class Coche {
+
+        private final int bastidor;
+        private final String matricula;
+        private final String marca;
+        private final String modelo;
+        private final String color;
+
+        public Coche(int bastidor, String matricula, String marca, String modelo, String color) {
+            this.bastidor = bastidor;
+            this.matricula = matricula;
+            this.marca = marca;
+            this.modelo = modelo;
+            this.color = color;
+        }
+
+        public int getBastidor() {
+            return bastidor;
+        }
+
+        public String getMatricula() {
+            return matricula;
+        }
+
+        public String getMarca() {
+            return marca;
+        }
+
+        public String getModelo() {
+            return modelo;
+        }
+
+        public String getColor() {
+            return color;
+        }
+    }
+
+    /**
+     * Fila de la tabla CONDUCTOR.
+     */
+    public static class Conductor {
+
+        private final int nss;
+        private final String nombre;
+        private final String apellidos;
+
+        public Conductor(int nss, String nombre, String apellidos) {
+            this.nss = nss;
+            this.nombre = nombre;
+            this.apellidos = apellidos;
+        }
+
+        public int getNss() {
+            return nss;
+        }
+
+        public String getNombre() {
+            return nombre;
+        }
+
+        public String getApellidos() {
+            return apellidos;
+        }
+    }
+
+    /**
+     * Busca un coche por su número de bastidor.
+     *
+     * @param con Conexión a la BD, por si no está en la caché.
+     * @param bastidor Número de bastidor.
+     * @return El coche o null si no existe.
+     * @throws SQLException Si falla la consulta a la BD.
+     */
+    public static Coche buscarCoche(Connection con, int bastidor) throws SQLException {
+        return coches.obtener(bastidor, clave -> {
+            try (PreparedStatement consulta = con.prepareStatement("SELECT N_BASTIDOR, MATRICULA, MARCA, MODELO, COLOR FROM COCHE WHERE N_BASTIDOR = ?") ){
+                consulta.setInt(1, clave);
+                try (ResultSet resultado = consulta.executeQuery() ) {
+                    return resultado.next()
+                            ? new Coche(resultado.getInt(1), resultado.getString(2), resultado.getString(3), resultado.getString(4), resultado.getString(5))
+                            : null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Busca un conductor por su NSS.
+     *
+     * @param con Conexión a la BD, por si no está en la caché.
+     * @param nss NSS del conductor.
+     * @return El conductor o null si no existe.
+     * @throws SQLException Si falla la consulta a la BD.
+     */
+    public static Conductor buscarConductor(Connection con, int nss) throws SQLException {
+        return conductores.obtener(nss, clave -> {
+            try (PreparedStatement consulta = con.prepareStatement("SELECT NSS, NOMBRE, APELLIDOS FROM CONDUCTOR WHERE NSS = ?") ){
+                consulta.setInt(1, clave);
+                try (ResultSet resultado = consulta.executeQuery() ) {
+                    return resultado.next()
+                            ? new Conductor(resultado.getInt(1), resultado.getString(2), resultado.getString(3))
+                            : null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Avisa de que ha cambiado la matrícula de un coche.
+     *
+     * @param bastidor Número de bastidor del coche.
+     */
+    public static void cocheModificado(int bastidor) {
+        coches.invalidar(bastidor);
+    }
+
+    /**
+     * Avisa de que se ha dado de alta un conductor.
+     *
+     * @param conductor Conductor nuevo.
+     */
+    public static void conductorNuevo(Conductor conductor) {
+        conductores.poner(conductor.getNss(), conductor);
+    }
+
+    /**
+     * Avisa de que se ha borrado un conductor.
+     *
+     * @param nss NSS del conductor.
+     */
+    public static void conductorBorrado(int nss) {
+        conductores.invalidar(nss);
+    }
+
+    /**
+     * @return Caché de coches, para consultar sus contadores.
+     */
+    public static CacheLectura<Integer, Coche> getCoches() {
+        return coches;
+    }
+
+    /**
+     * @return Caché de conductores, para consultar sus contadores.
+     */
+    public static CacheLectura<Integer, Conductor> getConductores() {
+        return conductores;
+    }
+}
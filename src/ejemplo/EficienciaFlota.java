@@ -0,0 +1,365 @@
+package ejemplo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import utilidades.EjecutorTareas;
+import utilidades.PoolConexiones;
+
+/**
+ * Informe de eficiencia de la flota: para cada coche o cada conductor, número
+ * de trayectos, kilómetros, gasto en repostaje y euros por kilómetro, con
+ * clasificaciones de los más caros y los más eficientes.
+ *
+ * Con pocos trayectos se calcula con una sola consulta agrupada. Con muchos
+ * (a partir de TRAYECTOS_EN_PARALELO, propiedad del sistema
+ * vehiculos.eficiencia.paralelo) el rango de claves (NSS o N_BASTIDOR) se
+ * divide en tramos que se agregan a la vez en un ForkJoinPool, cada uno con
+ * su propia conexión del pool y apoyándose en el índice de la clave sobre
+ * TRAYECTO. Como los tramos no se solapan y van en orden, sus resultados se
+ * juntan sin volver a agrupar.
+ *
+ * El mínimo y el máximo de la clave salen de EstadisticasTablas, que puede no
+ * estar al día (cambios de otros procesos o desde la consola web), así que
+ * sólo sirven para repartir el trabajo: el primer tramo no tiene límite
+ * inferior ni el último superior, y la consulta única no filtra por la clave.
+ *
+ * @author Jose Cabello
+ */
+public class EficienciaFlota {
+
+    /**
+     * Trayectos a partir de los cuales se agrega en paralelo.
+     */
+    public static final long TRAYECTOS_EN_PARALELO = Long.getLong("vehiculos.eficiencia.paralelo", 200_000);
+    /**
+     * Tramos por hilo, para repartir bien la carga aunque las claves no estén
+     * distribuidas de forma uniforme.
+     */
+    private static final int TRAMOS_POR_HILO = 4;
+
+    /**
+     * Criterio de agrupación del informe.
+     */
+    public enum Agrupacion {
+        CONDUCTOR("NSS", "Conductor", EstadisticasTablas.Tabla.CONDUCTOR),
+        COCHE("N_BASTIDOR", "Coche", EstadisticasTablas.Tabla.COCHE);
+
+        private final String columna;
+        private final String descripcion;
+        private final EstadisticasTablas.Tabla tabla;
+
+        Agrupacion(String columna, String descripcion, EstadisticasTablas.Tabla tabla) {
+            this.columna = columna;
+            this.descripcion = descripcion;
+            this.tabla = tabla;
+        }
+
+        public String getDescripcion() {
+            return descripcion;
+        }
+
+        /**
+         * @param conDesde Si el tramo tiene límite inferior (primer parámetro).
+         * @param conHasta Si el tramo tiene límite superior (siguiente
+         * parámetro).
+         * @return Consulta agregada de un tramo de claves.
+         */
+        private String getSql(boolean conDesde, boolean conHasta) {
+            StringBuilder sql = new StringBuilder("SELECT ").append(columna)
+                    .append(", COUNT(*), SUM(KMS), SUM(GASTOREPOSTAJE) FROM TRAYECTO");
+            if (conDesde || conHasta) {
+                sql.append(" WHERE ");
+            }
+            if (conDesde) {
+                sql.append(columna).append(" >= ?");
+            }
+            if (conDesde && conHasta) {
+                sql.append(" AND ");
+            }
+            if (conHasta) {
+                sql.append(columna).append(" <= ?");
+            }
+            return sql.append(" GROUP BY ").append(columna).append(" ORDER BY ").append(columna).toString();
+        }
+    }
+
+    /**
+     * Totales de un coche o de un conductor.
+     */
+    public static class Fila {
+
+        private final int clave;
+        private final long trayectos;
+        private final long kms;
+        private final double gasto;
+
+        private Fila(int clave, long trayectos, long kms, double gasto) {
+            this.clave = clave;
+            this.trayectos = trayectos;
+            this.kms = kms;
+            this.gasto = gasto;
+        }
+
+        /**
+         * @return NSS o número de bastidor.
+         */
+        public int getClave() {
+            return clave;
+        }
+
+        public long getTrayectos() {
+            return trayectos;
+        }
+
+        public long getKms() {
+            return kms;
+        }
+
+        public double getGasto() {
+            return gasto;
+        }
+
+        /**
+         * @return Euros gastados por kilómetro, o NaN si no hay kilómetros.
+         */
+        public double getEurosPorKm() {
+            return kms > 0 ? gasto / kms : Double.NaN;
+        }
+    }
+
+    /**
+     * Resultado del informe.
+     */
+    public static class Resultado {
+
+        private final List<Fila> filas;
+        private final int tramos;
+
+        private Resultado(List<Fila> filas, int tramos) {
+            this.filas = Collections.unmodifiableList(filas);
+            this.tramos = tramos;
+        }
+
+        /**
+         * @return Filas ordenadas por clave.
+         */
+        public List<Fila> getFilas() {
+            return filas;
+        }
+
+        /**
+         * @return Tramos en que se ha dividido el cálculo (1 si no ha sido en
+         * paralelo).
+         */
+        public int getTramos() {
+            return tramos;
+        }
+
+        /**
+         * @param n Número de filas.
+         * @return Las n filas con más euros por kilómetro.
+         */
+        public List<Fila> getMasCaras(int n) {
+            return clasificar(Comparator.comparingDouble(Fila::getEurosPorKm).reversed(), n);
+        }
+
+        /**
+         * @param n Número de filas.
+         * @return Las n filas con menos euros por kilómetro.
+         */
+        public List<Fila> getMasEficientes(int n) {
+            return clasificar(Comparator.comparingDouble(Fila::getEurosPorKm), n);
+        }
+
+        /**
+         * Ordena las filas con kilómetros según el criterio y se queda con las
+         * n primeras. A igual coste desempata la clave.
+         */
+        private List<Fila> clasificar(Comparator<Fila> orden, int n) {
+            List<Fila> conKms = new ArrayList<>();
+            for (Fila fila : filas) {
+                if (fila.kms > 0) {
+                    conKms.add(fila);
+                }
+            }
+            conKms.sort(orden.thenComparingInt(Fila::getClave));
+            return conKms.subList(0, Math.min(n, conKms.size()));
+        }
+    }
+
+    /**
+     * Calcula el informe, en paralelo si hay muchos trayectos.
+     *
+     * @param pool Pool del que se toman las conexiones.
+     * @param agrupacion Por coche o por conductor.
+     * @param hilos Hilos como mucho para el cálculo en paralelo. Cada uno usa
+     * una conexión del pool, así que no debe pasar de su máximo.
+     * @param progreso Progreso de la tarea (tramos hechos) o null.
+     * @return Totales por coche o por conductor.
+     * @throws SQLException Si falla alguna consulta.
+     */
+    public static Resultado calcular(PoolConexiones pool, Agrupacion agrupacion, int hilos,
+            EjecutorTareas.Progreso progreso) throws SQLException {
+
+        long minimo;
+        long maximo;
+        long trayectos;
+        try (Connection con = pool.obtenerConexion()) {
+            minimo = EstadisticasTablas.getMinimo(con, agrupacion.tabla);
+            maximo = EstadisticasTablas.getMaximo(con, agrupacion.tabla);
+            trayectos = EstadisticasTablas.getCuenta(con, EstadisticasTablas.Tabla.TRAYECTO);
+
+            if (hilos <= 1 || trayectos < TRAYECTOS_EN_PARALELO || maximo <= minimo) {
+                List<Fila> filas = agregarTramo(con, agrupacion, minimo, maximo, false, false);
+                if (progreso != null) {
+                    progreso.avanzar(1, 1);
+                }
+                return new Resultado(filas, 1);
+            }
+        }
+
+        int tramos = (int) Math.min((long) hilos * TRAMOS_POR_HILO, maximo - minimo + 1);
+        ForkJoinPool paralelo = new ForkJoinPool(hilos);
+        try {
+            List<Fila> filas = paralelo.invoke(new Tramo(pool, agrupacion, minimo, maximo, false, false, tramos, progreso, new Contador(tramos)));
+            return new Resultado(filas, tramos);
+        }
+        catch (ErrorTramo ex) {
+            throw ex.getCause();
+        }
+        finally {
+            paralelo.shutdown();
+        }
+    }
+
+    /**
+     * Agrega los trayectos de las claves entre desde y hasta (incluidas). Si
+     * el tramo es abierto por un lado, ese límite no se usa.
+     */
+    private static List<Fila> agregarTramo(Connection con, Agrupacion agrupacion, long desde, long hasta,
+            boolean conDesde, boolean conHasta) throws SQLException {
+        List<Fila> filas = new ArrayList<>();
+
+        try (PreparedStatement consulta = con.prepareStatement(agrupacion.getSql(conDesde, conHasta)) ) {
+            int parametro = 1;
+            if (conDesde) {
+                consulta.setLong(parametro++, desde);
+            }
+            if (conHasta) {
+                consulta.setLong(parametro, hasta);
+            }
+            try (ResultSet resultados = consulta.executeQuery() ) {
+                while (resultados.next() ) {
+                    filas.add(new Fila(resultados.getInt(1), resultados.getLong(2), resultados.getLong(3), resultados.getDouble(4)));
+                }
+            }
+        }
+        return filas;
+    }
+
+    /**
+     * Tramo de claves que se divide por la mitad hasta quedar en tramos
+     * simples, que se agregan con una consulta. Los límites que no están
+     * marcados (conDesde, conHasta) son sólo orientativos: el tramo incluye
+     * también las claves que haya más allá.
+     */
+    private static class Tramo extends RecursiveTask<List<Fila>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final PoolConexiones pool;
+        private final Agrupacion agrupacion;
+        private final long desde;
+        private final long hasta;
+        private final boolean conDesde;
+        private final boolean conHasta;
+        private final int tramos;
+        private final EjecutorTareas.Progreso progreso;
+        private final Contador contador;
+
+        private Tramo(PoolConexiones pool, Agrupacion agrupacion, long desde, long hasta, boolean conDesde,
+                boolean conHasta, int tramos, EjecutorTareas.Progreso progreso, Contador contador) {
+            this.pool = pool;
+            this.agrupacion = agrupacion;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.conDesde = conDesde;
+            this.conHasta = conHasta;
+            this.tramos = tramos;
+            this.progreso = progreso;
+            this.contador = contador;
+        }
+
+        @Override
+        protected List<Fila> compute() {
+            if (tramos <= 1) {
+                return agregar();
+            }
+
+            // El primer tramo se lleva la parte de las claves proporcional a sus tramos.
+            int tramosIzquierda = tramos / 2;
+            long mitad = desde + (hasta - desde + 1) * tramosIzquierda / tramos - 1;
+            Tramo izquierda = new Tramo(pool, agrupacion, desde, mitad, conDesde, true, tramosIzquierda, progreso, contador);
+            Tramo derecha = new Tramo(pool, agrupacion, mitad + 1, hasta, true, conHasta, tramos - tramosIzquierda, progreso, contador);
+            derecha.fork();
+            List<Fila> filas = izquierda.compute();
+            filas.addAll(derecha.join());
+            return filas;
+        }
+
+        private List<Fila> agregar() {
+            if (progreso != null) {
+                progreso.comprobar();
+            }
+            try (Connection con = pool.obtenerConexion()) {
+                List<Fila> filas = agregarTramo(con, agrupacion, desde, hasta, conDesde, conHasta);
+                if (progreso != null) {
+                    progreso.avanzar(contador.hechos.incrementAndGet(), contador.total);
+                }
+                return filas;
+            }
+            catch (SQLException ex) {
+                throw new ErrorTramo(ex);
+            }
+        }
+    }
+
+    /**
+     * Tramos simples hechos de un cálculo, para el progreso de la tarea.
+     */
+    private static class Contador {
+
+        private final AtomicInteger hechos = new AtomicInteger();
+        private final int total;
+
+        private Contador(int total) {
+            this.total = total;
+        }
+    }
+
+    /**
+     * Lleva fuera del ForkJoinPool el error de la consulta de un tramo.
+     */
+    private static class ErrorTramo extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private ErrorTramo(SQLException causa) {
+            super(causa);
+        }
+
+        @Override
+        public synchronized SQLException getCause() {
+            return (SQLException) super.getCause();
+        }
+    }
+}
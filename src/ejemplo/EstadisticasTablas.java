@@ -0,0 +1,217 @@
+package ejemplo;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Número de filas y valores mínimo y máximo de la clave primaria de las
+ * tablas COCHE, CONDUCTOR y TRAYECTO. Se calculan todos juntos con una sola
+ * consulta al arrancar (cargar) y después se mantienen en memoria con los
+ * avisos de las operaciones de la aplicación (anotarAlta, anotarBaja,
+ * invalidar), de forma que consultarlos no va a la base de datos.
+ *
+ * Sólo hace falta volver a consultar una tabla cuando se borra la fila de su
+ * mínimo o de su máximo, o cuando se avisa de un cambio cuyo efecto no se
+ * conoce (un borrado en cascada o una carga masiva). En ese caso la tabla
+ * queda marcada y se vuelve a calcular la primera vez que se pida.
+ *
+ * Las claves de tipo fecha (FECHA de TRAYECTO) se guardan como días desde
+ * 1970-01-01.
+ *
+ * @author Jose Cabello
+ */
+public class EstadisticasTablas {
+
+    /**
+     * Tablas de las que se llevan estadísticas, con su clave primaria.
+     */
+    public enum Tabla {
+        COCHE("N_BASTIDOR"),
+        CONDUCTOR("NSS"),
+        TRAYECTO("FECHA");
+
+        private final String clave;
+
+        Tabla(String clave) {
+            this.clave = clave;
+        }
+
+        /**
+         * @return Consulta del número de filas, el mínimo y el máximo.
+         */
+        private String getSql() {
+            return "SELECT COUNT(*), MIN(" + clave + "), MAX(" + clave + ") FROM " + name();
+        }
+    }
+
+    private static final int TABLAS = Tabla.values().length;
+
+    private static final long[] cuenta = new long[TABLAS];
+    private static final long[] minimo = new long[TABLAS];
+    private static final long[] maximo = new long[TABLAS];
+    /**
+     * Tablas cuyas estadísticas hay que volver a calcular.
+     */
+    private static final boolean[] obsoleta = new boolean[TABLAS];
+
+    static {
+        Arrays.fill(obsoleta, true);
+    }
+
+    /**
+     * Calcula las estadísticas de todas las tablas con una sola consulta.
+     *
+     * @param con Conexión a la BD
+     * @throws SQLException Si falla la consulta.
+     */
+    public static synchronized void cargar(Connection con) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (Tabla tabla : Tabla.values()) {
+            if (tabla.ordinal() > 0) {
+                sql.append(", ");
+            }
+            sql.append("(SELECT COUNT(*) FROM ").append(tabla.name()).append("), ")
+                    .append("(SELECT MIN(").append(tabla.clave).append(") FROM ").append(tabla.name()).append("), ")
+                    .append("(SELECT MAX(").append(tabla.clave).append(") FROM ").append(tabla.name()).append(")");
+        }
+
+        try (PreparedStatement consulta = con.prepareStatement(sql.toString());
+                ResultSet resultado = consulta.executeQuery() ) {
+            resultado.next();
+            for (Tabla tabla : Tabla.values()) {
+                guardar(tabla, resultado, 3 * tabla.ordinal() + 1);
+            }
+        }
+    }
+
+    /**
+     * @param con Conexión a la BD, por si hay que recalcular.
+     * @param tabla Tabla.
+     * @return Número de filas de la tabla.
+     * @throws SQLException Si falla la consulta al recalcular.
+     */
+    public static synchronized long getCuenta(Connection con, Tabla tabla) throws SQLException {
+        recalcularSiHaceFalta(con, tabla);
+        return cuenta[tabla.ordinal()];
+    }
+
+    /**
+     * @param con Conexión a la BD, por si hay que recalcular.
+     * @param tabla Tabla.
+     * @return Valor mínimo de la clave, o 0 si la tabla está vacía.
+     * @throws SQLException Si falla la consulta al recalcular.
+     */
+    public static synchronized long getMinimo(Connection con, Tabla tabla) throws SQLException {
+        recalcularSiHaceFalta(con, tabla);
+        return minimo[tabla.ordinal()];
+    }
+
+    /**
+     * @param con Conexión a la BD, por si hay que recalcular.
+     * @param tabla Tabla.
+     * @return Valor máximo de la clave, o 0 si la tabla está vacía.
+     * @throws SQLException Si falla la consulta al recalcular.
+     */
+    public static synchronized long getMaximo(Connection con, Tabla tabla) throws SQLException {
+        recalcularSiHaceFalta(con, tabla);
+        return maximo[tabla.ordinal()];
+    }
+
+    /**
+     * Avisa de que se ha insertado una fila.
+     *
+     * @param tabla Tabla.
+     * @param clave Clave de la fila insertada.
+     */
+    public static synchronized void anotarAlta(Tabla tabla, long clave) {
+        int i = tabla.ordinal();
+        if (obsoleta[i]) {
+            return;
+        }
+        if (cuenta[i] == 0) {
+            minimo[i] = clave;
+            maximo[i] = clave;
+        }
+        else {
+            minimo[i] = Math.min(minimo[i], clave);
+            maximo[i] = Math.max(maximo[i], clave);
+        }
+        cuenta[i]++;
+    }
+
+    /**
+     * Avisa de que se ha borrado una fila.
+     *
+     * @param tabla Tabla.
+     * @param clave Clave de la fila borrada.
+     */
+    public static synchronized void anotarBaja(Tabla tabla, long clave) {
+        int i = tabla.ordinal();
+        if (obsoleta[i]) {
+            return;
+        }
+        cuenta[i]--;
+        if (cuenta[i] == 0) {
+            minimo[i] = 0;
+            maximo[i] = 0;
+        }
+        else if (clave == minimo[i] || clave == maximo[i]) {
+            // No se sabe cuál es el nuevo extremo sin consultarlo.
+            obsoleta[i] = true;
+        }
+    }
+
+    /**
+     * Avisa de que una tabla ha cambiado de forma desconocida (borrado en
+     * cascada, carga masiva...). Sus estadísticas se recalcularán la próxima
+     * vez que se pidan.
+     *
+     * @param tabla Tabla.
+     */
+    public static synchronized void invalidar(Tabla tabla) {
+        obsoleta[tabla.ordinal()] = true;
+    }
+
+    /**
+     * Convierte una fecha a la clave que se usa en las estadísticas.
+     *
+     * @param fecha Fecha.
+     * @return Días desde 1970-01-01.
+     */
+    public static long clave(Date fecha) {
+        return fecha.toLocalDate().toEpochDay();
+    }
+
+    private static void recalcularSiHaceFalta(Connection con, Tabla tabla) throws SQLException {
+        if (obsoleta[tabla.ordinal()]) {
+            try (PreparedStatement consulta = con.prepareStatement(tabla.getSql());
+                    ResultSet resultado = consulta.executeQuery() ) {
+                resultado.next();
+                guardar(tabla, resultado, 1);
+            }
+        }
+    }
+
+    /**
+     * Guarda las estadísticas de una tabla leídas de las columnas desde,
+     * desde+1 y desde+2 (número de filas, mínimo y máximo).
+     */
+    private static void guardar(Tabla tabla, ResultSet resultado, int desde) throws SQLException {
+        int i = tabla.ordinal();
+        cuenta[i] = resultado.getLong(desde);
+        minimo[i] = comoClave(resultado.getObject(desde + 1));
+        maximo[i] = comoClave(resultado.getObject(desde + 2));
+        obsoleta[i] = false;
+    }
+
+    private static long comoClave(Object valor) {
+        if (valor instanceof Date) {
+            return clave((Date) valor);
+        }
+        return valor != null ? ((Number) valor).longValue() : 0;
+    }
+}
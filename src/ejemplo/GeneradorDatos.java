@@ -0,0 +1,351 @@
+package ejemplo;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Generador de datos sintéticos para las tablas COCHE, CONDUCTOR y TRAYECTO,
+ * pensado para probar la aplicación con volúmenes parecidos a los reales.
+ *
+ * - Los datos salen de un generador aleatorio con semilla, así que la misma
+ * semilla y los mismos tamaños dan siempre los mismos datos. - Las matrículas
+ * son válidas y no se repiten (ni con las que ya hubiera). - Los trayectos
+ * sólo usan conductores y coches que existen, con más trayectos para unos
+ * pocos conductores y coches que para el resto. - Los datos se añaden a los
+ * que ya hubiera, con claves a partir de las máximas existentes.
+ *
+ * FECHA es la clave primaria de TRAYECTO, de modo que no puede haber dos
+ * trayectos el mismo día: cada trayecto generado usa el día siguiente al
+ * último que haya en la tabla.
+ *
+ * Las filas se insertan en lotes grandes dentro de transacciones largas. Los
+ * resúmenes mensuales de los trayectos se acumulan en memoria y se escriben
+ * en lotes antes de cada commit, en lugar de fila a fila desde el trigger.
+ *
+ * Uso: java -cp Vehiculos.jar:h2.jar ejemplo.GeneradorDatos [--coches N]
+ * [--conductores N] [--trayectos N] [--semilla N] [--db ruta]
+ *
+ * @author Jose Cabello
+ */
+public class GeneradorDatos {
+
+    /**
+     * Filas por lote.
+     */
+    private static final int LOTE = 10_000;
+    /**
+     * Filas por transacción.
+     */
+    private static final int FILAS_COMMIT = 200_000;
+    /**
+     * Día a partir del cual se generan trayectos si la tabla está vacía.
+     */
+    private static final LocalDate PRIMERA_FECHA = LocalDate.of(2000, 1, 1);
+
+    /**
+     * Consonantes que admite una matrícula, en orden.
+     */
+    private static final String CONSONANTES = "BCDFGHJKLMNPQRSTVWXYZ";
+    /**
+     * Número de matrículas distintas posibles: 10^4 * 21^3.
+     */
+    private static final long MATRICULAS_POSIBLES = 10_000L * 21 * 21 * 21;
+    /**
+     * Multiplicador primo con MATRICULAS_POSIBLES, para que las matrículas
+     * consecutivas no se parezcan.
+     */
+    private static final long SALTO_MATRICULA = 7_919;
+
+    private static final String[][] MARCAS_MODELOS = {
+        {"SEAT", "IBIZA", "LEON", "ARONA", "ATECA"},
+        {"VOLKSWAGEN", "POLO", "GOLF", "PASSAT", "TIGUAN"},
+        {"RENAULT", "CLIO", "MEGANE", "CAPTUR", "KANGOO"},
+        {"PEUGEOT", "208", "308", "2008", "PARTNER"},
+        {"TOYOTA", "YARIS", "COROLLA", "C-HR", "RAV4"},
+        {"FORD", "FIESTA", "FOCUS", "KUGA", "TRANSIT"},
+        {"CITROEN", "C3", "C4", "BERLINGO", "JUMPY"},
+        {"VOLVO", "C40", "XC40", "XC60", "V60"},
+        {"MAZDA", "2", "3", "6", "CX-5"},
+        {"DACIA", "SANDERO", "DUSTER", "JOGGER", "LOGAN"}
+    };
+    private static final String[] COLORES = {
+        "BLANCO", "NEGRO", "GRIS", "PLATA", "AZUL", "ROJO", "AZUL OSCURO", "VERDE", "AMARILLO", "MARRON"
+    };
+    private static final String[] NOMBRES = {
+        "Antonio", "Manuel", "Jose", "Francisco", "David", "Juan", "Javier", "Daniel", "Carlos", "Miguel",
+        "Maria", "Carmen", "Ana", "Isabel", "Laura", "Lucia", "Cristina", "Marta", "Elena", "Pilar"
+    };
+    private static final String[] APELLIDOS = {
+        "Garcia", "Rodriguez", "Gonzalez", "Fernandez", "Lopez", "Martinez", "Sanchez", "Perez", "Gomez", "Martin",
+        "Jimenez", "Ruiz", "Hernandez", "Diaz", "Moreno", "Alvarez", "Romero", "Navarro", "Torres", "Dominguez"
+    };
+
+    /**
+     * Genera e inserta los datos.
+     *
+     * @param con Conexión a la BD (con las tablas ya creadas).
+     * @param semilla Semilla del generador aleatorio.
+     * @param coches Coches a añadir.
+     * @param conductores Conductores a añadir.
+     * @param trayectos Trayectos a añadir.
+     * @param mostrarProgreso Si es true se informa por pantalla del avance.
+     * @throws SQLException Si falla la inserción. Lo que no se haya confirmado
+     * se deshace.
+     */
+    public static void generar(Connection con, long semilla, int coches, int conductores, long trayectos,
+            boolean mostrarProgreso) throws SQLException {
+
+        SplittableRandom aleatorio = new SplittableRandom(semilla);
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+
+        try (ResumenesMensuales.Acumulacion resumenes = ResumenesMensuales.acumular(con)) {
+            generarCoches(con, aleatorio, coches, mostrarProgreso);
+            generarConductores(con, aleatorio, conductores, mostrarProgreso);
+            generarTrayectos(con, resumenes, aleatorio, trayectos, mostrarProgreso);
+            resumenes.aplicar();
+            con.commit();
+        }
+        catch (SQLException | RuntimeException ex) {
+            con.rollback();
+            throw ex;
+        }
+        finally {
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void generarCoches(Connection con, SplittableRandom aleatorio, int coches, boolean mostrarProgreso)
+            throws SQLException {
+
+        int primero = maximo(con, "SELECT MAX(N_BASTIDOR) FROM COCHE") + 1;
+        Set<String> existentes = new HashSet<>();
+        try (PreparedStatement consulta = con.prepareStatement("SELECT MATRICULA FROM COCHE");
+                ResultSet resultados = consulta.executeQuery()) {
+            while (resultados.next()) {
+                existentes.add(resultados.getString(1));
+            }
+        }
+        if ((long) coches + existentes.size() > MATRICULAS_POSIBLES) {
+            throw new IllegalArgumentException("No hay matrículas distintas para " + coches + " coches más.");
+        }
+
+        long numMatricula = aleatorio.nextLong(MATRICULAS_POSIBLES);
+        try (PreparedStatement insercion = con.prepareStatement(ImportadorCsv.Tabla.COCHE.getSql())) {
+            for (int i = 0; i < coches; i++) {
+                String matricula;
+                do {
+                    matricula = matricula(numMatricula++);
+                }
+                while (existentes.contains(matricula));
+
+                String[] marca = MARCAS_MODELOS[aleatorio.nextInt(MARCAS_MODELOS.length)];
+                insercion.setInt(1, primero + i);
+                insercion.setString(2, matricula);
+                insercion.setString(3, marca[0]);
+                insercion.setString(4, marca[1 + aleatorio.nextInt(marca.length - 1)]);
+                insercion.setString(5, COLORES[aleatorio.nextInt(COLORES.length)]);
+                anadirAlLote(con, null, insercion, i + 1, "coches", mostrarProgreso);
+            }
+            insercion.executeBatch();
+        }
+    }
+
+    private static void generarConductores(Connection con, SplittableRandom aleatorio, int conductores, boolean mostrarProgreso)
+            throws SQLException {
+
+        int primero = maximo(con, "SELECT MAX(NSS) FROM CONDUCTOR") + 1;
+        try (PreparedStatement insercion = con.prepareStatement(ImportadorCsv.Tabla.CONDUCTOR.getSql())) {
+            for (int i = 0; i < conductores; i++) {
+                insercion.setInt(1, primero + i);
+                insercion.setString(2, NOMBRES[aleatorio.nextInt(NOMBRES.length)]);
+                insercion.setString(3, APELLIDOS[aleatorio.nextInt(APELLIDOS.length)] + " " + APELLIDOS[aleatorio.nextInt(APELLIDOS.length)]);
+                anadirAlLote(con, null, insercion, i + 1, "conductores", mostrarProgreso);
+            }
+            insercion.executeBatch();
+        }
+    }
+
+    private static void generarTrayectos(Connection con, ResumenesMensuales.Acumulacion resumenes, SplittableRandom aleatorio,
+            long trayectos, boolean mostrarProgreso)
+            throws SQLException {
+
+        if (trayectos == 0) {
+            return;
+        }
+        int[] nss = claves(con, "SELECT NSS FROM CONDUCTOR ORDER BY NSS");
+        int[] bastidores = claves(con, "SELECT N_BASTIDOR FROM COCHE ORDER BY N_BASTIDOR");
+        if (nss.length == 0 || bastidores.length == 0) {
+            throw new IllegalArgumentException("No se pueden generar trayectos sin conductores y coches.");
+        }
+
+        LocalDate fecha = PRIMERA_FECHA.minusDays(1);
+        try (PreparedStatement consulta = con.prepareStatement("SELECT MAX(FECHA) FROM TRAYECTO");
+                ResultSet resultado = consulta.executeQuery()) {
+            if (resultado.next() && resultado.getDate(1) != null) {
+                fecha = resultado.getDate(1).toLocalDate();
+            }
+        }
+
+        try (PreparedStatement insercion = con.prepareStatement(ImportadorCsv.Tabla.TRAYECTO.getSql())) {
+            for (long i = 0; i < trayectos; i++) {
+                fecha = fecha.plusDays(1);
+
+                // Los trayectos urbanos cortos son mucho más frecuentes que los largos.
+                double r = aleatorio.nextDouble();
+                int kms = 5 + (int) (r * r * r * 900);
+                double euroPorKm = 0.06 + aleatorio.nextDouble() * 0.06;
+
+                insercion.setInt(1, nss[sesgado(aleatorio, nss.length)]);
+                insercion.setInt(2, bastidores[sesgado(aleatorio, bastidores.length)]);
+                insercion.setInt(3, kms);
+                insercion.setDate(4, Date.valueOf(fecha));
+                insercion.setDouble(5, Math.round(kms * euroPorKm * 100) / 100.0);
+                anadirAlLote(con, resumenes, insercion, i + 1, "trayectos", mostrarProgreso);
+            }
+            insercion.executeBatch();
+        }
+    }
+
+    /**
+     * Añade la fila al lote y, cuando toca, ejecuta el lote y confirma (tras
+     * escribir los resúmenes acumulados, si se indican).
+     */
+    private static void anadirAlLote(Connection con, ResumenesMensuales.Acumulacion resumenes, PreparedStatement insercion,
+            long filas, String que, boolean mostrarProgreso) throws SQLException {
+
+        insercion.addBatch();
+        if (filas % LOTE == 0) {
+            insercion.executeBatch();
+        }
+        if (filas % FILAS_COMMIT == 0) {
+            if (resumenes != null) {
+                resumenes.aplicar();
+            }
+            con.commit();
+            if (mostrarProgreso) {
+                System.out.printf("%d %s generados\n", filas, que);
+            }
+        }
+    }
+
+    /**
+     * Índice aleatorio en [0, n) con más probabilidad para los primeros: la
+     * mitad de las veces sale uno del primer 20 %.
+     */
+    private static int sesgado(SplittableRandom aleatorio, int n) {
+        if (aleatorio.nextBoolean()) {
+            return aleatorio.nextInt(Math.max(1, n / 5));
+        }
+        return aleatorio.nextInt(n);
+    }
+
+    /**
+     * Matrícula correspondiente a un número. Números distintos módulo
+     * MATRICULAS_POSIBLES dan matrículas distintas.
+     *
+     * @param n Número de matrícula.
+     * @return Matrícula válida (4 cifras y 3 consonantes).
+     */
+    static String matricula(long n) {
+        long codigo = Math.floorMod(n * SALTO_MATRICULA, MATRICULAS_POSIBLES);
+        char[] letras = new char[7];
+        for (int i = 6; i >= 4; i--) {
+            letras[i] = CONSONANTES.charAt((int) (codigo % 21));
+            codigo /= 21;
+        }
+        for (int i = 3; i >= 0; i--) {
+            letras[i] = (char) ('0' + codigo % 10);
+            codigo /= 10;
+        }
+        return new String(letras);
+    }
+
+    private static int maximo(Connection con, String sql) throws SQLException {
+        try (PreparedStatement consulta = con.prepareStatement(sql);
+                ResultSet resultado = consulta.executeQuery()) {
+            return resultado.next() ? resultado.getInt(1) : 0;
+        }
+    }
+
+    private static int[] claves(Connection con, String sql) throws SQLException {
+        int[] claves = new int[1024];
+        int n = 0;
+        try (PreparedStatement consulta = con.prepareStatement(sql)) {
+            consulta.setFetchSize(10_000);
+            try (ResultSet resultados = consulta.executeQuery()) {
+                while (resultados.next()) {
+                    if (n == claves.length) {
+                        claves = Arrays.copyOf(claves, n * 2);
+                    }
+                    claves[n++] = resultados.getInt(1);
+                }
+            }
+        }
+        return Arrays.copyOf(claves, n);
+    }
+
+    /**
+     * Genera datos en la base de datos de la aplicación (o en la indicada con
+     * --db), creando antes las tablas si no existen.
+     *
+     * @param args Tamaños, semilla y base de datos (ver la descripción de la
+     * clase).
+     */
+    public static void main(String[] args) {
+        int coches = 1_000;
+        int conductores = 1_000;
+        long trayectos = 10_000;
+        long semilla = 1;
+        String db = "./proyectobase.h2db";
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--coches":
+                        coches = Integer.parseInt(args[++i]);
+                        break;
+                    case "--conductores":
+                        conductores = Integer.parseInt(args[++i]);
+                        break;
+                    case "--trayectos":
+                        trayectos = Long.parseLong(args[++i]);
+                        break;
+                    case "--semilla":
+                        semilla = Long.parseLong(args[++i]);
+                        break;
+                    case "--db":
+                        db = args[++i];
+                        break;
+                    default:
+                        throw new IllegalArgumentException(args[i]);
+                }
+            }
+        }
+        catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Uso: GeneradorDatos [--coches N] [--conductores N] [--trayectos N] [--semilla N] [--db ruta]");
+            return;
+        }
+
+        try (Connection con = DriverManager.getConnection("jdbc:h2:" + db + ";MODE=MySQL", "", "")) {
+            if (Aplicacion.crearTablas(con)) {
+                long inicio = System.nanoTime();
+                generar(con, semilla, coches, conductores, trayectos, true);
+                System.out.printf("Generados %d coches, %d conductores y %d trayectos en %.1f s\n",
+                        coches, conductores, trayectos, (System.nanoTime() - inicio) / 1e9);
+            }
+        }
+        catch (SQLException | IllegalArgumentException ex) {
+            System.err.printf("No se han podido generar los datos: %s\n", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package ejemplo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import utilidades.ValidadorMatricula;
+
+/**
+ * Carga masiva de datos en las tablas COCHE, CONDUCTOR y TRAYECTO a partir de
+ * archivos CSV. Las filas se insertan en lotes (addBatch/executeBatch) y se
+ * confirman cada cierto número de filas. Una fila errónea, ya sea por formato
+ * o porque la base de datos la rechace, se anota en el resultado y la carga
+ * continúa con las demás.
+ *
+ * Formato del CSV: una fila por línea, campos separados por comas, en el
+ * mismo orden que las columnas de la tabla. Los campos pueden ir entre
+ * comillas dobles (y una comilla dentro de un campo se escribe doble). Se
+ * ignoran las líneas vacías y una primera línea de cabecera. Las matrículas
+ * se normalizan (mayúsculas) y se rechazan las que no tengan formato válido.
+ *
+ * Al importar trayectos, el trigger de los resúmenes mensuales se suspende y
+ * los trayectos aceptados se suman en memoria, escribiendo los resúmenes en
+ * lotes antes de cada commit.
+ *
+ * @author Jose Cabello
+ */
+public class ImportadorCsv {
+
+    /**
+     * Filas por lote si no se indica otra cosa.
+     */
+    public static final int TAMANO_LOTE = 1_000;
+    /**
+     * Filas por transacción si no se indica otra cosa.
+     */
+    public static final int TAMANO_COMMIT = 50_000;
+    /**
+     * Errores que se guardan como mucho en el resultado. El resto sólo se
+     * cuentan.
+     */
+    private static final int MAX_ERRORES_GUARDADOS = 1_000;
+
+    /**
+     * Tipo de cada columna del CSV.
+     */
+    private enum Tipo {
+        ENTERO, CADENA, FECHA, REAL, MATRICULA
+    }
+
+    /**
+     * Tablas que se pueden importar.
+     */
+    public enum Tabla {
+        COCHE("INSERT INTO COCHE (N_BASTIDOR, MATRICULA, MARCA, MODELO, COLOR) VALUES (?,?,?,?,?)",
+                Tipo.ENTERO, Tipo.MATRICULA, Tipo.CADENA, Tipo.CADENA, Tipo.CADENA),
+        CONDUCTOR("INSERT INTO CONDUCTOR (NSS, NOMBRE, APELLIDOS) VALUES (?,?,?)",
+                Tipo.ENTERO, Tipo.CADENA, Tipo.CADENA),
+        TRAYECTO("INSERT INTO TRAYECTO (NSS, N_BASTIDOR, KMS, FECHA, GASTOREPOSTAJE) VALUES (?,?,?,?,?)",
+                Tipo.ENTERO, Tipo.ENTERO, Tipo.ENTERO, Tipo.FECHA, Tipo.REAL);
+
+        private final String sql;
+        private final Tipo[] columnas;
+
+        Tabla(String sql, Tipo... columnas) {
+            this.sql = sql;
+            this.columnas = columnas;
+        }
+
+        /**
+         * @return Sentencia INSERT de la tabla, con un parámetro por columna.
+         */
+        String getSql() {
+            return sql;
+        }
+    }
+
+    /**
+     * Resultado de una importación.
+     */
+    public static class Resultado {
+
+        private long leidas = 0;
+        private long insertadas = 0;
+        private long erroneas = 0;
+        private final List<String> errores = new ArrayList<>();
+
+        /**
+         * @return Filas de datos leídas del archivo.
+         */
+        public long getLeidas() {
+            return leidas;
+        }
+
+        /**
+         * @return Filas insertadas y confirmadas.
+         */
+        public long getInsertadas() {
+            return insertadas;
+        }
+
+        /**
+         * @return Filas rechazadas.
+         */
+        public long getErroneas() {
+            return erroneas;
+        }
+
+        /**
+         * @return Descripción de las primeras filas rechazadas, con su número
+         * de línea.
+         */
+        public List<String> getErrores() {
+            return errores;
+        }
+
+        private void anotarError(long linea, String motivo) {
+            erroneas++;
+            if (errores.size() < MAX_ERRORES_GUARDADOS) {
+                errores.add("Línea " + linea + ": " + motivo);
+            }
+        }
+    }
+
+    /**
+     * Importa un CSV con los tamaños de lote y de transacción por defecto.
+     *
+     * @param con Conexión a la BD
+     * @param tabla Tabla destino.
+     * @param archivo Archivo CSV.
+     * @return Resultado de la importación.
+     * @throws IOException Si no se puede leer el archivo.
+     * @throws SQLException Si falla la conexión (no una fila concreta).
+     */
+    public static Resultado importar(Connection con, Tabla tabla, Path archivo) throws IOException, SQLException {
+        return importar(con, tabla, archivo, TAMANO_LOTE, TAMANO_COMMIT);
+    }
+
+    /**
+     * Importa un CSV en la tabla indicada.
+     *
+     * @param con Conexión a la BD
+     * @param tabla Tabla destino.
+     * @param archivo Archivo CSV.
+     * @param tamanoLote Filas que se envían juntas en cada executeBatch.
+     * @param tamanoCommit Filas tras las cuales se confirma la transacción.
+     * @return Resultado de la importación.
+     * @throws IOException Si no se puede leer el archivo.
+     * @throws SQLException Si falla la conexión (no una fila concreta).
+     */
+    public static Resultado importar(Connection con, Tabla tabla, Path archivo, int tamanoLote, int tamanoCommit)
+            throws IOException, SQLException {
+
+        if (tamanoLote < 1 || tamanoCommit < 1) {
+            throw new IllegalArgumentException("Los tamaños de lote y de commit deben ser positivos.");
+        }
+
+        Resultado resultado = new Resultado();
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+
+        try (BufferedReader lector = Files.newBufferedReader(archivo, StandardCharsets.UTF_8);
+                PreparedStatement insercion = con.prepareStatement(tabla.sql);
+                ResumenesMensuales.Acumulacion resumenes = tabla == Tabla.TRAYECTO ? ResumenesMensuales.suspender(con) : null) {
+
+            // Número de línea y valores de cada fila del lote en curso, para informar de errores y sumar los resúmenes.
+            long[] lineasLote = new long[tamanoLote];
+            Object[][] valoresLote = new Object[tamanoLote][];
+            int enLote = 0;
+            long sinConfirmar = 0;
+            long numLinea = 0;
+            String linea;
+
+            while ((linea = lector.readLine()) != null) {
+                numLinea++;
+                if (linea.isBlank()) {
+                    continue;
+                }
+
+                List<String> campos = separarCampos(linea);
+                if (numLinea == 1 && esCabecera(campos)) {
+                    continue;
+                }
+                resultado.leidas++;
+
+                try {
+                    valoresLote[enLote] = asignarParametros(insercion, tabla.columnas, campos);
+                }
+                catch (IllegalArgumentException ex) {
+                    resultado.anotarError(numLinea, ex.getMessage());
+                    continue;
+                }
+                insercion.addBatch();
+                lineasLote[enLote++] = numLinea;
+
+                if (enLote == tamanoLote) {
+                    sinConfirmar += ejecutarLote(insercion, lineasLote, valoresLote, enLote, resumenes, resultado);
+                    enLote = 0;
+                    if (sinConfirmar >= tamanoCommit) {
+                        if (resumenes != null) {
+                            resumenes.aplicar();
+                        }
+                        con.commit();
+                        resultado.insertadas += sinConfirmar;
+                        sinConfirmar = 0;
+                    }
+                }
+            }
+
+            sinConfirmar += ejecutarLote(insercion, lineasLote, valoresLote, enLote, resumenes, resultado);
+            if (resumenes != null) {
+                resumenes.aplicar();
+            }
+            con.commit();
+            resultado.insertadas += sinConfirmar;
+        }
+        catch (IOException | SQLException | RuntimeException ex) {
+            con.rollback();
+            throw ex;
+        }
+        finally {
+            con.setAutoCommit(autoCommit);
+        }
+
+        return resultado;
+    }
+
+    /**
+     * Ejecuta el lote en curso y anota las filas que la base de datos rechace,
+     * cada una con su causa: el driver encadena (getNextException) una
+     * excepción por cada fila fallida, en el mismo orden que las filas. Las
+     * filas insertadas se suman a los resúmenes, si se indican.
+     *
+     * @return Filas del lote que se han insertado.
+     */
+    private static int ejecutarLote(PreparedStatement insercion, long[] lineasLote, Object[][] valoresLote, int enLote,
+            ResumenesMensuales.Acumulacion resumenes, Resultado resultado) throws SQLException {
+
+        if (enLote == 0) {
+            return 0;
+        }
+
+        int[] cuentas;
+        BatchUpdateException error = null;
+        try {
+            cuentas = insercion.executeBatch();
+        }
+        catch (BatchUpdateException ex) {
+            cuentas = ex.getUpdateCounts();
+            error = ex;
+            insercion.clearBatch();
+        }
+
+        SQLException causa = error != null ? error.getNextException() : null;
+        int insertadas = 0;
+        for (int i = 0; i < enLote; i++) {
+            if (i < cuentas.length && cuentas[i] != Statement.EXECUTE_FAILED) {
+                insertadas++;
+                if (resumenes != null) {
+                    resumenes.sumar(valoresLote[i]);
+                }
+            }
+            else if (causa != null) {
+                resultado.anotarError(lineasLote[i], causa.getMessage());
+                causa = causa.getNextException();
+            }
+            else {
+                resultado.anotarError(lineasLote[i], error != null ? error.getMessage() : "rechazada por la base de datos");
+            }
+        }
+        return insertadas;
+    }
+
+    /**
+     * Asigna los campos de una fila a los parámetros de la inserción.
+     *
+     * @return Valores asignados, en el orden de las columnas.
+     * @throws IllegalArgumentException Si la fila no tiene el formato esperado.
+     */
+    private static Object[] asignarParametros(PreparedStatement insercion, Tipo[] columnas, List<String> campos)
+            throws SQLException {
+
+        if (campos.size() != columnas.length) {
+            throw new IllegalArgumentException("se esperaban " + columnas.length + " campos y hay " + campos.size());
+        }
+
+        Object[] valores = new Object[columnas.length];
+        for (int i = 0; i < columnas.length; i++) {
+            String campo = campos.get(i).trim();
+            try {
+                switch (columnas[i]) {
+                    case ENTERO:
+                        int entero = Integer.parseInt(campo);
+                        insercion.setInt(i + 1, entero);
+                        valores[i] = entero;
+                        break;
+                    case REAL:
+                        double real = Double.parseDouble(campo);
+                        insercion.setDouble(i + 1, real);
+                        valores[i] = real;
+                        break;
+                    case FECHA:
+                        Date fecha = Date.valueOf(campo);
+                        insercion.setDate(i + 1, fecha);
+                        valores[i] = fecha;
+                        break;
+                    case MATRICULA:
+                        String matricula = ValidadorMatricula.normalizar(campo);
+                        if (matricula == null) {
+                            throw new IllegalArgumentException();
+                        }
+                        insercion.setString(i + 1, matricula);
+                        valores[i] = matricula;
+                        break;
+                    default:
+                        insercion.setString(i + 1, campo);
+                        valores[i] = campo;
+                        break;
+                }
+            }
+            catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("valor no válido en el campo " + (i + 1) + ": '" + campo + "'");
+            }
+        }
+        return valores;
+    }
+
+    /**
+     * Una cabecera es una primera línea cuyo primer campo no es un número.
+     */
+    private static boolean esCabecera(List<String> campos) {
+        String primero = campos.get(0).trim();
+        return !primero.isEmpty() && !Character.isDigit(primero.charAt(0)) && primero.charAt(0) != '-';
+    }
+
+    /**
+     * Separa una línea CSV en campos, respetando las comillas dobles.
+     *
+     * @param linea Línea del archivo.
+     * @return Lista de campos sin las comillas.
+     */
+    static List<String> separarCampos(String linea) {
+        List<String> campos = new ArrayList<>();
+        StringBuilder campo = new StringBuilder();
+        boolean entreComillas = false;
+
+        for (int i = 0; i < linea.length(); i++) {
+            char c = linea.charAt(i);
+            if (entreComillas) {
+                if (c == '"') {
+                    if (i + 1 < linea.length() && linea.charAt(i + 1) == '"') {
+                        campo.append('"');
+                        i++;
+                    }
+                    else {
+                        entreComillas = false;
+                    }
+                }
+                else {
+                    campo.append(c);
+                }
+            }
+            else if (c == '"') {
+                entreComillas = true;
+            }
+            else if (c == ',') {
+                campos.add(campo.toString());
+                campo.setLength(0);
+            }
+            else {
+                campo.append(c);
+            }
+        }
+        campos.add(campo.toString());
+        return campos;
+    }
+}
@@ -0,0 +1,274 @@
+package ejemplo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import utilidades.ValidadorMatricula;
+
+/**
+ * Índice en memoria de matrícula a número de bastidor de la tabla COCHE. Cada
+ * matrícula se codifica como un long y se guarda en una tabla hash de
+ * direccionamiento abierto sobre arrays de tipos primitivos, de forma que una
+ * búsqueda no crea objetos ni va a la base de datos.
+ *
+ * El índice se carga entero con cargar() y se mantiene al día con
+ * actualizar() cada vez que la aplicación cambia una matrícula. Si una
+ * matrícula no está en el índice se busca en la base de datos y se añade.
+ *
+ * @author Jose Cabello
+ */
+public class IndiceMatriculas {
+
+    /**
+     * Matrícula codificada → número de bastidor.
+     */
+    private static final TablaLong porMatricula = new TablaLong();
+    /**
+     * Número de bastidor → matrícula codificada.
+     */
+    private static final TablaLong porBastidor = new TablaLong();
+
+    /**
+     * Carga en el índice todas las matrículas de la tabla COCHE, sustituyendo
+     * lo que hubiera.
+     *
+     * @param con Conexión a la BD
+     * @throws SQLException Si falla la consulta.
+     */
+    public static void cargar(Connection con) throws SQLException {
+        try (PreparedStatement consulta = con.prepareStatement("SELECT N_BASTIDOR, MATRICULA FROM COCHE") ){
+            consulta.setFetchSize(10_000);
+
+            synchronized (IndiceMatriculas.class) {
+                porMatricula.vaciar();
+                porBastidor.vaciar();
+                try (ResultSet resultados = consulta.executeQuery() ) {
+                    while (resultados.next() ) {
+                        long codigo = codificar(ValidadorMatricula.normalizar(resultados.getString(2)) );
+                        if (codigo >= 0) {
+                            poner(resultados.getInt(1), codigo);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Busca el número de bastidor del coche con la matrícula indicada.
+     *
+     * @param con Conexión a la BD, por si la matrícula no está en el índice.
+     * @param matricula Matrícula a buscar (se normaliza antes).
+     * @return Número de bastidor o -1 si no hay ningún coche con esa matrícula.
+     * @throws SQLException Si falla la consulta a la BD.
+     */
+    public static int buscar(Connection con, String matricula) throws SQLException {
+        String normalizada = ValidadorMatricula.normalizar(matricula);
+        if (normalizada == null) {
+            return -1;
+        }
+
+        long codigo = codificar(normalizada);
+        synchronized (IndiceMatriculas.class) {
+            long bastidor = porMatricula.get(codigo);
+            if (bastidor != TablaLong.VACIO) {
+                return (int) bastidor;
+            }
+        }
+
+        // No está en el índice: se busca en la BD por si el coche se ha añadido por otra vía.
+        try (PreparedStatement consulta = con.prepareStatement("SELECT N_BASTIDOR FROM COCHE WHERE MATRICULA = ?") ){
+            consulta.setString(1, normalizada);
+            try (ResultSet resultado = consulta.executeQuery() ) {
+                if (resultado.next() ) {
+                    int bastidor = resultado.getInt(1);
+                    actualizar(bastidor, normalizada);
+                    return bastidor;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Anota en el índice la matrícula actual de un coche, quitando la que
+     * tuviera antes.
+     *
+     * @param bastidor Número de bastidor del coche.
+     * @param matricula Nueva matrícula (normalizada).
+     */
+    public static synchronized void actualizar(int bastidor, String matricula) {
+        long codigo = codificar(matricula);
+        if (codigo >= 0) {
+            poner(bastidor, codigo);
+        }
+    }
+
+    /**
+     * Quita del índice un coche.
+     *
+     * @param bastidor Número de bastidor del coche.
+     */
+    public static synchronized void quitar(int bastidor) {
+        long anterior = porBastidor.quitar(bastidor);
+        if (anterior != TablaLong.VACIO) {
+            porMatricula.quitar(anterior);
+        }
+    }
+
+    /**
+     * @return Número de coches en el índice.
+     */
+    public static synchronized int getTamano() {
+        return porBastidor.getTamano();
+    }
+
+    private static void poner(int bastidor, long codigo) {
+        long anterior = porBastidor.poner(bastidor, codigo);
+        if (anterior != TablaLong.VACIO && anterior != codigo) {
+            porMatricula.quitar(anterior);
+        }
+        porMatricula.poner(codigo, bastidor);
+    }
+
+    /**
+     * Codifica una matrícula normalizada (4 cifras y 3 letras mayúsculas) como
+     * un número: las cifras por 26^3 más las letras en base 26.
+     *
+     * @param matricula Matrícula normalizada.
+     * @return El código o -1 si la matrícula no tiene el formato esperado.
+     */
+    static long codificar(String matricula) {
+        if (matricula == null || matricula.length() != ValidadorMatricula.LONGITUD) {
+            return -1;
+        }
+        long codigo = 0;
+        for (int i = 0; i < 4; i++) {
+            char c = matricula.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            codigo = codigo * 10 + (c - '0');
+        }
+        for (int i = 4; i < ValidadorMatricula.LONGITUD; i++) {
+            char c = matricula.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                return -1;
+            }
+            codigo = codigo * 26 + (c - 'A');
+        }
+        return codigo;
+    }
+
+    /**
+     * Tabla hash long → long con direccionamiento abierto (sondeo lineal) y
+     * borrado por desplazamiento hacia atrás, sin objetos por entrada.
+     */
+    private static class TablaLong {
+
+        /**
+         * Valor de las casillas libres y de las búsquedas sin resultado.
+         */
+        private static final long VACIO = Long.MIN_VALUE;
+
+        private long[] claves;
+        private long[] valores;
+        private int tamano;
+
+        private TablaLong() {
+            vaciar();
+        }
+
+        private void vaciar() {
+            claves = new long[1024];
+            valores = new long[1024];
+            Arrays.fill(claves, VACIO);
+            tamano = 0;
+        }
+
+        private int getTamano() {
+            return tamano;
+        }
+
+        private int casilla(long clave) {
+            long h = clave * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & (claves.length - 1);
+        }
+
+        private long get(long clave) {
+            for (int i = casilla(clave); claves[i] != VACIO; i = (i + 1) & (claves.length - 1)) {
+                if (claves[i] == clave) {
+                    return valores[i];
+                }
+            }
+            return VACIO;
+        }
+
+        /**
+         * @return El valor anterior o VACIO si la clave no estaba.
+         */
+        private long poner(long clave, long valor) {
+            if ((tamano + 1) * 4 > claves.length * 3) {
+                crecer();
+            }
+            int i = casilla(clave);
+            while (claves[i] != VACIO) {
+                if (claves[i] == clave) {
+                    long anterior = valores[i];
+                    valores[i] = valor;
+                    return anterior;
+                }
+                i = (i + 1) & (claves.length - 1);
+            }
+            claves[i] = clave;
+            valores[i] = valor;
+            tamano++;
+            return VACIO;
+        }
+
+        /**
+         * @return El valor que tenía la clave o VACIO si no estaba.
+         */
+        private long quitar(long clave) {
+            int mascara = claves.length - 1;
+            int i = casilla(clave);
+            while (claves[i] != clave) {
+                if (claves[i] == VACIO) {
+                    return VACIO;
+                }
+                i = (i + 1) & mascara;
+            }
+            long anterior = valores[i];
+            tamano--;
+
+            // Se recolocan las entradas siguientes del mismo grupo para no dejar huecos en el sondeo.
+            int hueco = i;
+            for (int j = (i + 1) & mascara; claves[j] != VACIO; j = (j + 1) & mascara) {
+                int ideal = casilla(claves[j]);
+                if (((j - ideal) & mascara) >= ((j - hueco) & mascara)) {
+                    claves[hueco] = claves[j];
+                    valores[hueco] = valores[j];
+                    hueco = j;
+                }
+            }
+            claves[hueco] = VACIO;
+            return anterior;
+        }
+
+        private void crecer() {
+            long[] viejasClaves = claves;
+            long[] viejosValores = valores;
+            claves = new long[viejasClaves.length * 2];
+            valores = new long[viejasClaves.length * 2];
+            Arrays.fill(claves, VACIO);
+            tamano = 0;
+            for (int i = 0; i < viejasClaves.length; i++) {
+                if (viejasClaves[i] != VACIO) {
+                    poner(viejasClaves[i], viejosValores[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package ejemplo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Copia en memoria de la tabla TRAYECTO guardada por columnas, para
+ * analíticas que recorren muchos trayectos sin pasar fila a fila por JDBC.
+ *
+ * Cada columna (NSS, N_BASTIDOR, KMS, FECHA como días desde 1970-01-01 y
+ * GASTOREPOSTAJE) se guarda en un buffer de tipo primitivo. Con pocas filas
+ * los buffers están en el heap; a partir de FILAS_FUERA_DEL_HEAP (propiedad
+ * del sistema vehiculos.instantanea.directa) se reservan fuera del heap
+ * (ByteBuffer.allocateDirect), para no cargar al recolector de basura con
+ * cientos de megas que no cambian.
+ *
+ * Las consultas de filtrado y agregación recorren las columnas con bucles
+ * simples y acumulan por grupo en arrays indexados por la clave.
+ *
+ * actualizar() trae sólo los trayectos con fecha posterior a la última
+ * cargada. Antes comprueba que el número de trayectos hasta esa fecha sigue
+ * siendo el de la copia; si no (se han borrado trayectos, por ejemplo en
+ * cascada al borrar un conductor, o se han añadido con fechas anteriores) se
+ * vuelve a cargar todo. Los cambios de valores de trayectos ya cargados no se
+ * detectan: para ellos está recargar().
+ *
+ * @author Jose Cabello
+ */
+public class InstantaneaTrayectos {
+
+    /**
+     * Filas a partir de las cuales las columnas se guardan fuera del heap.
+     */
+    public static final long FILAS_FUERA_DEL_HEAP = Long.getLong("vehiculos.instantanea.directa", 8_000_000);
+    /**
+     * Filas que se piden al driver en cada viaje al cargar.
+     */
+    private static final int TAMANO_FETCH = 10_000;
+    /**
+     * Rango máximo de claves para acumular en arrays indexados por la clave.
+     * Con rangos mayores se usa un mapa.
+     */
+    private static final int MAX_RANGO_DENSO = 1 << 22;
+    private static final int CAPACIDAD_MINIMA = 1_024;
+
+    private static final String SQL_CUENTA_HASTA = "SELECT COUNT(*) FROM TRAYECTO WHERE FECHA <= ?";
+    private static final String SQL_CUENTA = "SELECT COUNT(*) FROM TRAYECTO";
+    private static final String SQL_TODOS = "SELECT NSS, N_BASTIDOR, KMS, FECHA, GASTOREPOSTAJE FROM TRAYECTO ORDER BY FECHA";
+    private static final String SQL_DESDE = "SELECT NSS, N_BASTIDOR, KMS, FECHA, GASTOREPOSTAJE FROM TRAYECTO WHERE FECHA > ? ORDER BY FECHA";
+
+    /**
+     * Filtro de los trayectos que entran en una consulta. Los criterios a
+     * null no filtran.
+     */
+    public static class Filtro {
+
+        /**
+         * Filtro que deja pasar todos los trayectos.
+         */
+        public static final Filtro TODOS = new Filtro(null, null, null, null);
+
+        private final Integer nss;
+        private final Integer bastidor;
+        private final LocalDate desde;
+        private final LocalDate hasta;
+
+        /**
+         * @param nss NSS del conductor o null.
+         * @param bastidor Número de bastidor del coche o null.
+         * @param desde Fecha inicial (incluida) o null.
+         * @param hasta Fecha final (incluida) o null.
+         */
+        public Filtro(Integer nss, Integer bastidor, LocalDate desde, LocalDate hasta) {
+            this.nss = nss;
+            this.bastidor = bastidor;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+    }
+
+    private final long filasFueraDelHeap;
+
+    private IntBuffer nss;
+    private IntBuffer bastidor;
+    private IntBuffer kms;
+    private IntBuffer fecha;
+    private DoubleBuffer gasto;
+    private int filas = 0;
+    private boolean cargada = false;
+    private boolean fueraDelHeap = false;
+
+    /**
+     * Extremos de las claves cargadas, para dimensionar los acumuladores.
+     */
+    private int minNss, maxNss, minBastidor, maxBastidor, minFecha, maxFecha;
+
+    /**
+     * Crea una instantánea vacía, que se carga la primera vez que se
+     * actualiza.
+     */
+    public InstantaneaTrayectos() {
+        this(FILAS_FUERA_DEL_HEAP);
+    }
+
+    /**
+     * @param filasFueraDelHeap Filas a partir de las cuales las columnas se
+     * guardan fuera del heap.
+     */
+    public InstantaneaTrayectos(long filasFueraDelHeap) {
+        this.filasFueraDelHeap = filasFueraDelHeap;
+    }
+
+    /**
+     * Trae los trayectos nuevos o, si la copia ya no cuadra con la tabla (o
+     * no se ha cargado), la carga entera.
+     *
+     * @param con Conexión a la BD
+     * @return Filas leídas de la BD.
+     * @throws SQLException Si falla la consulta. La instantánea queda vacía y
+     * se cargará entera la próxima vez.
+     */
+    public synchronized int actualizar(Connection con) throws SQLException {
+        if (cargada && filas > 0 && contar(con, SQL_CUENTA_HASTA, maxFecha) != filas) {
+            cargada = false;
+        }
+        if (!cargada) {
+            return recargar(con);
+        }
+        return leer(con, filas > 0 ? maxFecha : null);
+    }
+
+    /**
+     * Vuelve a cargar la tabla entera.
+     *
+     * @param con Conexión a la BD
+     * @return Filas leídas de la BD.
+     * @throws SQLException Si falla la consulta.
+     */
+    public synchronized int recargar(Connection con) throws SQLException {
+        cargada = false;
+        filas = 0;
+        long total = contar(con, SQL_CUENTA, null);
+        reservar((int) Math.min(Integer.MAX_VALUE - 8, Math.max(CAPACIDAD_MINIMA, total + total / 8)), total >= filasFueraDelHeap);
+        int leidas = leer(con, null);
+        cargada = true;
+        return leidas;
+    }
+
+    /**
+     * Calcula una agregación sobre los trayectos de la instantánea que pasen
+     * el filtro, con el mismo resultado que AgregadosTrayecto.agregar.
+     *
+     * @param funcion Función de agregación.
+     * @param medida Columna a agregar.
+     * @param agrupacion Criterio de agrupación.
+     * @param filtro Trayectos que entran en el cálculo.
+     * @return Una fila por grupo, ordenadas por grupo. Sin agrupación, una
+     * única fila (con valor 0 si no hay trayectos).
+     */
+    public synchronized List<AgregadosTrayecto.Fila> agregar(AgregadosTrayecto.Funcion funcion, AgregadosTrayecto.Medida medida,
+            AgregadosTrayecto.Agrupacion agrupacion, Filtro filtro) {
+
+        // Los criterios del filtro se pasan a enteros para no desempaquetar en el bucle.
+        boolean porNss = filtro.nss != null;
+        boolean porBastidor = filtro.bastidor != null;
+        int nssBuscado = porNss ? filtro.nss : 0;
+        int bastidorBuscado = porBastidor ? filtro.bastidor : 0;
+        int fechaDesde = filtro.desde != null ? (int) filtro.desde.toEpochDay() : Integer.MIN_VALUE;
+        int fechaHasta = filtro.hasta != null ? (int) filtro.hasta.toEpochDay() : Integer.MAX_VALUE;
+        boolean porKms = medida == AgregadosTrayecto.Medida.KMS;
+
+        // Clave de grupo de cada fecha (mes o año), calculada una sola vez por día.
+        int[] grupoFecha = null;
+        if (filas > 0 && (agrupacion == AgregadosTrayecto.Agrupacion.MES || agrupacion == AgregadosTrayecto.Agrupacion.ANIO)) {
+            grupoFecha = new int[maxFecha - minFecha + 1];
+            for (int dia = minFecha; dia <= maxFecha; dia++) {
+                LocalDate fechaDia = LocalDate.ofEpochDay(dia);
+                grupoFecha[dia - minFecha] = agrupacion == AgregadosTrayecto.Agrupacion.MES
+                        ? fechaDia.getYear() * 12 + fechaDia.getMonthValue() - 1
+                        : fechaDia.getYear();
+            }
+        }
+
+        Acumuladores acumuladores = crearAcumuladores(agrupacion);
+        for (int i = 0; i < filas; i++) {
+            int diaFila = fecha.get(i);
+            if (diaFila < fechaDesde || diaFila > fechaHasta
+                    || porNss && nss.get(i) != nssBuscado
+                    || porBastidor && bastidor.get(i) != bastidorBuscado) {
+                continue;
+            }
+
+            int clave;
+            switch (agrupacion) {
+                case CONDUCTOR:
+                    clave = nss.get(i);
+                    break;
+                case COCHE:
+                    clave = bastidor.get(i);
+                    break;
+                case MES:
+                case ANIO:
+                    clave = grupoFecha[diaFila - minFecha];
+                    break;
+                default:
+                    clave = 0;
+                    break;
+            }
+            acumuladores.anotar(clave, porKms ? kms.get(i) : gasto.get(i));
+        }
+
+        return acumuladores.resultado(funcion, agrupacion);
+    }
+
+    /**
+     * @return Número de trayectos en la instantánea.
+     */
+    public synchronized int getFilas() {
+        return filas;
+    }
+
+    /**
+     * @return true si las columnas están fuera del heap.
+     */
+    public synchronized boolean isFueraDelHeap() {
+        return fueraDelHeap;
+    }
+
+    /**
+     * Lee y añade los trayectos con fecha posterior a la indicada (o todos si
+     * es null).
+     */
+    private int leer(Connection con, Integer despuesDe) throws SQLException {
+        int leidas = 0;
+
+        try (PreparedStatement consulta = con.prepareStatement(despuesDe == null ? SQL_TODOS : SQL_DESDE) ) {
+            consulta.setFetchSize(TAMANO_FETCH);
+            if (despuesDe != null) {
+                consulta.setObject(1, LocalDate.ofEpochDay(despuesDe));
+            }
+
+            try (ResultSet resultados = consulta.executeQuery() ) {
+                while (resultados.next() ) {
+                    if (filas == nss.capacity()) {
+                        reservar((int) Math.min(Integer.MAX_VALUE - 8, (long) filas * 2), fueraDelHeap);
+                    }
+                    int nssFila = resultados.getInt(1);
+                    int bastidorFila = resultados.getInt(2);
+                    int diaFila = (int) resultados.getObject(4, LocalDate.class).toEpochDay();
+
+                    nss.put(filas, nssFila);
+                    bastidor.put(filas, bastidorFila);
+                    kms.put(filas, resultados.getInt(3));
+                    fecha.put(filas, diaFila);
+                    gasto.put(filas, resultados.getDouble(5));
+                    anotarExtremos(nssFila, bastidorFila, diaFila);
+                    filas++;
+                    leidas++;
+                }
+            }
+        }
+        catch (SQLException ex) {
+            cargada = false;
+            filas = 0;
+            throw ex;
+        }
+        return leidas;
+    }
+
+    private void anotarExtremos(int nssFila, int bastidorFila, int diaFila) {
+        if (filas == 0) {
+            minNss = maxNss = nssFila;
+            minBastidor = maxBastidor = bastidorFila;
+            minFecha = maxFecha = diaFila;
+        }
+        else {
+            minNss = Math.min(minNss, nssFila);
+            maxNss = Math.max(maxNss, nssFila);
+            minBastidor = Math.min(minBastidor, bastidorFila);
+            maxBastidor = Math.max(maxBastidor, bastidorFila);
+            minFecha = Math.min(minFecha, diaFila);
+            maxFecha = Math.max(maxFecha, diaFila);
+        }
+    }
+
+    private static long contar(Connection con, String sql, Integer hastaDia) throws SQLException {
+        try (PreparedStatement consulta = con.prepareStatement(sql) ) {
+            if (hastaDia != null) {
+                consulta.setObject(1, LocalDate.ofEpochDay(hastaDia));
+            }
+            try (ResultSet resultado = consulta.executeQuery() ) {
+                resultado.next();
+                return resultado.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Reserva columnas con la capacidad indicada, copiando las filas que ya
+     * hubiera.
+     */
+    private void reservar(int capacidad, boolean directa) {
+        IntBuffer nuevoNss = reservarEnteros(capacidad, directa);
+        IntBuffer nuevoBastidor = reservarEnteros(capacidad, directa);
+        IntBuffer nuevoKms = reservarEnteros(capacidad, directa);
+        IntBuffer nuevaFecha = reservarEnteros(capacidad, directa);
+        DoubleBuffer nuevoGasto = directa
+                ? ByteBuffer.allocateDirect(capacidad * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer()
+                : DoubleBuffer.allocate(capacidad);
+
+        if (filas > 0) {
+            copiar(nss, nuevoNss);
+            copiar(bastidor, nuevoBastidor);
+            copiar(kms, nuevoKms);
+            copiar(fecha, nuevaFecha);
+            nuevoGasto.put(gasto.duplicate().position(0).limit(filas)).clear();
+        }
+        nss = nuevoNss;
+        bastidor = nuevoBastidor;
+        kms = nuevoKms;
+        fecha = nuevaFecha;
+        gasto = nuevoGasto;
+        fueraDelHeap = directa;
+    }
+
+    private void copiar(IntBuffer origen, IntBuffer destino) {
+        destino.put(origen.duplicate().position(0).limit(filas)).clear();
+    }
+
+    private static IntBuffer reservarEnteros(int capacidad, boolean directa) {
+        return directa
+                ? ByteBuffer.allocateDirect(capacidad * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer()
+                : IntBuffer.allocate(capacidad);
+    }
+
+    private Acumuladores crearAcumuladores(AgregadosTrayecto.Agrupacion agrupacion) {
+        if (filas == 0) {
+            return new Acumuladores(0, 0);
+        }
+        switch (agrupacion) {
+            case CONDUCTOR:
+                return new Acumuladores(minNss, maxNss);
+            case COCHE:
+                return new Acumuladores(minBastidor, maxBastidor);
+            case MES: {
+                LocalDate primera = LocalDate.ofEpochDay(minFecha);
+                LocalDate ultima = LocalDate.ofEpochDay(maxFecha);
+                return new Acumuladores(primera.getYear() * 12 + primera.getMonthValue() - 1, ultima.getYear() * 12 + ultima.getMonthValue() - 1);
+            }
+            case ANIO:
+                return new Acumuladores(LocalDate.ofEpochDay(minFecha).getYear(), LocalDate.ofEpochDay(maxFecha).getYear());
+            default:
+                return new Acumuladores(0, 0);
+        }
+    }
+
+    /**
+     * Cuenta, suma, mínimo y máximo de cada grupo. Si el rango de claves es
+     * pequeño se guardan en arrays indexados por clave - mínimo; si no, cada
+     * clave recibe una posición la primera vez que aparece.
+     */
+    private static class Acumuladores {
+
+        private final int base;
+        private final boolean denso;
+        private final Map<Integer, Integer> posiciones;
+        private long[] cuenta;
+        private double[] suma;
+        private double[] minimo;
+        private double[] maximo;
+        private int usadas = 0;
+
+        private Acumuladores(int minimaClave, int maximaClave) {
+            long rango = (long) maximaClave - minimaClave + 1;
+            base = minimaClave;
+            denso = rango <= MAX_RANGO_DENSO;
+            posiciones = denso ? null : new HashMap<>();
+            int tamano = denso ? (int) rango : 1_024;
+            cuenta = new long[tamano];
+            suma = new double[tamano];
+            minimo = new double[tamano];
+            maximo = new double[tamano];
+        }
+
+        private void anotar(int clave, double valor) {
+            int i = denso ? clave - base : posicion(clave);
+            if (cuenta[i]++ == 0) {
+                minimo[i] = valor;
+                maximo[i] = valor;
+            }
+            else {
+                minimo[i] = Math.min(minimo[i], valor);
+                maximo[i] = Math.max(maximo[i], valor);
+            }
+            suma[i] += valor;
+        }
+
+        private int posicion(int clave) {
+            Integer i = posiciones.get(clave);
+            if (i == null) {
+                if (usadas == cuenta.length) {
+                    int tamano = cuenta.length * 2;
+                    cuenta = Arrays.copyOf(cuenta, tamano);
+                    suma = Arrays.copyOf(suma, tamano);
+                    minimo = Arrays.copyOf(minimo, tamano);
+                    maximo = Arrays.copyOf(maximo, tamano);
+                }
+                i = usadas++;
+                posiciones.put(clave, i);
+            }
+            return i;
+        }
+
+        private List<AgregadosTrayecto.Fila> resultado(AgregadosTrayecto.Funcion funcion, AgregadosTrayecto.Agrupacion agrupacion) {
+            List<AgregadosTrayecto.Fila> filas = new ArrayList<>();
+
+            if (agrupacion == AgregadosTrayecto.Agrupacion.NINGUNA) {
+                filas.add(new AgregadosTrayecto.Fila(null, cuenta[0] > 0 ? valor(funcion, 0) : 0));
+                return filas;
+            }
+
+            Map<Integer, Integer> ordenadas = new TreeMap<>();
+            if (denso) {
+                for (int i = 0; i < cuenta.length; i++) {
+                    if (cuenta[i] > 0) {
+                        ordenadas.put(base + i, i);
+                    }
+                }
+            }
+            else {
+                ordenadas.putAll(posiciones);
+            }
+            for (Map.Entry<Integer, Integer> grupo : ordenadas.entrySet()) {
+                filas.add(new AgregadosTrayecto.Fila(etiqueta(agrupacion, grupo.getKey()), valor(funcion, grupo.getValue())));
+            }
+            return filas;
+        }
+
+        private double valor(AgregadosTrayecto.Funcion funcion, int i) {
+            switch (funcion) {
+                case MEDIA:
+                    return suma[i] / cuenta[i];
+                case CUENTA:
+                    return cuenta[i];
+                case MINIMO:
+                    return minimo[i];
+                case MAXIMO:
+                    return maximo[i];
+                default:
+                    return suma[i];
+            }
+        }
+
+        private static String etiqueta(AgregadosTrayecto.Agrupacion agrupacion, int clave) {
+            if (agrupacion == AgregadosTrayecto.Agrupacion.MES) {
+                return String.format("%04d-%02d", clave / 12, clave % 12 + 1);
+            }
+            return Integer.toString(clave);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package ejemplo;
+
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import org.h2.tools.DeleteDbFiles;
+import utilidades.PoolConexiones;
+
+/**
+ * Pruebas de rendimiento de las operaciones de acceso a datos de la
+ * aplicación: listados de conductores y coches, suma del gasto, búsqueda de
+ * un coche en la caché, cambio de matrícula y alta y baja de un conductor.
+ * Se ejecutan contra una base de datos H2 propia (nunca contra
+ * proyectobase.h2db), que se crea con la misma estructura y se rellena con
+ * GeneradorDatos con el número de filas indicado, y a través del mismo pool
+ * de conexiones que usa la aplicación.
+ *
+ * Cada operación se repite primero unas vueltas de calentamiento y después
+ * las vueltas medidas, de las que se muestran operaciones por segundo, media,
+ * mediana (p50), percentil 99 y máximo.
+ *
+ * Uso: java -cp Vehiculos.jar:h2.jar ejemplo.PruebaRendimiento [--coches N]
+ * [--conductores N] [--trayectos N] [--iteraciones N] [--calentamiento N]
+ * [--memoria]
+ *
+ * @author Jose Cabello
+ */
+public class PruebaRendimiento {
+
+    /**
+     * Nombre del archivo de la base de datos de pruebas (en el directorio
+     * temporal).
+     */
+    private static final String DB_PRUEBAS = "vehiculos-rendimiento";
+    /**
+     * Semilla de los datos generados, fija para que las medidas sean comparables.
+     */
+    private static final long SEMILLA = 1;
+    /**
+     * Filas de cada página en las pruebas de los listados.
+     */
+    private static final int FILAS_PAGINA = 20;
+
+    /**
+     * Operación a medir.
+     */
+    private interface Operacion {
+
+        void ejecutar(Connection con) throws SQLException;
+    }
+
+    /**
+     * Configuración de la prueba, leída de los argumentos.
+     */
+    private static int coches = 1_000;
+    private static int conductores = 1_000;
+    private static int trayectos = 10_000;
+    private static int iteraciones = 2_000;
+    private static int calentamiento = 1_000;
+    private static boolean enMemoria = false;
+
+    /**
+     * Método principal de las pruebas de rendimiento.
+     *
+     * @param args Tamaños y número de vueltas (ver la descripción de la clase).
+     */
+    public static void main(String[] args) {
+        if (!procesarArgumentos(args)) {
+            System.err.println("Uso: PruebaRendimiento [--coches N] [--conductores N] [--trayectos N] "
+                    + "[--iteraciones N] [--calentamiento N] [--memoria]");
+            return;
+        }
+
+        String dir = System.getProperty("java.io.tmpdir");
+        String url = enMemoria
+                ? "jdbc:h2:mem:" + DB_PRUEBAS + ";DB_CLOSE_DELAY=-1;MODE=MySQL"
+                : "jdbc:h2:" + Paths.get(dir, DB_PRUEBAS).toAbsolutePath() + ";MODE=MySQL";
+        if (!enMemoria) {
+            DeleteDbFiles.execute(dir, DB_PRUEBAS, true);
+        }
+
+        try (PoolConexiones pool = new PoolConexiones(url, "", "", 1, 1, 60_000, 5_000, 0, 64)) {
+
+            try (Connection con = pool.obtenerConexion()) {
+                if (!Aplicacion.crearTablas(con) ) {
+                    return;
+                }
+                long inicio = System.nanoTime();
+                GeneradorDatos.generar(con, SEMILLA, coches, conductores, trayectos, false);
+                System.out.printf("Base de datos de pruebas: %d coches, %d conductores, %d trayectos (%.1f s)\n",
+                        coches, conductores, trayectos, (System.nanoTime() - inicio) / 1e9);
+            }
+
+            System.out.printf("%-36s %12s %10s %10s %10s %10s\n", "Operación", "ops/s", "media µs", "p50 µs", "p99 µs", "máx µs");
+
+            medir(pool, "Listado conductores (1ª página)", con -> leerPagina(con, Aplicacion.SQL_PAGINA_CONDUCTORES, Integer.MIN_VALUE));
+            medir(pool, "Listado conductores (página central)", con -> leerPagina(con, Aplicacion.SQL_PAGINA_CONDUCTORES, conductores / 2));
+            medir(pool, "Listado coches (1ª página)", con -> leerPagina(con, Aplicacion.SQL_PAGINA_COCHES, Integer.MIN_VALUE));
+            medir(pool, "Listado coches (página central)", con -> leerPagina(con, Aplicacion.SQL_PAGINA_COCHES, coches / 2));
+            medir(pool, "Suma de GASTOREPOSTAJE", con -> AgregadosTrayecto.agregarTotal(con, AgregadosTrayecto.Funcion.SUMA, AgregadosTrayecto.Medida.GASTO));
+
+            int[] consultado = {0};
+            medir(pool, "Buscar coche por bastidor (caché)", con -> CacheEntidades.buscarCoche(con, 1 + consultado[0]++ % Math.min(coches, 100) ));
+
+            // Se alterna entre dos matrículas que no usa ningún coche.
+            String[] libres;
+            try (Connection con = pool.obtenerConexion()) {
+                libres = matriculasLibres(con, 2);
+            }
+            int[] vuelta = {0};
+            medir(pool, "Modificar matrícula", con -> {
+                try (PreparedStatement consulta = con.prepareStatement(Aplicacion.SQL_MODIFICAR_MATRICULA) ){
+                    consulta.setString(1, libres[vuelta[0]++ & 1]);
+                    consulta.setInt(2, 1);
+                    consulta.executeUpdate();
+                }
+            });
+
+            medir(pool, "Nuevo conductor + borrar conductor", con -> {
+                try (PreparedStatement alta = con.prepareStatement(Aplicacion.SQL_NUEVO_CONDUCTOR);
+                        PreparedStatement baja = con.prepareStatement(Aplicacion.SQL_BORRAR_CONDUCTOR) ){
+                    alta.setInt(1, -1);
+                    alta.setString(2, "Prueba");
+                    alta.setString(3, "Rendimiento");
+                    alta.executeUpdate();
+                    baja.setInt(1, -1);
+                    baja.executeUpdate();
+                }
+            });
+
+            System.out.printf("Caché de coches: %d aciertos, %d fallos\n",
+                    CacheEntidades.getCoches().getAciertos(), CacheEntidades.getCoches().getFallos());
+        }
+        catch (SQLException ex) {
+            System.err.printf("Error en las pruebas de rendimiento: %s\n", ex.getMessage());
+        }
+    }
+
+    /**
+     * Busca matrículas válidas que no tenga ningún coche, en el mismo orden
+     * en que las reparte GeneradorDatos.
+     *
+     * @param con Conexión a la BD de pruebas.
+     * @param n Número de matrículas.
+     * @return Matrículas libres.
+     * @throws SQLException Si falla la consulta.
+     */
+    private static String[] matriculasLibres(Connection con, int n) throws SQLException {
+        String[] libres = new String[n];
+        try (PreparedStatement consulta = con.prepareStatement("SELECT 1 FROM COCHE WHERE MATRICULA = ?") ) {
+            int encontradas = 0;
+            for (long i = 0; encontradas < n; i++) {
+                consulta.setString(1, GeneradorDatos.matricula(i));
+                try (ResultSet resultados = consulta.executeQuery() ) {
+                    if (!resultados.next() ) {
+                        libres[encontradas++] = GeneradorDatos.matricula(i);
+                    }
+                }
+            }
+        }
+        return libres;
+    }
+
+    /**
+     * Ejecuta una operación las vueltas de calentamiento y las medidas, y
+     * muestra los resultados.
+     */
+    private static void medir(PoolConexiones pool, String nombre, Operacion operacion) throws SQLException {
+        long[] tiempos = new long[iteraciones];
+
+        try (Connection con = pool.obtenerConexion()) {
+            for (int i = 0; i < calentamiento; i++) {
+                operacion.ejecutar(con);
+            }
+            for (int i = 0; i < iteraciones; i++) {
+                long inicio = System.nanoTime();
+                operacion.ejecutar(con);
+                tiempos[i] = System.nanoTime() - inicio;
+            }
+        }
+
+        Arrays.sort(tiempos);
+        long total = 0;
+        for (long t : tiempos) {
+            total += t;
+        }
+        double media = (double) total / iteraciones;
+        System.out.printf("%-36s %12.0f %10.1f %10.1f %10.1f %10.1f\n", nombre, 1e9 / media, media / 1e3,
+                percentil(tiempos, 50) / 1e3, percentil(tiempos, 99) / 1e3, tiempos[iteraciones - 1] / 1e3);
+    }
+
+    private static long percentil(long[] ordenados, int p) {
+        int posicion = (int) Math.ceil(p / 100.0 * ordenados.length) - 1;
+        return ordenados[Math.max(0, posicion)];
+    }
+
+    /**
+     * Lee (sin mostrar) una página de un listado, igual que lo hace la
+     * aplicación.
+     */
+    private static void leerPagina(Connection con, String sql, int desde) throws SQLException {
+        try (PreparedStatement consulta = con.prepareStatement(sql) ){
+            consulta.setInt(1, desde);
+            consulta.setInt(2, FILAS_PAGINA);
+            try (ResultSet resultados = consulta.executeQuery() ) {
+                while (resultados.next() ) {
+                    resultados.getInt(1);
+                    resultados.getString(2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lee los argumentos de la línea de comandos.
+     *
+     * @return false si hay algún argumento no válido.
+     */
+    private static boolean procesarArgumentos(String[] args) {
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--coches":
+                        coches = Integer.parseInt(args[++i]);
+                        break;
+                    case "--conductores":
+                        conductores = Integer.parseInt(args[++i]);
+                        break;
+                    case "--trayectos":
+                        trayectos = Integer.parseInt(args[++i]);
+                        break;
+                    case "--iteraciones":
+                        iteraciones = Integer.parseInt(args[++i]);
+                        break;
+                    case "--calentamiento":
+                        calentamiento = Integer.parseInt(args[++i]);
+                        break;
+                    case "--memoria":
+                        enMemoria = true;
+                        break;
+                    default:
+                        return false;
+                }
+            }
+        }
+        catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return false;
+        }
+        return coches > 0 && conductores > 0 && trayectos >= 0 && iteraciones > 0 && calentamiento >= 0;
+    }
+}
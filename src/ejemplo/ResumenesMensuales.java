@@ -0,0 +1,692 @@
+package ejemplo;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.h2.api.Trigger;
+import org.h2.engine.SessionInterface;
+import org.h2.jdbc.JdbcConnection;
+
+/**
+ * Resúmenes mensuales de los trayectos: número de trayectos, kilómetros y
+ * gasto de cada coche (RESUMEN_MES_COCHE) y de cada conductor
+ * (RESUMEN_MES_CONDUCTOR) en cada mes. Las consultas por periodos leen unos
+ * cientos de filas de resumen en lugar de recorrer años de trayectos.
+ *
+ * Los resúmenes se mantienen con un trigger de H2 sobre TRAYECTO
+ * (Disparador), que suma cada alta, resta cada baja y, en los cambios, resta
+ * la fila antigua y suma la nueva. Así se tienen en cuenta también los
+ * borrados y cambios de clave en cascada desde CONDUCTOR o COCHE, las
+ * importaciones y los procesos que comparten la base de datos, siempre en la
+ * misma transacción que el cambio del trayecto. Cualquier programa que
+ * escriba en TRAYECTO necesita por tanto esta clase en su classpath.
+ *
+ * Cada cambio se aplica con un único MERGE por resumen, preparado una vez por
+ * sesión. En las cargas y borrados masivos ni eso compensa: mientras haya una
+ * Acumulacion abierta (acumular() o suspender()), los cambios de su sesión se
+ * suman en memoria por mes y clave y se escriben en lotes con aplicar(), que
+ * debe llamarse antes de cada commit.
+ *
+ * Si los resúmenes se desajustan (por ejemplo, porque se ha escrito en la base
+ * de datos con otra herramienta sin el trigger), comprobar() lo detecta y
+ * reconstruir() los vuelve a calcular a partir de TRAYECTO.
+ *
+ * @author Jose Cabello
+ */
+public class ResumenesMensuales {
+
+    /**
+     * Diferencia de gasto a partir de la cual un resumen no cuadra (las sumas
+     * de DOUBLE no dan exactamente lo mismo en distinto orden).
+     */
+    private static final double TOLERANCIA_GASTO = 0.005;
+    /**
+     * Primer día del mes de FECHA.
+     */
+    private static final String MES_TRAYECTO = "CAST(DATEADD(DAY, 1 - DAY_OF_MONTH(FECHA), FECHA) AS DATE)";
+    /**
+     * Filas de resumen que se acumulan en memoria como mucho antes de
+     * escribirlas.
+     */
+    private static final int MAX_ACUMULADAS = 20_000;
+    /**
+     * Filas de resumen que se escriben como mucho con cada sentencia al
+     * aplicar lo acumulado.
+     */
+    private static final int TAMANO_LOTE = 10_000;
+
+    /**
+     * Acumulación abierta en cada hilo.
+     */
+    private static final ThreadLocal<Acumulacion> acumulaciones = new ThreadLocal<>();
+
+    /**
+     * Tablas de resumen, con la clave de TRAYECTO por la que resumen.
+     */
+    public enum Resumen {
+        COCHE("RESUMEN_MES_COCHE", "N_BASTIDOR", 1, "Coche"),
+        CONDUCTOR("RESUMEN_MES_CONDUCTOR", "NSS", 0, "Conductor");
+
+        private final String tabla;
+        private final String clave;
+        /**
+         * Posición de la clave en las filas que recibe el trigger.
+         */
+        private final int columnaTrayecto;
+        private final String descripcion;
+        /**
+         * Suma a una fila de resumen trayectos, kilómetros y gasto (en
+         * negativo para restar): la crea si no existe y la borra si se queda
+         * sin trayectos.
+         */
+        private final String sqlSumar;
+        /**
+         * Lo mismo para varias filas a la vez, con un array por parámetro.
+         */
+        private final String sqlSumarLote;
+
+        Resumen(String tabla, String clave, int columnaTrayecto, String descripcion) {
+            this.tabla = tabla;
+            this.clave = clave;
+            this.columnaTrayecto = columnaTrayecto;
+            this.descripcion = descripcion;
+            this.sqlSumar = construirSqlSumar("SELECT CAST(? AS DATE) AS MES, CAST(? AS INTEGER) AS CLAVE, "
+                    + "CAST(? AS BIGINT) AS TRAYECTOS, CAST(? AS BIGINT) AS KMS, CAST(? AS DOUBLE) AS GASTO");
+            this.sqlSumarLote = construirSqlSumar("SELECT * FROM TABLE(MES DATE = ?, CLAVE INTEGER = ?, "
+                    + "TRAYECTOS BIGINT = ?, KMS BIGINT = ?, GASTO DOUBLE = ?)");
+        }
+
+        private String construirSqlSumar(String origen) {
+            return "MERGE INTO " + tabla + " R USING (" + origen + ") D "
+                    + "ON (R.MES = D.MES AND R." + clave + " = D.CLAVE) "
+                    + "WHEN MATCHED AND R.TRAYECTOS + D.TRAYECTOS = 0 THEN DELETE "
+                    + "WHEN MATCHED THEN UPDATE SET TRAYECTOS = R.TRAYECTOS + D.TRAYECTOS, KMS = R.KMS + D.KMS, GASTO = R.GASTO + D.GASTO "
+                    + "WHEN NOT MATCHED AND D.TRAYECTOS <> 0 THEN INSERT (MES, " + clave + ", TRAYECTOS, KMS, GASTO) "
+                    + "VALUES (D.MES, D.CLAVE, D.TRAYECTOS, D.KMS, D.GASTO)";
+        }
+
+        public String getDescripcion() {
+            return descripcion;
+        }
+    }
+
+    /**
+     * Totales de un grupo (mes, coche o conductor) en un periodo.
+     */
+    public static class Fila {
+
+        private final String grupo;
+        private final long trayectos;
+        private final long kms;
+        private final double gasto;
+
+        private Fila(String grupo, long trayectos, long kms, double gasto) {
+            this.grupo = grupo;
+            this.trayectos = trayectos;
+            this.kms = kms;
+            this.gasto = gasto;
+        }
+
+        /**
+         * @return Mes (AAAA-MM), NSS o número de bastidor.
+         */
+        public String getGrupo() {
+            return grupo;
+        }
+
+        public long getTrayectos() {
+            return trayectos;
+        }
+
+        public long getKms() {
+            return kms;
+        }
+
+        public double getGasto() {
+            return gasto;
+        }
+    }
+
+    /**
+     * Fila de resumen que no cuadra con los trayectos.
+     */
+    public static class Diferencia {
+
+        private final Resumen resumen;
+        private final String mes;
+        private final int clave;
+        private final long trayectos;
+        private final long trayectosResumen;
+        private final long kms;
+        private final long kmsResumen;
+        private final double gasto;
+        private final double gastoResumen;
+
+        private Diferencia(Resumen resumen, ResultSet fila) throws SQLException {
+            this.resumen = resumen;
+            this.mes = YearMonth.from(fila.getDate(1).toLocalDate()).toString();
+            this.clave = fila.getInt(2);
+            this.trayectos = fila.getLong(3);
+            this.kms = fila.getLong(4);
+            this.gasto = fila.getDouble(5);
+            this.trayectosResumen = fila.getLong(6);
+            this.kmsResumen = fila.getLong(7);
+            this.gastoResumen = fila.getDouble(8);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s %d: trayectos %d/%d, kms %d/%d, gasto %.2f/%.2f (trayectos/resumen)",
+                    resumen.tabla, mes, clave, trayectos, trayectosResumen, kms, kmsResumen, gasto, gastoResumen);
+        }
+    }
+
+    /**
+     * Trigger de TRAYECTO que mantiene los resúmenes. Lo crea el script de
+     * estructura de la base de datos.
+     *
+     * H2 pasa a fire() una conexión nueva en cada llamada, pero siempre de la
+     * sesión que hace el cambio, así que los MERGE se preparan una vez por
+     * sesión: en init() los de la sesión que carga el trigger y en la primera
+     * fila los de cada una de las demás.
+     */
+    public static class Disparador implements Trigger {
+
+        private final Map<SessionInterface, PreparedStatement[]> sentencias = new ConcurrentHashMap<>();
+
+        @Override
+        public void init(Connection con, String esquema, String trigger, String tabla, boolean antes, int tipo) throws SQLException {
+            preparadas(con, sesion(con));
+        }
+
+        @Override
+        public void fire(Connection con, Object[] antigua, Object[] nueva) throws SQLException {
+            if (antigua != null && nueva != null && mismoResumen(antigua, nueva)) {
+                return;
+            }
+            SessionInterface sesion = sesion(con);
+            Acumulacion acumulacion = acumulaciones.get();
+            if (acumulacion != null && acumulacion.sesion == sesion) {
+                if (acumulacion.capturar) {
+                    acumulacion.anotar(con, antigua, nueva);
+                }
+                return;
+            }
+
+            PreparedStatement[] sumas = preparadas(con, sesion);
+            for (Resumen resumen : Resumen.values()) {
+                PreparedStatement suma = sumas[resumen.ordinal()];
+                cambiar(resumen, antigua, nueva, (mes, clave, trayectos, kms, gasto) -> {
+                    asignar(suma, mes, clave, trayectos, kms, gasto);
+                    try {
+                        suma.executeUpdate();
+                    }
+                    catch (SQLException ex) {
+                        // Otra sesión acaba de crear la fila: ahora el MERGE suma sobre ella.
+                        if (!"23505".equals(ex.getSQLState())) {
+                            throw ex;
+                        }
+                        suma.executeUpdate();
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void close() {
+            for (PreparedStatement[] sumas : sentencias.values()) {
+                for (PreparedStatement suma : sumas) {
+                    try {
+                        suma.close();
+                    }
+                    catch (SQLException ex) {
+                        // La sesión ya no las va a usar.
+                    }
+                }
+            }
+            sentencias.clear();
+        }
+
+        @Override
+        public void remove() {
+            close();
+        }
+
+        /**
+         * @return Los MERGE de la sesión, preparándolos la primera vez.
+         */
+        private PreparedStatement[] preparadas(Connection con, SessionInterface sesion) throws SQLException {
+            PreparedStatement[] sumas = sentencias.get(sesion);
+            if (sumas == null) {
+                // Las sentencias de las sesiones cerradas ya están cerradas.
+                sentencias.keySet().removeIf(SessionInterface::isClosed);
+                sumas = new PreparedStatement[Resumen.values().length];
+                for (Resumen resumen : Resumen.values()) {
+                    sumas[resumen.ordinal()] = con.prepareStatement(resumen.sqlSumar);
+                }
+                sentencias.put(sesion, sumas);
+            }
+            return sumas;
+        }
+
+        /**
+         * @return true si el cambio no afecta a ningún resumen.
+         */
+        private static boolean mismoResumen(Object[] antigua, Object[] nueva) {
+            return antigua[0].equals(nueva[0]) && antigua[1].equals(nueva[1]) && antigua[2].equals(nueva[2])
+                    && mes(antigua).equals(mes(nueva)) && antigua[4].equals(nueva[4]);
+        }
+    }
+
+    /**
+     * Cambios de los resúmenes acumulados en memoria durante una carga o un
+     * borrado masivo, por mes y clave. Se abre con acumular() o suspender() y
+     * sólo afecta a la sesión de la conexión indicada y al hilo que la abre
+     * (el trigger se ejecuta en el hilo que hace el cambio si la base de
+     * datos está embebida; si no, sigue escribiendo fila a fila).
+     *
+     * Lo acumulado se escribe con aplicar(), que debe llamarse antes de cada
+     * commit; si se acumulan muchas filas se escriben antes por su cuenta, en
+     * la misma transacción. Al cerrarla se descarta lo que no se haya
+     * aplicado, como tras un rollback.
+     */
+    public static class Acumulacion implements AutoCloseable {
+
+        private final Connection con;
+        private final SessionInterface sesion;
+        private final boolean capturar;
+        private final Map<Resumen, Map<Long, Suma>> sumas = new EnumMap<>(Resumen.class);
+        private int filas = 0;
+
+        private Acumulacion(Connection con, boolean capturar) throws SQLException {
+            this.con = con;
+            this.sesion = sesion(con);
+            this.capturar = capturar;
+            for (Resumen resumen : Resumen.values()) {
+                sumas.put(resumen, new HashMap<>());
+            }
+        }
+
+        /**
+         * Suma un trayecto insertado (para usar con suspender()).
+         *
+         * @param trayecto Valores de las columnas NSS, N_BASTIDOR, KMS, FECHA
+         * y GASTOREPOSTAJE.
+         * @throws SQLException Si falla la escritura de lo acumulado.
+         */
+        public void sumar(Object[] trayecto) throws SQLException {
+            anotar(con, null, trayecto);
+        }
+
+        /**
+         * Escribe en los resúmenes lo acumulado hasta ahora, dentro de la
+         * transacción en curso.
+         *
+         * @throws SQLException Si falla alguna sentencia. La transacción debe
+         * deshacerse.
+         */
+        public void aplicar() throws SQLException {
+            aplicar(con);
+        }
+
+        /**
+         * Deja de acumular y descarta lo que no se haya aplicado.
+         */
+        @Override
+        public void close() {
+            if (acumulaciones.get() == this) {
+                acumulaciones.remove();
+            }
+            for (Map<Long, Suma> porClave : sumas.values()) {
+                porClave.clear();
+            }
+            filas = 0;
+        }
+
+        private void anotar(Connection conexion, Object[] antigua, Object[] nueva) throws SQLException {
+            for (Resumen resumen : Resumen.values()) {
+                Map<Long, Suma> porClave = sumas.get(resumen);
+                cambiar(resumen, antigua, nueva, (mes, clave, trayectos, kms, gasto) -> {
+                    Suma suma = porClave.computeIfAbsent(mes.toEpochDay() << 32 | (clave & 0xFFFF_FFFFL), k -> {
+                        filas++;
+                        return new Suma(mes, clave);
+                    });
+                    suma.trayectos += trayectos;
+                    suma.kms += kms;
+                    suma.gasto += gasto;
+                });
+            }
+            if (filas >= MAX_ACUMULADAS) {
+                aplicar(conexion);
+            }
+        }
+
+        private void aplicar(Connection conexion) throws SQLException {
+            for (Resumen resumen : Resumen.values()) {
+                Map<Long, Suma> porClave = sumas.get(resumen);
+                if (porClave.isEmpty()) {
+                    continue;
+                }
+                List<Suma> filasResumen = new ArrayList<>(porClave.values());
+                porClave.clear();
+                try (PreparedStatement suma = conexion.prepareStatement(resumen.sqlSumarLote) ) {
+                    for (int desde = 0; desde < filasResumen.size(); desde += TAMANO_LOTE) {
+                        int n = Math.min(TAMANO_LOTE, filasResumen.size() - desde);
+                        Object[] meses = new Object[n];
+                        Object[] claves = new Object[n];
+                        Object[] trayectos = new Object[n];
+                        Object[] kms = new Object[n];
+                        Object[] gastos = new Object[n];
+                        for (int i = 0; i < n; i++) {
+                            Suma fila = filasResumen.get(desde + i);
+                            meses[i] = Date.valueOf(fila.mes);
+                            claves[i] = fila.clave;
+                            trayectos[i] = fila.trayectos;
+                            kms[i] = fila.kms;
+                            gastos[i] = fila.gasto;
+                        }
+                        suma.setObject(1, meses);
+                        suma.setObject(2, claves);
+                        suma.setObject(3, trayectos);
+                        suma.setObject(4, kms);
+                        suma.setObject(5, gastos);
+                        suma.executeUpdate();
+                    }
+                }
+            }
+            filas = 0;
+        }
+    }
+
+    /**
+     * Lo que hay que sumar a una fila de resumen.
+     */
+    private static class Suma {
+
+        private final LocalDate mes;
+        private final int clave;
+        private long trayectos = 0;
+        private long kms = 0;
+        private double gasto = 0;
+
+        private Suma(LocalDate mes, int clave) {
+            this.mes = mes;
+            this.clave = clave;
+        }
+    }
+
+    /**
+     * Destino de las sumas de un cambio de trayecto.
+     */
+    private interface Sumador {
+
+        void sumar(LocalDate mes, int clave, long trayectos, long kms, double gasto) throws SQLException;
+    }
+
+    /**
+     * Empieza una carga o un borrado masivo en el que el trigger, en vez de
+     * escribir en los resúmenes fila a fila, acumula los cambios en memoria.
+     * Sólo sirve si cualquier error deshace la transacción entera (el
+     * trigger se dispara antes de comprobar las claves ajenas, así que una
+     * fila rechazada ya estaría acumulada).
+     *
+     * @param con Conexión con la que se hace la carga.
+     * @return Acumulación, que debe cerrarse al terminar.
+     * @throws SQLException Si falla la conexión.
+     */
+    public static Acumulacion acumular(Connection con) throws SQLException {
+        return abrir(con, true);
+    }
+
+    /**
+     * Empieza una carga en la que el trigger no hace nada y quien carga suma
+     * con Acumulacion.sumar() los trayectos que la base de datos acepta.
+     *
+     * @param con Conexión con la que se hace la carga.
+     * @return Acumulación, que debe cerrarse al terminar.
+     * @throws SQLException Si falla la conexión.
+     */
+    public static Acumulacion suspender(Connection con) throws SQLException {
+        return abrir(con, false);
+    }
+
+    private static Acumulacion abrir(Connection con, boolean capturar) throws SQLException {
+        if (acumulaciones.get() != null) {
+            throw new IllegalStateException("Ya hay una acumulación de resúmenes abierta en este hilo.");
+        }
+        Acumulacion acumulacion = new Acumulacion(con, capturar);
+        acumulaciones.set(acumulacion);
+        return acumulacion;
+    }
+
+    /**
+     * Pasa a un destino lo que cambia un resumen por el cambio de un
+     * trayecto: resta la fila antigua y suma la nueva o, si las dos caen en la
+     * misma fila de resumen, suma sólo la diferencia.
+     */
+    private static void cambiar(Resumen resumen, Object[] antigua, Object[] nueva, Sumador destino) throws SQLException {
+        if (antigua != null && nueva != null && mes(antigua).equals(mes(nueva))
+                && clave(resumen, antigua) == clave(resumen, nueva)) {
+            long kms = kms(nueva) - kms(antigua);
+            double gasto = gasto(nueva) - gasto(antigua);
+            if (kms != 0 || gasto != 0) {
+                destino.sumar(mes(nueva), clave(resumen, nueva), 0, kms, gasto);
+            }
+            return;
+        }
+        if (antigua != null) {
+            destino.sumar(mes(antigua), clave(resumen, antigua), -1, -kms(antigua), -gasto(antigua));
+        }
+        if (nueva != null) {
+            destino.sumar(mes(nueva), clave(resumen, nueva), 1, kms(nueva), gasto(nueva));
+        }
+    }
+
+    private static void asignar(PreparedStatement suma, LocalDate mes, int clave, long trayectos, long kms, double gasto)
+            throws SQLException {
+        suma.setDate(1, Date.valueOf(mes));
+        suma.setInt(2, clave);
+        suma.setLong(3, trayectos);
+        suma.setLong(4, kms);
+        suma.setDouble(5, gasto);
+    }
+
+    /**
+     * @return Sesión de H2 de una conexión (directa o del pool).
+     */
+    private static SessionInterface sesion(Connection con) throws SQLException {
+        return con.unwrap(JdbcConnection.class).getSession();
+    }
+
+    /**
+     * @return Primer día del mes del trayecto.
+     */
+    private static LocalDate mes(Object[] trayecto) {
+        Object fecha = trayecto[3];
+        LocalDate dia = fecha instanceof LocalDate ? (LocalDate) fecha : ((Date) fecha).toLocalDate();
+        return dia.withDayOfMonth(1);
+    }
+
+    private static int clave(Resumen resumen, Object[] trayecto) {
+        return ((Number) trayecto[resumen.columnaTrayecto]).intValue();
+    }
+
+    private static long kms(Object[] trayecto) {
+        return ((Number) trayecto[2]).longValue();
+    }
+
+    private static double gasto(Object[] trayecto) {
+        return ((Number) trayecto[4]).doubleValue();
+    }
+
+    /**
+     * Totales de un periodo leídos de los resúmenes.
+     *
+     * @param con Conexión a la BD
+     * @param resumen Resumen por coche o por conductor.
+     * @param porMes true para un total por mes y false para uno por coche o
+     * conductor.
+     * @param desde Primer mes del periodo.
+     * @param hasta Último mes del periodo.
+     * @return Filas ordenadas por grupo.
+     * @throws SQLException Si falla la consulta.
+     */
+    public static List<Fila> consultarPeriodo(Connection con, Resumen resumen, boolean porMes, YearMonth desde, YearMonth hasta) throws SQLException {
+        String grupo = porMes ? "FORMATDATETIME(MES, 'yyyy-MM')" : resumen.clave;
+        String sql = "SELECT " + grupo + " AS GRUPO, SUM(TRAYECTOS), SUM(KMS), SUM(GASTO) FROM " + resumen.tabla
+                + " WHERE MES BETWEEN ? AND ? GROUP BY GRUPO ORDER BY " + (porMes ? "GRUPO" : resumen.clave);
+        List<Fila> filas = new ArrayList<>();
+
+        try (PreparedStatement consulta = con.prepareStatement(sql) ) {
+            consulta.setDate(1, Date.valueOf(desde.atDay(1)));
+            consulta.setDate(2, Date.valueOf(hasta.atDay(1)));
+            try (ResultSet resultados = consulta.executeQuery() ) {
+                while (resultados.next() ) {
+                    filas.add(new Fila(resultados.getString(1), resultados.getLong(2), resultados.getLong(3), resultados.getDouble(4)));
+                }
+            }
+        }
+        return filas;
+    }
+
+    /**
+     * @param funcion Función de agregación.
+     * @return true si la función puede calcularse con los resúmenes (suma,
+     * media y número de trayectos; el mínimo y el máximo no).
+     */
+    static boolean admite(AgregadosTrayecto.Funcion funcion) {
+        return funcion == AgregadosTrayecto.Funcion.SUMA || funcion == AgregadosTrayecto.Funcion.MEDIA
+                || funcion == AgregadosTrayecto.Funcion.CUENTA;
+    }
+
+    /**
+     * Construye la consulta de una agregación de los trayectos sobre los
+     * resúmenes, con las mismas columnas y orden que
+     * AgregadosTrayecto.construirSql.
+     *
+     * @param funcion Función de agregación (una de las que admite()).
+     * @param medida Columna a agregar.
+     * @param agrupacion Criterio de agrupación.
+     * @return Sentencia SELECT, ordenada por grupo.
+     */
+    static String construirSql(AgregadosTrayecto.Funcion funcion, AgregadosTrayecto.Medida medida, AgregadosTrayecto.Agrupacion agrupacion) {
+        // Por coche se usa el resumen de coches; en los demás casos cualquiera de los dos suma todos los trayectos.
+        Resumen resumen = agrupacion == AgregadosTrayecto.Agrupacion.COCHE ? Resumen.COCHE : Resumen.CONDUCTOR;
+        String columna = medida == AgregadosTrayecto.Medida.KMS ? "KMS" : "GASTO";
+        String agregado;
+        switch (funcion) {
+            case CUENTA:
+                agregado = "SUM(TRAYECTOS)";
+                break;
+            case MEDIA:
+                agregado = "CAST(SUM(" + columna + ") AS DOUBLE) / SUM(TRAYECTOS)";
+                break;
+            default:
+                agregado = "SUM(" + columna + ")";
+                break;
+        }
+
+        String grupo;
+        switch (agrupacion) {
+            case CONDUCTOR:
+                grupo = "NSS";
+                break;
+            case COCHE:
+                grupo = "N_BASTIDOR";
+                break;
+            case MES:
+                grupo = "FORMATDATETIME(MES, 'yyyy-MM')";
+                break;
+            case ANIO:
+                grupo = "YEAR(MES)";
+                break;
+            default:
+                return "SELECT " + agregado + " AS VALOR FROM " + resumen.tabla;
+        }
+        return "SELECT " + grupo + " AS GRUPO, " + agregado + " AS VALOR FROM " + resumen.tabla + " GROUP BY GRUPO ORDER BY GRUPO";
+    }
+
+    /**
+     * @param resumen Resumen por coche o por conductor.
+     * @return Consulta de todas las filas del resumen, ordenadas por mes y
+     * clave.
+     */
+    static String construirSqlListado(Resumen resumen) {
+        return "SELECT MES, " + resumen.clave + ", TRAYECTOS, KMS, GASTO FROM " + resumen.tabla + " ORDER BY MES, " + resumen.clave;
+    }
+
+    /**
+     * Vuelve a calcular los dos resúmenes a partir de TRAYECTO, en una sola
+     * transacción.
+     *
+     * @param con Conexión a la BD
+     * @return Filas de resumen escritas.
+     * @throws SQLException Si falla alguna sentencia. En ese caso los
+     * resúmenes quedan como estaban.
+     */
+    public static long reconstruir(Connection con) throws SQLException {
+        boolean autoCommit = con.getAutoCommit();
+        long filas = 0;
+
+        con.setAutoCommit(false);
+        try (Statement sentencia = con.createStatement() ) {
+            for (Resumen resumen : Resumen.values()) {
+                sentencia.executeUpdate("DELETE FROM " + resumen.tabla);
+                filas += sentencia.executeUpdate("INSERT INTO " + resumen.tabla + " (MES, " + resumen.clave + ", TRAYECTOS, KMS, GASTO) "
+                        + "SELECT " + MES_TRAYECTO + " AS MES, " + resumen.clave + ", COUNT(*), SUM(KMS), SUM(GASTOREPOSTAJE) "
+                        + "FROM TRAYECTO GROUP BY MES, " + resumen.clave);
+            }
+            con.commit();
+        }
+        catch (SQLException ex) {
+            con.rollback();
+            throw ex;
+        }
+        finally {
+            con.setAutoCommit(autoCommit);
+        }
+        return filas;
+    }
+
+    /**
+     * Compara los resúmenes con lo que sale de agregar TRAYECTO.
+     *
+     * @param con Conexión a la BD
+     * @return Filas de resumen que faltan, sobran o no cuadran. Vacía si todo
+     * está bien.
+     * @throws SQLException Si falla la consulta.
+     */
+    public static List<Diferencia> comprobar(Connection con) throws SQLException {
+        List<Diferencia> diferencias = new ArrayList<>();
+
+        for (Resumen resumen : Resumen.values()) {
+            String sql = "SELECT MES, CLAVE, SUM(T1), SUM(K1), SUM(G1), SUM(T2), SUM(K2), SUM(G2) FROM ("
+                    + "SELECT " + MES_TRAYECTO + " AS MES, " + resumen.clave + " AS CLAVE, COUNT(*) AS T1, SUM(KMS) AS K1, "
+                    + "SUM(GASTOREPOSTAJE) AS G1, 0 AS T2, 0 AS K2, 0.0 AS G2 FROM TRAYECTO GROUP BY MES, CLAVE "
+                    + "UNION ALL "
+                    + "SELECT MES, " + resumen.clave + ", 0, 0, 0.0, TRAYECTOS, KMS, GASTO FROM " + resumen.tabla
+                    + ") GROUP BY MES, CLAVE "
+                    + "HAVING SUM(T1) <> SUM(T2) OR SUM(K1) <> SUM(K2) OR ABS(SUM(G1) - SUM(G2)) > " + TOLERANCIA_GASTO
+                    + " ORDER BY MES, CLAVE";
+
+            try (Statement consulta = con.createStatement();
+                    ResultSet resultados = consulta.executeQuery(sql) ) {
+                while (resultados.next() ) {
+                    diferencias.add(new Diferencia(resumen, resultados));
+                }
+            }
+        }
+        return diferencias;
+    }
+}
@@ -22,5 +22,41 @@ CREATE TABLE IF NOT EXISTS TRAYECTO (
     FOREIGN KEY (NSS)        REFERENCES CONDUCTOR (NSS)        ON UPDATE CASCADE ON DELETE CASCADE  ,
     FOREIGN KEY (N_BASTIDOR) REFERENCES COCHE     (N_BASTIDOR) ON UPDATE CASCADE ON DELETE CASCADE) ;
 
+--LA CLAVE PRIMARIA DE TRAYECTO YA INDEXA FECHA; ESTOS INDICES SIRVEN PARA LAS CONSULTAS POR CONDUCTOR O COCHE ENTRE FECHAS
 
+CREATE INDEX IF NOT EXISTS IDX_TRAYECTO_NSS_FECHA        ON TRAYECTO (NSS, FECHA)        ;
+CREATE INDEX IF NOT EXISTS IDX_TRAYECTO_N_BASTIDOR_FECHA ON TRAYECTO (N_BASTIDOR, FECHA) ;
 
+--NO PUEDE HABER DOS COCHES CON LA MISMA MATRICULA; EL INDICE SIRVE TAMBIEN PARA BUSCAR POR MATRICULA
+
+CREATE UNIQUE INDEX IF NOT EXISTS IDX_COCHE_MATRICULA ON COCHE (MATRICULA) ;
+
+--RESUMENES MENSUALES DE LOS TRAYECTOS (MES = PRIMER DIA DEL MES). LOS MANTIENE EL TRIGGER DE TRAYECTO CON CADA ALTA, BAJA O CAMBIO,
+--TAMBIEN LOS DE LAS CASCADAS; LA PRIMERA VEZ SE RELLENAN CON LOS TRAYECTOS QUE YA HUBIERA
+
+CREATE TABLE IF NOT EXISTS RESUMEN_MES_COCHE (
+    MES        DATE    NOT NULL ,
+    N_BASTIDOR INTEGER NOT NULL ,
+    TRAYECTOS  BIGINT  NOT NULL ,
+    KMS        BIGINT  NOT NULL ,
+    GASTO      DOUBLE  NOT NULL ,
+    PRIMARY KEY (MES, N_BASTIDOR)) ;
+
+CREATE TABLE IF NOT EXISTS RESUMEN_MES_CONDUCTOR (
+    MES        DATE    NOT NULL ,
+    NSS        INTEGER NOT NULL ,
+    TRAYECTOS  BIGINT  NOT NULL ,
+    KMS        BIGINT  NOT NULL ,
+    GASTO      DOUBLE  NOT NULL ,
+    PRIMARY KEY (MES, NSS)) ;
+
+INSERT INTO RESUMEN_MES_COCHE (MES, N_BASTIDOR, TRAYECTOS, KMS, GASTO)
+    SELECT CAST(DATEADD(DAY, 1 - DAY_OF_MONTH(FECHA), FECHA) AS DATE) AS MES, N_BASTIDOR, COUNT(*), SUM(KMS), SUM(GASTOREPOSTAJE)
+    FROM TRAYECTO WHERE NOT EXISTS (SELECT * FROM RESUMEN_MES_COCHE) GROUP BY MES, N_BASTIDOR ;
+
+INSERT INTO RESUMEN_MES_CONDUCTOR (MES, NSS, TRAYECTOS, KMS, GASTO)
+    SELECT CAST(DATEADD(DAY, 1 - DAY_OF_MONTH(FECHA), FECHA) AS DATE) AS MES, NSS, COUNT(*), SUM(KMS), SUM(GASTOREPOSTAJE)
+    FROM TRAYECTO WHERE NOT EXISTS (SELECT * FROM RESUMEN_MES_CONDUCTOR) GROUP BY MES, NSS ;
+
+CREATE TRIGGER IF NOT EXISTS TRG_TRAYECTO_RESUMENES AFTER INSERT, UPDATE, DELETE ON TRAYECTO
+    FOR EACH ROW CALL "ejemplo.ResumenesMensuales$Disparador" ;
@@ -0,0 +1,166 @@
+package utilidades;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caché de lectura de objetos por clave, con tamaño máximo y tiempo de vida.
+ * Si la clave no está (o su entrada ha caducado) se carga con el cargador
+ * indicado y se guarda; cuando se llena se expulsa la entrada menos usada
+ * recientemente. Los resultados vacíos (null) no se guardan.
+ *
+ * Quien modifique los datos de origen debe avisar a la caché con poner() o
+ * invalidar() para que no devuelva datos obsoletos.
+ *
+ * @param <K> Tipo de la clave.
+ * @param <V> Tipo de los objetos guardados.
+ *
+ * @author Jose Cabello
+ */
+public class CacheLectura<K, V> {
+
+    /**
+     * Carga de un objeto que no está en la caché.
+     *
+     * @param <K> Tipo de la clave.
+     * @param <V> Tipo del objeto.
+     */
+    public interface Cargador<K, V> {
+
+        /**
+         * @param clave Clave del objeto.
+         * @return El objeto o null si no existe.
+         * @throws SQLException Si falla la consulta.
+         */
+        V cargar(K clave) throws SQLException;
+    }
+
+    private final int maximo;
+    private final long nsVida;
+    private final Map<K, Entrada<V>> entradas;
+
+    /**
+     * Se incrementa en cada invalidación, para no guardar un objeto cargado
+     * antes de que se modificara.
+     */
+    private long version = 0;
+    private long aciertos = 0;
+    private long fallos = 0;
+
+    /**
+     * @param maximo Número máximo de objetos guardados.
+     * @param msVida Milisegundos que un objeto se da por bueno desde que se
+     * cargó (0 para que no caduque).
+     */
+    public CacheLectura(int maximo, long msVida) {
+        if (maximo < 1 || msVida < 0) {
+            throw new IllegalArgumentException("Tamaño o tiempo de vida de la caché no válidos.");
+        }
+        this.maximo = maximo;
+        this.nsVida = msVida * 1_000_000;
+        // Con accessOrder = true, el primer elemento es el menos usado recientemente.
+        this.entradas = new LinkedHashMap<K, Entrada<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entrada<V>> masAntigua) {
+                return size() > CacheLectura.this.maximo;
+            }
+        };
+    }
+
+    /**
+     * Devuelve el objeto de la clave indicada, cargándolo si no está en la
+     * caché o ha caducado.
+     *
+     * @param clave Clave del objeto.
+     * @param cargador Carga del objeto si hace falta.
+     * @return El objeto o null si no existe.
+     * @throws SQLException Si falla la carga.
+     */
+    public V obtener(K clave, Cargador<K, V> cargador) throws SQLException {
+        long versionCarga;
+
+        synchronized (this) {
+            Entrada<V> entrada = entradas.get(clave);
+            if (entrada != null && (nsVida == 0 || System.nanoTime() - entrada.cargada < nsVida)) {
+                aciertos++;
+                return entrada.valor;
+            }
+            if (entrada != null) {
+                entradas.remove(clave);
+            }
+            fallos++;
+            versionCarga = version;
+        }
+
+        // La carga se hace sin el cerrojo, para no bloquear a los demás mientras se consulta la BD.
+        V valor = cargador.cargar(clave);
+
+        synchronized (this) {
+            if (valor != null && versionCarga == version) {
+                entradas.put(clave, new Entrada<>(valor));
+            }
+        }
+        return valor;
+    }
+
+    /**
+     * Guarda (o sustituye) el objeto de una clave con los datos actuales.
+     *
+     * @param clave Clave del objeto.
+     * @param valor Objeto actualizado.
+     */
+    public synchronized void poner(K clave, V valor) {
+        version++;
+        entradas.put(clave, new Entrada<>(valor));
+    }
+
+    /**
+     * Quita de la caché el objeto de una clave.
+     *
+     * @param clave Clave del objeto.
+     */
+    public synchronized void invalidar(K clave) {
+        version++;
+        entradas.remove(clave);
+    }
+
+    /**
+     * Vacía la caché.
+     */
+    public synchronized void vaciar() {
+        version++;
+        entradas.clear();
+    }
+
+    /**
+     * @return Número de objetos guardados.
+     */
+    public synchronized int getTamano() {
+        return entradas.size();
+    }
+
+    /**
+     * @return Veces que un objeto se ha encontrado en la caché.
+     */
+    public synchronized long getAciertos() {
+        return aciertos;
+    }
+
+    /**
+     * @return Veces que ha habido que cargar un objeto.
+     */
+    public synchronized long getFallos() {
+        return fallos;
+    }
+
+    private static class Entrada<V> {
+
+        private final V valor;
+        private final long cargada = System.nanoTime();
+
+        private Entrada(V valor) {
+            this.valor = valor;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package utilidades;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caché de sentencias preparadas de una conexión física, indexada por el
+ * texto SQL. Guarda como mucho el número de sentencias indicado y, cuando se
+ * llena, cierra la menos usada recientemente.
+ *
+ * Las sentencias que entrega son envoltorios: al cerrarlas no se cierra la
+ * sentencia real, sino que se limpian sus parámetros, se restauran el fetch
+ * size, el máximo de filas y el tiempo límite con que se preparó y vuelve a
+ * quedar libre para la siguiente vez que se prepare el mismo SQL. Si el mismo
+ * SQL se pide mientras su sentencia está en uso, se prepara una sentencia
+ * aparte que no se guarda en la caché.
+ *
+ * @author Jose Cabello
+ */
+class CacheSentencias {
+
+    private final Connection fisica;
+    private final int maximo;
+    private final Map<String, Entrada> sentencias;
+
+    private long aciertos = 0;
+    private long fallos = 0;
+
+    /**
+     * @param fisica Conexión real sobre la que se preparan las sentencias.
+     * @param maximo Número máximo de sentencias guardadas.
+     */
+    CacheSentencias(Connection fisica, int maximo) {
+        this.fisica = fisica;
+        this.maximo = maximo;
+        // Con accessOrder = true, el primer elemento es el menos usado recientemente.
+        this.sentencias = new LinkedHashMap<String, Entrada>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entrada> masAntigua) {
+                if (size() > CacheSentencias.this.maximo) {
+                    masAntigua.getValue().expulsar();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Prepara (o recupera de la caché) la sentencia para el SQL indicado.
+     *
+     * @param sql Sentencia SQL.
+     * @param conexion Conexión que verá el usuario en getConnection().
+     * @return Sentencia preparada lista para usar.
+     * @throws SQLException Si falla la preparación.
+     */
+    synchronized PreparedStatement preparar(String sql, Connection conexion) throws SQLException {
+        Entrada entrada = sentencias.get(sql);
+
+        if (entrada == null) {
+            fallos++;
+            PreparedStatement sentencia = fisica.prepareStatement(sql);
+            try {
+                entrada = new Entrada(sentencia);
+            }
+            catch (SQLException ex) {
+                cerrarReal(sentencia);
+                throw ex;
+            }
+            sentencias.put(sql, entrada);
+        }
+        else if (entrada.enUso) {
+            fallos++;
+            return fisica.prepareStatement(sql);
+        }
+        else {
+            aciertos++;
+        }
+
+        entrada.enUso = true;
+        return envolver(entrada, conexion);
+    }
+
+    /**
+     * @return Veces que una preparación se ha servido desde la caché.
+     */
+    synchronized long getAciertos() {
+        return aciertos;
+    }
+
+    /**
+     * @return Veces que una preparación ha tenido que ir al driver.
+     */
+    synchronized long getFallos() {
+        return fallos;
+    }
+
+    /**
+     * Cierra todas las sentencias guardadas.
+     */
+    synchronized void cerrar() {
+        List<Entrada> todas = new ArrayList<>(sentencias.values());
+        sentencias.clear();
+        for (Entrada entrada : todas) {
+            entrada.expulsar();
+        }
+    }
+
+    /**
+     * Devuelve a la caché una sentencia que el usuario ha cerrado.
+     */
+    private synchronized void liberar(Entrada entrada) {
+        entrada.enUso = false;
+        if (entrada.expulsada) {
+            cerrarReal(entrada.sentencia);
+            return;
+        }
+        try {
+            ResultSet abierto = entrada.sentencia.getResultSet();
+            if (abierto != null) {
+                abierto.close();
+            }
+            entrada.sentencia.clearParameters();
+            entrada.sentencia.clearBatch();
+            entrada.restaurar();
+        }
+        catch (SQLException ex) {
+            // Si no se puede dejar limpia, se descarta.
+            sentencias.values().remove(entrada);
+            entrada.expulsar();
+        }
+    }
+
+    private PreparedStatement envolver(Entrada entrada, Connection conexion) {
+        boolean[] cerrada = {false};
+
+        return (PreparedStatement) Proxy.newProxyInstance(CacheSentencias.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, metodo, args) -> {
+                    switch (metodo.getName()) {
+                        case "close":
+                            if (!cerrada[0]) {
+                                cerrada[0] = true;
+                                liberar(entrada);
+                            }
+                            return null;
+                        case "isClosed":
+                            return cerrada[0] || entrada.sentencia.isClosed();
+                        case "getConnection":
+                            return conexion;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "toString":
+                            return "Sentencia de la caché (" + entrada.sentencia + ")";
+                        default:
+                            break;
+                    }
+                    if (cerrada[0]) {
+                        throw new SQLException("La sentencia ya está cerrada.");
+                    }
+                    try {
+                        return metodo.invoke(entrada.sentencia, args);
+                    }
+                    catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                });
+    }
+
+    private static void cerrarReal(PreparedStatement sentencia) {
+        try {
+            sentencia.close();
+        }
+        catch (SQLException ex) {
+            // La sentencia se descarta igualmente.
+        }
+    }
+
+    /**
+     * Sentencia guardada en la caché y su estado.
+     */
+    private static class Entrada {
+
+        private final PreparedStatement sentencia;
+        private final int fetchSize;
+        private final int maxFilas;
+        private final int segundosLimite;
+        private boolean enUso = false;
+        private boolean expulsada = false;
+
+        private Entrada(PreparedStatement sentencia) throws SQLException {
+            this.sentencia = sentencia;
+            this.fetchSize = sentencia.getFetchSize();
+            this.maxFilas = sentencia.getMaxRows();
+            this.segundosLimite = sentencia.getQueryTimeout();
+        }
+
+        /**
+         * Deja los ajustes que el usuario puede haber cambiado como estaban
+         * al preparar la sentencia, para que no pasen al siguiente usuario.
+         */
+        private void restaurar() throws SQLException {
+            // Primero el máximo de filas: el driver no admite un fetch size mayor.
+            if (sentencia.getMaxRows() != maxFilas) {
+                sentencia.setMaxRows(maxFilas);
+            }
+            if (sentencia.getFetchSize() != fetchSize) {
+                sentencia.setFetchSize(fetchSize);
+            }
+            if (sentencia.getQueryTimeout() != segundosLimite) {
+                sentencia.setQueryTimeout(segundosLimite);
+            }
+        }
+
+        /**
+         * Saca la sentencia de la caché; si nadie la está usando se cierra ya
+         * y si no, al liberarla.
+         */
+        private void expulsar() {
+            expulsada = true;
+            if (!enUso) {
+                cerrarReal(sentencia);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package utilidades;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Confirmación agrupada (group commit) de escrituras que llegan a la vez desde
+ * varios hilos. Cada escritura se encola y quien la envía espera a que esté
+ * confirmada. Un hilo propio recoge las escrituras que lleguen durante una
+ * ventana de pocos milisegundos (o hasta llenar un grupo), las ejecuta todas
+ * en una sola transacción con una conexión del pool y las confirma con un
+ * único commit.
+ *
+ * Cada escritura se ejecuta tras un punto de guardado (Savepoint): si una
+ * falla, sólo se deshace esa y quien la envió recibe su error; las demás del
+ * grupo se confirman igualmente. Si falla el commit, todas las del grupo
+ * reciben el error.
+ *
+ * @author Jose Cabello
+ */
+public class ConfirmacionAgrupada implements AutoCloseable {
+
+    /**
+     * Milisegundos de espera entre comprobaciones de cierre cuando no hay
+     * escrituras.
+     */
+    private static final long MS_ESPERA_COLA = 200;
+
+    private final PoolConexiones pool;
+    private final long nsVentana;
+    private final int maximoGrupo;
+    private final BlockingQueue<Peticion> cola = new LinkedBlockingQueue<>();
+    private final Thread hilo;
+    private final AtomicLong grupos = new AtomicLong();
+    private final AtomicLong escrituras = new AtomicLong();
+    private volatile boolean cerrada = false;
+
+    /**
+     * Crea el agrupador e inicia su hilo.
+     *
+     * @param pool Pool del que se toma una conexión para cada grupo.
+     * @param msVentana Milisegundos que se esperan más escrituras desde que
+     * llega la primera de un grupo.
+     * @param maximoGrupo Escrituras como máximo en un grupo.
+     * @throws IllegalArgumentException Si los valores no son positivos.
+     */
+    public ConfirmacionAgrupada(PoolConexiones pool, long msVentana, int maximoGrupo) {
+        if (msVentana <= 0 || maximoGrupo <= 0) {
+            throw new IllegalArgumentException("La ventana y el tamaño de grupo deben ser positivos.");
+        }
+        this.pool = pool;
+        this.nsVentana = TimeUnit.MILLISECONDS.toNanos(msVentana);
+        this.maximoGrupo = maximoGrupo;
+
+        hilo = new Thread(this::atender, "confirmacion-agrupada");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Envía una escritura y espera a que se confirme junto con las demás de
+     * su grupo.
+     *
+     * @param <T> Tipo del resultado.
+     * @param escritura Escritura a ejecutar. Recibe la conexión del grupo y
+     * no debe confirmarla ni deshacerla.
+     * @return Resultado de la escritura.
+     * @throws SQLException Si falla la escritura o el commit del grupo, si el
+     * agrupador está cerrado o si se interrumpe la espera.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T ejecutar(UnidadTrabajo.Escritura<T> escritura) throws SQLException {
+        Peticion peticion = new Peticion(escritura);
+        synchronized (cola) {
+            // Con el cerrojo, close() no puede marcar el cierre entre la comprobación y el encolado.
+            if (cerrada) {
+                throw new SQLException("La confirmación agrupada está cerrada.");
+            }
+            cola.add(peticion);
+        }
+
+        try {
+            return (T) peticion.resultado.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrumpido esperando la confirmación.", ex);
+        }
+        catch (ExecutionException ex) {
+            Throwable causa = ex.getCause();
+            if (causa instanceof SQLException) {
+                throw (SQLException) causa;
+            }
+            if (causa instanceof RuntimeException) {
+                throw (RuntimeException) causa;
+            }
+            throw new SQLException(causa);
+        }
+    }
+
+    /**
+     * @return Grupos confirmados (commits hechos).
+     */
+    public long getGrupos() {
+        return grupos.get();
+    }
+
+    /**
+     * @return Escrituras confirmadas.
+     */
+    public long getEscrituras() {
+        return escrituras.get();
+    }
+
+    /**
+     * Deja de admitir escrituras, confirma las que estén encoladas y para el
+     * hilo.
+     */
+    @Override
+    public void close() {
+        synchronized (cola) {
+            cerrada = true;
+        }
+        try {
+            hilo.join();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Bucle del hilo: forma grupos con las escrituras encoladas y los
+     * confirma.
+     */
+    private void atender() {
+        List<Peticion> grupo = new ArrayList<>();
+
+        while (!cerrada || !cola.isEmpty()) {
+            try {
+                Peticion primera = cola.poll(MS_ESPERA_COLA, TimeUnit.MILLISECONDS);
+                if (primera == null) {
+                    continue;
+                }
+                grupo.add(primera);
+
+                long limite = System.nanoTime() + nsVentana;
+                while (grupo.size() < maximoGrupo) {
+                    long restante = limite - System.nanoTime();
+                    Peticion siguiente = restante > 0 ? cola.poll(restante, TimeUnit.NANOSECONDS) : cola.poll();
+                    if (siguiente == null) {
+                        break;
+                    }
+                    grupo.add(siguiente);
+                }
+            }
+            catch (InterruptedException ex) {
+                // Se confirma lo recogido y se sigue hasta que se cierre.
+            }
+
+            if (!grupo.isEmpty()) {
+                confirmarGrupo(grupo);
+                grupo.clear();
+            }
+        }
+    }
+
+    /**
+     * Ejecuta un grupo de escrituras en una transacción y la confirma.
+     */
+    private void confirmarGrupo(List<Peticion> grupo) {
+        List<Peticion> correctas = new ArrayList<>(grupo.size());
+        List<Object> resultados = new ArrayList<>(grupo.size());
+
+        try (Connection con = pool.obtenerConexion()) {
+            con.setAutoCommit(false);
+
+            for (Peticion peticion : grupo) {
+                Savepoint punto = con.setSavepoint();
+                try {
+                    resultados.add(peticion.escritura.escribir(con));
+                    correctas.add(peticion);
+                }
+                catch (SQLException | RuntimeException ex) {
+                    con.rollback(punto);
+                    peticion.resultado.completeExceptionally(ex);
+                }
+            }
+
+            con.commit();
+            grupos.incrementAndGet();
+            escrituras.addAndGet(correctas.size());
+            for (int i = 0; i < correctas.size(); i++) {
+                correctas.get(i).resultado.complete(resultados.get(i));
+            }
+        }
+        catch (SQLException ex) {
+            // Sin conexión o fallo del commit: nada del grupo se ha confirmado.
+            for (Peticion peticion : grupo) {
+                peticion.resultado.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * Escritura encolada y el resultado que espera quien la envió.
+     */
+    private static class Peticion {
+
+        private final UnidadTrabajo.Escritura<?> escritura;
+        private final CompletableFuture<Object> resultado = new CompletableFuture<>();
+
+        private Peticion(UnidadTrabajo.Escritura<?> escritura) {
+            this.escritura = escritura;
+        }
+    }
+}
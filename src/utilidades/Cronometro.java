@@ -0,0 +1,55 @@
+package utilidades;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mide la duración de las fases consecutivas de un proceso (por ejemplo, el
+ * arranque de la aplicación). Cada llamada a marcar() cierra la fase en curso
+ * con el tiempo transcurrido desde la marca anterior.
+ *
+ * @author Jose Cabello
+ */
+public class Cronometro {
+
+    private final long inicio = System.nanoTime();
+    private long ultimaMarca = inicio;
+    private final List<String> fases = new ArrayList<>();
+    private final List<Long> duraciones = new ArrayList<>();
+
+    /**
+     * Cierra la fase en curso.
+     *
+     * @param fase Nombre de la fase que acaba de terminar.
+     */
+    public synchronized void marcar(String fase) {
+        long ahora = System.nanoTime();
+        fases.add(fase);
+        duraciones.add(ahora - ultimaMarca);
+        ultimaMarca = ahora;
+    }
+
+    /**
+     * @return Milisegundos desde que se creó el cronómetro hasta la última
+     * marca.
+     */
+    public synchronized long getTotalMs() {
+        return (ultimaMarca - inicio) / 1_000_000;
+    }
+
+    /**
+     * @return Las fases con su duración, por ejemplo "driver 3 ms, esquema 12
+     * ms; total 15 ms".
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder texto = new StringBuilder();
+        for (int i = 0; i < fases.size(); i++) {
+            if (i > 0) {
+                texto.append(", ");
+            }
+            texto.append(fases.get(i)).append(' ').append(duraciones.get(i) / 1_000_000).append(" ms");
+        }
+        return texto.append("; total ").append(getTotalMs()).append(" ms").toString();
+    }
+}
@@ -1,5 +1,14 @@
 package utilidades ;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
 
 /**
@@ -13,10 +22,124 @@ import java.util.Scanner;
  * detalle. Así, podemos tener tres métodos para leer enteros, que se llaman 
  * todos igual, pero que se diferencian en su lista de parámetros. 
  * 
+ * Todas las lecturas comparten un único lector con buffer, de forma que no se
+ * pierde la entrada que ya se haya leído del flujo. Los números, caracteres y
+ * respuestas se leen de uno en uno y se descarta el resto de su línea, así que
+ * un guion de respuestas lleva una respuesta por línea. Con usarGuion() las
+ * respuestas se leen de un archivo en lugar del teclado. Si se acaba la
+ * entrada, las lecturas lanzan NoSuchElementException.
+ * 
  * @author Jose Cabello
  */
 public class ES {
 
+    /**
+     * Tamaño del buffer de lectura en caracteres.
+     */
+    private static final int TAMANO_BUFFER = 64 * 1024;
+
+    /**
+     * Lector compartido por todas las lecturas.
+     */
+    private static Scanner teclado = crearLector(System.in);
+
+    /**
+     * Si es true, se escribe en pantalla cada respuesta leída del guion.
+     */
+    private static boolean eco = false;
+
+    /**
+     * Hace que las siguientes lecturas se hagan del flujo indicado (por
+     * ejemplo, un guion de respuestas redirigido a la entrada estándar).
+     *
+     * @param entrada Flujo del que leer, en UTF-8.
+     * @param mostrarRespuestas Si es true se escribe en pantalla cada
+     * respuesta leída, para que la salida quede igual que en modo interactivo.
+     */
+    public static void usarEntrada(InputStream entrada, boolean mostrarRespuestas) {
+        teclado = crearLector(entrada);
+        eco = mostrarRespuestas;
+    }
+
+    /**
+     * Hace que las siguientes lecturas se hagan del archivo de guion indicado,
+     * con una respuesta por línea. Cada respuesta leída se escribe en pantalla.
+     *
+     * @param guion Archivo con las respuestas.
+     * @throws IOException Si no se puede abrir el archivo.
+     */
+    public static void usarGuion(Path guion) throws IOException {
+        usarEntrada(Files.newInputStream(guion), true);
+    }
+
+    /**
+     * Indica si quedan datos por leer. En modo interactivo espera a que el
+     * usuario escriba algo.
+     *
+     * @return false si se ha llegado al final de la entrada.
+     */
+    public static boolean hayMasDatos() {
+        return teclado.hasNext();
+    }
+
+    /**
+     * Lee la siguiente palabra (secuencia de caracteres sin espacios). El resto
+     * de la línea no se descarta, así que pueden leerse varias palabras
+     * seguidas de la misma línea.
+     *
+     * @return La palabra leída.
+     * @throws NoSuchElementException Si se ha acabado la entrada.
+     */
+    public static String leeToken() {
+        String token = teclado.next();
+        if (eco) {
+            System.out.println(token);
+        }
+        return token;
+    }
+
+    /**
+     * Escribe el mensaje indicado y lee la siguiente palabra.
+     *
+     * @param mensaje Mensaje a mostrar por pantalla.
+     * @return La palabra leída.
+     * @throws NoSuchElementException Si se ha acabado la entrada.
+     */
+    public static String leeToken(String mensaje) {
+        ES.msgln(mensaje);
+        return leeToken();
+    }
+
+    private static Scanner crearLector(InputStream entrada) {
+        return new Scanner(new BufferedReader(new InputStreamReader(entrada, StandardCharsets.UTF_8), TAMANO_BUFFER));
+    }
+
+    private static int siguienteEntero() {
+        int numero = teclado.nextInt();
+        if (eco) {
+            System.out.println(numero);
+        }
+        return numero;
+    }
+
+    private static String siguienteLinea() {
+        String linea = teclado.nextLine();
+        if (eco) {
+            System.out.println(linea);
+        }
+        return linea;
+    }
+
+    /**
+     * Descarta lo que quede de la línea actual (el salto de línea tras un
+     * número, o una entrada errónea).
+     */
+    private static void descartarLinea() {
+        if (teclado.hasNextLine()) {
+            teclado.nextLine();
+        }
+    }
+
     /**
      * Este método sirve para leer desde teclado cualquier número entero en el
      * rango de números del tipo int. La lectura se estará repitiendo hasta que
@@ -27,14 +150,14 @@ public class ES {
     public static int leeEntero() {
         boolean leido = false;
         int numero = 0;
-        Scanner teclado = null;
         do {
             try {
-                teclado = new Scanner(System.in);
-                numero = teclado.nextInt();
+                numero = siguienteEntero();
                 leido = true;
-            } catch (Exception e) {
+            } catch (InputMismatchException e) {
                 ES.msgln("Error: No es un número entero válido. ");
+            } finally {
+                descartarLinea();
             }
 
         } while (!leido);
@@ -55,15 +178,15 @@ public class ES {
     public static int leeEntero(String mensaje) {
         int numero = 0;
         boolean leido = false;
-        Scanner teclado = null;
         do {
             ES.msgln(mensaje);
             try {
-                teclado = new Scanner(System.in);
-                numero = teclado.nextInt();
+                numero = siguienteEntero();
                 leido = true;
-            } catch (Exception e) {
+            } catch (InputMismatchException e) {
                 ES.msgln("Error: No es un número entero válido. ");
+            } finally {
+                descartarLinea();
             }
         } while (!leido);
         return numero;
@@ -82,18 +205,18 @@ public class ES {
     public static int leeEntero(int minimo) {
         int numero = 0;
         boolean leido = false;
-        Scanner teclado = null;
         do {
             try {
-                teclado = new Scanner(System.in);
-                numero = teclado.nextInt();
+                numero = siguienteEntero();
                 if (numero >= minimo) {
                     leido = true;
                 } else {
                     ES.msgln("Error: Debe ser un número entero mayor o igual que " + minimo + ". ");
                 }
-            } catch (Exception e) {
+            } catch (InputMismatchException e) {
                 ES.msgln("Error: No es un número entero válido. ");
+            } finally {
+                descartarLinea();
             }
         } while (!leido);
         return numero;
@@ -115,19 +238,19 @@ public class ES {
     public static int leeEntero(String mensaje, int minimo) {
         int numero = 0;
         boolean leido = false;
-        Scanner teclado = null;
         do {
             ES.msgln(mensaje);
             try {
-                teclado = new Scanner(System.in);
-                numero = teclado.nextInt();
+                numero = siguienteEntero();
                 if (numero >= minimo) {
                     leido = true;
                 } else {
                     ES.msgln("Error: Debe ser un número entero mayor o igual que " + minimo + ".");
                 }
-            } catch (Exception e) {
+            } catch (InputMismatchException e) {
                 ES.msgln("Error: No es un número entero válido. ");
+            } finally {
+                descartarLinea();
             }
 
         } while (!leido);
@@ -152,21 +275,21 @@ public class ES {
     public static int leeEntero(int minimo, int maximo) throws IllegalArgumentException {
         int numero = 0;
         boolean leido = false;
-        Scanner teclado = null;
 
         // Si el valor mínimo es mayor que el máximo, lanzamos una excepci�n
         if (minimo <= maximo) {
             do {
                 try {
-                    teclado = new Scanner(System.in);
-                    numero = teclado.nextInt();
+                    numero = siguienteEntero();
                     if (numero >= minimo && numero <= maximo) {
                         leido = true;
                     } else {
                         ES.msgln("Error: Debe ser un número entero mayor o igual que " + minimo + " y menor o igual que " + maximo + ". ");
                     }
-                } catch (Exception e) {
+                } catch (InputMismatchException e) {
                     ES.msgln("Error: No es un número entero válido. ");
+                } finally {
+                    descartarLinea();
                 }
             } while (!leido);
         } else {
@@ -197,22 +320,22 @@ public class ES {
     public static int leeEntero(String mensaje, int minimo, int maximo) throws IllegalArgumentException {
         int numero = 0;
         boolean leido = false;
-        Scanner teclado = null;
 
         // Si el valor mínimo es mayor que el máximo, lanzamos una excepci�n
         if (minimo <= maximo) {
             do {
                 ES.msgln(mensaje);
                 try {
-                    teclado = new Scanner(System.in);
-                    numero = teclado.nextInt();
+                    numero = siguienteEntero();
                     if (numero >= minimo && numero <= maximo) {
                         leido = true;
                     } else {
                         ES.msgln("Error: Debe ser un número entero mayor o igual que " + minimo + " y menor o igual que " + maximo + ". ");
                     }
-                } catch (Exception e) {
+                } catch (InputMismatchException e) {
                     ES.msgln("Error: No es un número entero válido. ");
+                } finally {
+                    descartarLinea();
                 }
             } while (!leido);
         } else {
@@ -231,11 +354,10 @@ public class ES {
      * @return La cadena de caracteres leído desde el teclado.
      */
     public static String leeCadena() {
-        Scanner teclado = new Scanner(System.in);
         String cadena = "";
         try {
-            cadena = teclado.nextLine();
-        } catch (Exception e) {
+            cadena = siguienteLinea();
+        } catch (IllegalStateException e) {
             ES.msgln("Error: Ha fallado la entrada de datos.");
         }
         return cadena;
@@ -253,12 +375,11 @@ public class ES {
      * @return La cadena de caracteres leído desde el teclado.
      */
     public static String leeCadena(String mensaje) {
-        Scanner teclado = new Scanner(System.in);
         String cadena = "";
         try {
             ES.msgln(mensaje);
-            cadena = teclado.nextLine();
-        } catch (Exception e) {
+            cadena = siguienteLinea();
+        } catch (IllegalStateException e) {
             ES.msgln("Error: Ha fallado la entrada de datos.");
         }
         return cadena;
@@ -413,18 +534,16 @@ public class ES {
     public static String leeRespuesta(String mensaje) {
         boolean correcta = false;
         String cadena = "";
-        Scanner teclado = null;
         do {
             ES.msgln(mensaje);
             try {
-                teclado = new Scanner(System.in);
-                cadena = teclado.nextLine();
+                cadena = siguienteLinea();
                 if ( cadena!= null && cadena.length() == 1 && ((cadena.equalsIgnoreCase("S")) || (cadena.equalsIgnoreCase("N")))) {
                     correcta = true;
                 } else {
                     ES.msgln("Error: Solo se admite como respuesta un �nico carácter, que debe ser 's', 'S', 'n' o 'N'.");
                 }
-            } catch (Exception e) {
+            } catch (IllegalStateException e) {
                 ES.msgln("Error: Ha fallado la entrada de datos.");
             }
         } while (!correcta);
@@ -439,10 +558,9 @@ public class ES {
      */
     public static char leeCaracter(String mensaje) {
       
-        Scanner teclado = null;
-        teclado = new Scanner(System.in);
         ES.msgln(mensaje);
-        String cadena=teclado.next();
+        String cadena=leeToken();
+        descartarLinea();
         char caracter = cadena.charAt(0); 
         return caracter ;
     }
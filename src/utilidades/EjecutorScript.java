@@ -0,0 +1,329 @@
+package utilidades;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Ejecución de scripts SQL leyéndolos por partes, sin cargarlos enteros en
+ * memoria. El script se separa en sentencias por los ';' que no están dentro
+ * de un comentario (de línea o de bloque), de una cadena ('...'), de un
+ * identificador entre comillas ("...") o de un bloque $$...$$. Las
+ * sentencias de datos (INSERT, UPDATE, DELETE, MERGE, REPLACE) se envían a la
+ * base de datos en lotes (addBatch/executeBatch), confirmando cada lote; el
+ * resto (CREATE, ALTER, SET...) se ejecutan de una en una, cerrando antes el
+ * lote en curso, porque la base de datos las confirma por su cuenta y dentro
+ * de un lote seguiría ejecutando las siguientes aunque una fallase.
+ *
+ * Si una sentencia falla se para la ejecución y la excepción indica la línea
+ * del script en la que empieza esa sentencia. Se deshace el lote en el que
+ * estaba (si era una sentencia de datos); todo lo anterior queda confirmado.
+ *
+ * @author Jose Cabello
+ */
+public class EjecutorScript {
+
+    /**
+     * Sentencias por lote si no se indica otra cosa.
+     */
+    public static final int TAMANO_LOTE = 1_000;
+    /**
+     * Caracteres que se leen de una vez del script.
+     */
+    private static final int TAMANO_BUFFER = 64 * 1024;
+    /**
+     * Sentencias que se agrupan en lotes.
+     */
+    private static final Set<String> SENTENCIAS_DE_DATOS = Set.of("INSERT", "UPDATE", "DELETE", "MERGE", "REPLACE");
+
+    /**
+     * Aviso del avance de la ejecución, tras cada lote.
+     */
+    public interface Progreso {
+
+        /**
+         * @param sentencias Sentencias ejecutadas hasta ahora.
+         * @param linea Línea del script por la que va la lectura.
+         */
+        void informar(long sentencias, long linea);
+    }
+
+    private final Reader lector;
+    private final char[] buffer = new char[TAMANO_BUFFER];
+    private int posicion = 0;
+    private int fin = 0;
+    private long linea = 1;
+    /**
+     * Línea del script en la que empieza la última sentencia leída.
+     */
+    private long lineaInicio;
+
+    private EjecutorScript(Reader lector) {
+        this.lector = lector;
+    }
+
+    /**
+     * Ejecuta un script con el tamaño de lote por defecto y sin informar del
+     * avance.
+     *
+     * @param con Conexión a la BD
+     * @param lector Script SQL.
+     * @return Número de sentencias ejecutadas.
+     * @throws IOException Si no se puede leer el script.
+     * @throws SQLException Si falla una sentencia (con su línea en el
+     * mensaje).
+     */
+    public static long ejecutar(Connection con, Reader lector) throws IOException, SQLException {
+        return ejecutar(con, lector, TAMANO_LOTE, null);
+    }
+
+    /**
+     * Ejecuta un script.
+     *
+     * @param con Conexión a la BD
+     * @param lector Script SQL.
+     * @param tamanoLote Sentencias que se envían juntas en cada executeBatch.
+     * @param progreso Aviso del avance tras cada lote, o null.
+     * @return Número de sentencias ejecutadas.
+     * @throws IOException Si no se puede leer el script.
+     * @throws SQLException Si falla una sentencia (con su línea en el
+     * mensaje).
+     */
+    public static long ejecutar(Connection con, Reader lector, int tamanoLote, Progreso progreso)
+            throws IOException, SQLException {
+
+        if (tamanoLote < 1) {
+            throw new IllegalArgumentException("El tamaño de lote debe ser positivo.");
+        }
+
+        EjecutorScript script = new EjecutorScript(lector);
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+
+        try (Statement sentencia = con.createStatement() ) {
+            // Línea en la que empieza cada sentencia del lote en curso, para poder informar de errores.
+            long[] lineasLote = new long[tamanoLote];
+            int enLote = 0;
+            long ejecutadas = 0;
+            StringBuilder sql = new StringBuilder();
+
+            while (script.siguienteSentencia(sql) ) {
+                if (!esDeDatos(sql)) {
+                    ejecutadas += ejecutarLote(con, sentencia, lineasLote, enLote);
+                    enLote = 0;
+                    ejecutadas += ejecutarSola(con, sentencia, sql.toString(), script.lineaInicio);
+                    if (progreso != null) {
+                        progreso.informar(ejecutadas, script.linea);
+                    }
+                    continue;
+                }
+
+                sentencia.addBatch(sql.toString());
+                lineasLote[enLote++] = script.lineaInicio;
+
+                if (enLote == tamanoLote) {
+                    ejecutadas += ejecutarLote(con, sentencia, lineasLote, enLote);
+                    enLote = 0;
+                    if (progreso != null) {
+                        progreso.informar(ejecutadas, script.linea);
+                    }
+                }
+            }
+
+            if (enLote > 0) {
+                ejecutadas += ejecutarLote(con, sentencia, lineasLote, enLote);
+                if (progreso != null) {
+                    progreso.informar(ejecutadas, script.linea);
+                }
+            }
+            return ejecutadas;
+        }
+        catch (IOException | SQLException | RuntimeException ex) {
+            con.rollback();
+            throw ex;
+        }
+        finally {
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Indica si una sentencia modifica sólo datos y puede ir en un lote.
+     */
+    private static boolean esDeDatos(CharSequence sql) {
+        int fin = 0;
+        while (fin < sql.length() && Character.isLetter(sql.charAt(fin))) {
+            fin++;
+        }
+        String orden = sql.subSequence(0, fin).toString().toUpperCase(Locale.ROOT);
+        return SENTENCIAS_DE_DATOS.contains(orden);
+    }
+
+    /**
+     * Ejecuta y confirma una sentencia fuera de lote.
+     *
+     * @return Sentencias ejecutadas (1).
+     * @throws SQLException Con la línea de la sentencia.
+     */
+    private static int ejecutarSola(Connection con, Statement sentencia, String sql, long linea) throws SQLException {
+        try {
+            sentencia.execute(sql);
+        }
+        catch (SQLException ex) {
+            throw new SQLException("Error en la sentencia de la línea " + linea + " del script: "
+                    + ex.getMessage(), ex.getSQLState(), ex.getErrorCode(), ex);
+        }
+        con.commit();
+        return 1;
+    }
+
+    /**
+     * Ejecuta y confirma el lote en curso.
+     *
+     * @return Sentencias ejecutadas.
+     * @throws SQLException Con la línea de la primera sentencia que ha
+     * fallado.
+     */
+    private static int ejecutarLote(Connection con, Statement sentencia, long[] lineasLote, int enLote)
+            throws SQLException {
+        if (enLote == 0) {
+            return 0;
+        }
+        try {
+            sentencia.executeBatch();
+        }
+        catch (BatchUpdateException ex) {
+            int[] cuentas = ex.getUpdateCounts();
+            int fallida = 0;
+            while (fallida < cuentas.length && fallida < enLote - 1 && cuentas[fallida] != Statement.EXECUTE_FAILED) {
+                fallida++;
+            }
+            SQLException causa = ex.getNextException() != null ? ex.getNextException() : ex;
+            throw new SQLException("Error en la sentencia de la línea " + lineasLote[fallida] + " del script: "
+                    + causa.getMessage(), causa.getSQLState(), causa.getErrorCode(), causa);
+        }
+        con.commit();
+        return enLote;
+    }
+
+    /**
+     * Lee la siguiente sentencia del script, sin el ';' final ni los
+     * comentarios.
+     *
+     * @param sql Donde se deja la sentencia.
+     * @return false si no quedan sentencias.
+     */
+    private boolean siguienteSentencia(StringBuilder sql) throws IOException {
+        sql.setLength(0);
+        int c;
+
+        while ((c = leer()) >= 0) {
+            if (c == ';') {
+                if (sql.length() > 0) {
+                    return true;
+                }
+                continue;
+            }
+            if (c == '-' && mirar() == '-') {
+                // Comentario hasta el final de la línea.
+                while ((c = leer()) >= 0 && c != '\n') {
+                }
+                c = '\n';
+            }
+            else if (c == '/' && mirar() == '*') {
+                leer();
+                int anterior = 0;
+                while ((c = leer()) >= 0 && !(anterior == '*' && c == '/')) {
+                    anterior = c;
+                }
+                c = ' ';
+            }
+
+            if (sql.length() == 0) {
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+                lineaInicio = linea;
+            }
+
+            sql.append((char) c);
+            if (c == '\'' || c == '"') {
+                copiarHasta(sql, (char) c);
+            }
+            else if (c == '$' && mirar() == '$') {
+                sql.append((char) leer());
+                copiarHastaDolares(sql);
+            }
+        }
+
+        // Última sentencia sin ';'.
+        int hasta = sql.length();
+        while (hasta > 0 && Character.isWhitespace(sql.charAt(hasta - 1))) {
+            hasta--;
+        }
+        sql.setLength(hasta);
+        return hasta > 0;
+    }
+
+    /**
+     * Copia una cadena o un identificador entre comillas hasta la comilla de
+     * cierre (incluida). Una comilla doble ('') cierra y vuelve a abrir, así
+     * que también queda bien copiada.
+     */
+    private void copiarHasta(StringBuilder sql, char comilla) throws IOException {
+        int c;
+        while ((c = leer()) >= 0) {
+            sql.append((char) c);
+            if (c == comilla) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copia un bloque $$...$$ hasta los $$ de cierre (incluidos).
+     */
+    private void copiarHastaDolares(StringBuilder sql) throws IOException {
+        int c;
+        while ((c = leer()) >= 0) {
+            sql.append((char) c);
+            if (c == '$' && mirar() == '$') {
+                sql.append((char) leer());
+                return;
+            }
+        }
+    }
+
+    private int leer() throws IOException {
+        if (posicion == fin && !rellenar()) {
+            return -1;
+        }
+        char c = buffer[posicion++];
+        if (c == '\n') {
+            linea++;
+        }
+        return c;
+    }
+
+    private int mirar() throws IOException {
+        if (posicion == fin && !rellenar()) {
+            return -1;
+        }
+        return buffer[posicion];
+    }
+
+    private boolean rellenar() throws IOException {
+        int leidos = lector.read(buffer, 0, buffer.length);
+        if (leidos <= 0) {
+            return false;
+        }
+        posicion = 0;
+        fin = leidos;
+        return true;
+    }
+}
@@ -0,0 +1,386 @@
+package utilidades;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ejecuta tareas largas (informes, listados) en segundo plano, de forma que
+ * el menú pueda seguir atendiendo al usuario mientras terminan. Varias tareas
+ * pueden estar en curso a la vez.
+ *
+ * Cada tarea lleva la cuenta de su progreso y puede cancelarse. Con Java 21 o
+ * posterior cada tarea se ejecuta en un hilo virtual; con versiones
+ * anteriores, en un hilo demonio normal.
+ *
+ * La cancelación es cooperativa: se marca la tarea, se cancela la sentencia
+ * SQL que esté ejecutando (Statement.cancel) y la tarea termina en su
+ * siguiente comprobación. No se interrumpe el hilo, porque una interrupción
+ * durante una lectura del archivo de H2 cierra el canal y deja la base de
+ * datos inutilizable para el resto de conexiones.
+ *
+ * @author Jose Cabello
+ */
+public class EjecutorTareas implements AutoCloseable {
+
+    /**
+     * Milisegundos que se espera a que acaben las tareas canceladas al cerrar.
+     */
+    private static final long MS_CIERRE = 2_000;
+
+    /**
+     * Trabajo a realizar en segundo plano.
+     */
+    public interface Trabajo {
+
+        /**
+         * @param progreso Progreso de la tarea, que el trabajo debe ir
+         * actualizando y comprobando.
+         * @return Texto con el resultado, que se mostrará cuando se pida.
+         * @throws Exception Si el trabajo falla o se cancela.
+         */
+        String ejecutar(Progreso progreso) throws Exception;
+    }
+
+    /**
+     * Estado de una tarea.
+     */
+    public enum Estado {
+        EN_CURSO("en curso"),
+        TERMINADA("terminada"),
+        FALLIDA("fallida"),
+        CANCELADA("cancelada");
+
+        private final String descripcion;
+
+        Estado(String descripcion) {
+            this.descripcion = descripcion;
+        }
+
+        public String getDescripcion() {
+            return descripcion;
+        }
+    }
+
+    /**
+     * Progreso y cancelación de una tarea.
+     */
+    public static class Progreso {
+
+        private volatile long hechos = 0;
+        private volatile long total = -1;
+        private volatile boolean cancelada = false;
+        private Statement sentencia = null;
+
+        /**
+         * Anota el avance de la tarea.
+         *
+         * @param hechos Unidades (filas, grupos...) procesadas.
+         * @param total Unidades totales o -1 si no se conocen.
+         */
+        public void avanzar(long hechos, long total) {
+            this.hechos = hechos;
+            this.total = total;
+        }
+
+        /**
+         * Comprueba si se ha pedido cancelar la tarea.
+         *
+         * @throws CancellationException Si se ha cancelado.
+         */
+        public void comprobar() {
+            if (cancelada) {
+                throw new CancellationException("Tarea cancelada.");
+            }
+        }
+
+        /**
+         * Indica la sentencia que está ejecutando la tarea, para cancelarla si
+         * se cancela la tarea. Con null se deja de vigilar.
+         *
+         * @param sentencia Sentencia en ejecución.
+         * @throws CancellationException Si la tarea ya está cancelada.
+         */
+        public synchronized void vigilar(Statement sentencia) {
+            comprobar();
+            this.sentencia = sentencia;
+        }
+
+        /**
+         * @return Unidades procesadas.
+         */
+        public long getHechos() {
+            return hechos;
+        }
+
+        /**
+         * @return Unidades totales o -1 si no se conocen.
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * @return true si se ha pedido cancelar la tarea.
+         */
+        public boolean isCancelada() {
+            return cancelada;
+        }
+
+        private synchronized void soltar() {
+            sentencia = null;
+        }
+
+        private synchronized void cancelar() {
+            cancelada = true;
+            if (sentencia != null) {
+                try {
+                    sentencia.cancel();
+                }
+                catch (SQLException ex) {
+                    // La sentencia ya ha terminado o está cerrada.
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            long t = total;
+            return t > 0 ? String.format("%d/%d (%d%%)", hechos, t, hechos * 100 / t) : Long.toString(hechos);
+        }
+    }
+
+    /**
+     * Tarea lanzada en segundo plano.
+     */
+    public static class Tarea {
+
+        private final int id;
+        private final String descripcion;
+        private final Progreso progreso = new Progreso();
+        private final long inicio = System.nanoTime();
+        private long fin;
+        private Estado estado = Estado.EN_CURSO;
+        private String resultado = null;
+        private String error = null;
+        private boolean avisada = false;
+
+        private Tarea(int id, String descripcion) {
+            this.id = id;
+            this.descripcion = descripcion;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getDescripcion() {
+            return descripcion;
+        }
+
+        public Progreso getProgreso() {
+            return progreso;
+        }
+
+        public synchronized Estado getEstado() {
+            return estado;
+        }
+
+        /**
+         * @return Texto del resultado o null si la tarea no ha terminado bien.
+         */
+        public synchronized String getResultado() {
+            return resultado;
+        }
+
+        /**
+         * @return Mensaje del error o null si la tarea no ha fallado.
+         */
+        public synchronized String getError() {
+            return error;
+        }
+
+        /**
+         * @return Milisegundos que lleva (o llevó) la tarea en ejecución.
+         */
+        public synchronized long getDuracionMs() {
+            return ((estado == Estado.EN_CURSO ? System.nanoTime() : fin) - inicio) / 1_000_000;
+        }
+
+        /**
+         * Pide cancelar la tarea. No tiene efecto si ya ha terminado.
+         *
+         * @return true si la tarea estaba en curso.
+         */
+        public boolean cancelar() {
+            synchronized (this) {
+                if (estado != Estado.EN_CURSO) {
+                    return false;
+                }
+            }
+            progreso.cancelar();
+            return true;
+        }
+
+        private void ejecutar(Trabajo trabajo) {
+            String texto = null;
+            Exception fallo = null;
+            try {
+                progreso.comprobar();
+                texto = trabajo.ejecutar(progreso);
+            }
+            catch (Exception ex) {
+                fallo = ex;
+            }
+            finally {
+                progreso.soltar();
+            }
+
+            synchronized (this) {
+                fin = System.nanoTime();
+                if (progreso.isCancelada()) {
+                    estado = Estado.CANCELADA;
+                }
+                else if (fallo != null) {
+                    estado = Estado.FALLIDA;
+                    error = fallo.getMessage() != null ? fallo.getMessage() : fallo.toString();
+                }
+                else {
+                    estado = Estado.TERMINADA;
+                    resultado = texto;
+                }
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%3d  %-10s %8d ms  %-14s %s", id, estado.getDescripcion(), getDuracionMs(),
+                    estado == Estado.EN_CURSO ? progreso.toString() : "", descripcion);
+        }
+    }
+
+    private final ExecutorService hilos;
+    private final boolean hilosVirtuales;
+    private final AtomicInteger ultimoId = new AtomicInteger();
+    /**
+     * Tareas lanzadas, en orden de lanzamiento.
+     */
+    private final Map<Integer, Tarea> tareas = new LinkedHashMap<>();
+
+    /**
+     * Crea el ejecutor, con hilos virtuales si la máquina virtual los admite.
+     */
+    public EjecutorTareas() {
+        ExecutorService virtuales = null;
+        try {
+            // Executors.newVirtualThreadPerTaskExecutor() existe a partir de Java 21.
+            virtuales = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException ex) {
+            // Versión anterior: se usan hilos normales.
+        }
+        hilosVirtuales = virtuales != null;
+        hilos = virtuales != null ? virtuales : Executors.newCachedThreadPool(r -> {
+            Thread hilo = new Thread(r, "tarea-segundo-plano");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    /**
+     * Lanza un trabajo en segundo plano.
+     *
+     * @param descripcion Descripción de la tarea para los listados.
+     * @param trabajo Trabajo a realizar.
+     * @return La tarea lanzada.
+     * @throws java.util.concurrent.RejectedExecutionException Si el ejecutor
+     * está cerrado.
+     */
+    public Tarea lanzar(String descripcion, Trabajo trabajo) {
+        Tarea tarea = new Tarea(ultimoId.incrementAndGet(), descripcion);
+        synchronized (tareas) {
+            tareas.put(tarea.getId(), tarea);
+        }
+        hilos.execute(() -> tarea.ejecutar(trabajo));
+        return tarea;
+    }
+
+    /**
+     * @param id Identificador de la tarea.
+     * @return La tarea o null si no existe.
+     */
+    public Tarea getTarea(int id) {
+        synchronized (tareas) {
+            return tareas.get(id);
+        }
+    }
+
+    /**
+     * @return Todas las tareas lanzadas, en orden de lanzamiento.
+     */
+    public List<Tarea> getTareas() {
+        synchronized (tareas) {
+            return new ArrayList<>(tareas.values());
+        }
+    }
+
+    /**
+     * Devuelve las tareas que han acabado desde la última llamada, para
+     * avisar de ellas una sola vez.
+     *
+     * @return Tareas acabadas y no avisadas todavía.
+     */
+    public List<Tarea> recogerAcabadas() {
+        List<Tarea> acabadas = new ArrayList<>();
+        for (Tarea tarea : getTareas()) {
+            synchronized (tarea) {
+                if (tarea.estado != Estado.EN_CURSO && !tarea.avisada) {
+                    tarea.avisada = true;
+                    acabadas.add(tarea);
+                }
+            }
+        }
+        return acabadas;
+    }
+
+    /**
+     * Olvida las tareas acabadas (y sus resultados).
+     */
+    public void limpiarAcabadas() {
+        synchronized (tareas) {
+            tareas.values().removeIf(tarea -> tarea.getEstado() != Estado.EN_CURSO);
+        }
+    }
+
+    /**
+     * @return true si las tareas se ejecutan en hilos virtuales.
+     */
+    public boolean usaHilosVirtuales() {
+        return hilosVirtuales;
+    }
+
+    /**
+     * Cancela las tareas en curso y espera un momento a que terminen.
+     */
+    @Override
+    public void close() {
+        for (Tarea tarea : getTareas()) {
+            tarea.cancelar();
+        }
+        hilos.shutdown();
+        try {
+            hilos.awaitTermination(MS_CIERRE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package utilidades;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Exporta el resultado de una consulta a un archivo CSV o JSON según se va
+ * leyendo, sin guardar las filas en memoria: cada fila se convierte a texto,
+ * se codifica en UTF-8 en un buffer de tamaño fijo y se escribe en el archivo
+ * (FileChannel) cada vez que el buffer se llena. La memoria usada no depende
+ * por tanto del número de filas; para que tampoco lo haga la lectura, la
+ * consulta debe ejecutarse con un fetch size grande.
+ *
+ * El CSV lleva una cabecera con los nombres de las columnas, separa los
+ * campos con comas y pone entre comillas dobles los que contienen comas,
+ * comillas o saltos de línea (como espera ImportadorCsv). El JSON es un array
+ * con un objeto por fila; los números se escriben como números y las fechas y
+ * el resto de valores como cadenas.
+ *
+ * @author Jose Cabello
+ */
+public class ExportadorResultados {
+
+    /**
+     * Tamaño del buffer de escritura.
+     */
+    private static final int TAMANO_BUFFER = 64 * 1024;
+
+    /**
+     * Formato del archivo.
+     */
+    public enum Formato {
+        CSV("csv"),
+        JSON("json");
+
+        private final String extension;
+
+        Formato(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * @return Extensión habitual de los archivos del formato.
+         */
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private final FileChannel canal;
+    private final CharsetEncoder codificador = StandardCharsets.UTF_8.newEncoder();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANO_BUFFER);
+    private final StringBuilder texto = new StringBuilder();
+
+    private ExportadorResultados(FileChannel canal) {
+        this.canal = canal;
+    }
+
+    /**
+     * Escribe todas las filas (desde la posición actual) de un resultado en
+     * un archivo, que se crea o se sobrescribe.
+     *
+     * @param resultados Resultado de la consulta.
+     * @param destino Archivo de destino.
+     * @param formato Formato del archivo.
+     * @param progreso Progreso de la tarea (filas escritas) o null.
+     * @return Filas escritas.
+     * @throws SQLException Si falla la lectura del resultado.
+     * @throws IOException Si falla la escritura. El archivo puede quedar a
+     * medias.
+     */
+    public static long exportar(ResultSet resultados, Path destino, Formato formato,
+            EjecutorTareas.Progreso progreso) throws SQLException, IOException {
+
+        try (FileChannel canal = FileChannel.open(destino, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE) ) {
+            ExportadorResultados exportador = new ExportadorResultados(canal);
+            long filas = formato == Formato.CSV
+                    ? exportador.escribirCsv(resultados, progreso)
+                    : exportador.escribirJson(resultados, progreso);
+            exportador.terminar();
+            return filas;
+        }
+    }
+
+    private long escribirCsv(ResultSet resultados, EjecutorTareas.Progreso progreso) throws SQLException, IOException {
+        ResultSetMetaData columnas = resultados.getMetaData();
+        int n = columnas.getColumnCount();
+        long filas = 0;
+
+        for (int i = 1; i <= n; i++) {
+            if (i > 1) {
+                texto.append(',');
+            }
+            campoCsv(columnas.getColumnLabel(i));
+        }
+        texto.append('\n');
+        volcar();
+
+        while (resultados.next() ) {
+            for (int i = 1; i <= n; i++) {
+                if (i > 1) {
+                    texto.append(',');
+                }
+                Object valor = resultados.getObject(i);
+                if (valor != null) {
+                    campoCsv(valor.toString());
+                }
+            }
+            texto.append('\n');
+            volcar();
+            filas = avanzar(filas, progreso);
+        }
+        return filas;
+    }
+
+    private long escribirJson(ResultSet resultados, EjecutorTareas.Progreso progreso) throws SQLException, IOException {
+        ResultSetMetaData columnas = resultados.getMetaData();
+        int n = columnas.getColumnCount();
+        String[] nombres = new String[n];
+        for (int i = 1; i <= n; i++) {
+            nombres[i - 1] = columnas.getColumnLabel(i);
+        }
+        long filas = 0;
+
+        texto.append('[');
+        while (resultados.next() ) {
+            texto.append(filas == 0 ? "\n{" : ",\n{");
+            for (int i = 1; i <= n; i++) {
+                if (i > 1) {
+                    texto.append(',');
+                }
+                cadenaJson(nombres[i - 1]);
+                texto.append(':');
+                valorJson(resultados.getObject(i));
+            }
+            texto.append('}');
+            volcar();
+            filas = avanzar(filas, progreso);
+        }
+        texto.append(filas == 0 ? "]\n" : "\n]\n");
+        volcar();
+        return filas;
+    }
+
+    private static long avanzar(long filas, EjecutorTareas.Progreso progreso) {
+        long escritas = filas + 1;
+        if (progreso != null) {
+            progreso.comprobar();
+            progreso.avanzar(escritas, -1);
+        }
+        return escritas;
+    }
+
+    private void campoCsv(String valor) {
+        boolean comillas = false;
+        for (int i = 0; i < valor.length() && !comillas; i++) {
+            char c = valor.charAt(i);
+            comillas = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!comillas) {
+            texto.append(valor);
+            return;
+        }
+        texto.append('"');
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            if (c == '"') {
+                texto.append('"');
+            }
+            texto.append(c);
+        }
+        texto.append('"');
+    }
+
+    private void valorJson(Object valor) {
+        if (valor == null) {
+            texto.append("null");
+        }
+        else if (valor instanceof Boolean) {
+            texto.append(valor);
+        }
+        else if (valor instanceof Number) {
+            // NaN e Infinito no existen en JSON.
+            double real = ((Number) valor).doubleValue();
+            texto.append(Double.isNaN(real) || Double.isInfinite(real) ? "null" : valor.toString());
+        }
+        else {
+            cadenaJson(valor.toString());
+        }
+    }
+
+    private void cadenaJson(String valor) {
+        texto.append('"');
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            switch (c) {
+                case '"':
+                    texto.append("\\\"");
+                    break;
+                case '\\':
+                    texto.append("\\\\");
+                    break;
+                case '\n':
+                    texto.append("\\n");
+                    break;
+                case '\r':
+                    texto.append("\\r");
+                    break;
+                case '\t':
+                    texto.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        texto.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        texto.append(c);
+                    }
+                    break;
+            }
+        }
+        texto.append('"');
+    }
+
+    /**
+     * Codifica el texto pendiente en el buffer, escribiendo el buffer en el
+     * archivo cada vez que se llena.
+     */
+    private void volcar() throws IOException {
+        CharBuffer caracteres = CharBuffer.wrap(texto);
+        while (true) {
+            CoderResult resultado = codificador.encode(caracteres, buffer, false);
+            if (resultado.isOverflow()) {
+                escribirBuffer();
+            }
+            else if (resultado.isUnderflow()) {
+                break;
+            }
+            else {
+                resultado.throwException();
+            }
+        }
+        // Un carácter partido (par suplente) se queda en 'caracteres' hasta el siguiente volcado.
+        texto.delete(0, texto.length() - caracteres.remaining());
+    }
+
+    /**
+     * Termina la codificación y escribe lo que quede en el buffer.
+     */
+    private void terminar() throws IOException {
+        CharBuffer caracteres = CharBuffer.wrap(texto);
+        while (codificador.encode(caracteres, buffer, true).isOverflow()) {
+            escribirBuffer();
+        }
+        while (codificador.flush(buffer).isOverflow()) {
+            escribirBuffer();
+        }
+        escribirBuffer();
+        texto.setLength(0);
+    }
+
+    private void escribirBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            canal.write(buffer);
+        }
+        buffer.clear();
+    }
+}
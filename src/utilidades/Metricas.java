@@ -0,0 +1,405 @@
+package utilidades;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Métricas de las operaciones de acceso a datos: número de llamadas, número
+ * de errores e histograma de latencias (del que se sacan la mediana, el
+ * percentil 99 y el máximo).
+ *
+ * Cada operación se mide con una Medicion:
+ *
+ * try (Metricas.Medicion medicion = Metricas.medir("operacion")) { ...
+ * medicion.correcta(); }
+ *
+ * Si la medición se cierra sin llamar a correcta() (porque ha saltado una
+ * excepción) cuenta como error.
+ *
+ * Además de las operaciones pueden registrarse indicadores: valores que se
+ * leen en el momento de consultarlos, como las conexiones en uso del pool.
+ *
+ * Cada operación se publica por JMX como vehiculos:type=Operacion,name=...
+ * (con jconsole o VisualVM), cada indicador como
+ * vehiculos:type=Indicador,name=... y el conjunto como vehiculos:type=Metricas,
+ * que permite volcarlas como texto o ponerlas a cero. También pueden volcarse
+ * con volcar().
+ *
+ * @author Jose Cabello
+ */
+public class Metricas {
+
+    /**
+     * Dominio de los nombres JMX.
+     */
+    private static final String DOMINIO_JMX = "vehiculos";
+
+    private static final Map<String, Operacion> operaciones = new ConcurrentHashMap<>();
+    private static final Map<String, Indicador> indicadores = new ConcurrentHashMap<>();
+
+    static {
+        registrar(DOMINIO_JMX + ":type=Metricas", new Resumen(), ResumenMXBean.class);
+    }
+
+    /**
+     * Vista JMX de una operación.
+     */
+    public interface OperacionMXBean {
+
+        long getLlamadas();
+
+        long getErrores();
+
+        double getMediaMs();
+
+        double getP50Ms();
+
+        double getP99Ms();
+
+        double getMaximoMs();
+
+        void reiniciar();
+    }
+
+    /**
+     * Vista JMX de un indicador.
+     */
+    public interface IndicadorMXBean {
+
+        long getValor();
+    }
+
+    /**
+     * Vista JMX del conjunto de las métricas.
+     */
+    public interface ResumenMXBean {
+
+        String volcar();
+
+        void reiniciar();
+    }
+
+    /**
+     * Medición en curso de una llamada a una operación.
+     */
+    public static class Medicion implements AutoCloseable {
+
+        private final Operacion operacion;
+        private final long inicio = System.nanoTime();
+        private boolean correcta = false;
+
+        private Medicion(Operacion operacion) {
+            this.operacion = operacion;
+        }
+
+        /**
+         * Marca la llamada como terminada sin errores.
+         */
+        public void correcta() {
+            correcta = true;
+        }
+
+        /**
+         * Anota la duración de la llamada y, si no se marcó como correcta, el
+         * error.
+         */
+        @Override
+        public void close() {
+            operacion.anotar(System.nanoTime() - inicio, correcta);
+        }
+    }
+
+    /**
+     * Contadores e histograma de latencias de una operación.
+     *
+     * El histograma usa grupos logarítmicos: cada potencia de dos de
+     * nanosegundos se divide en SUBGRUPOS partes iguales, de forma que el
+     * error de cada percentil es como mucho de 1/SUBGRUPOS (12,5 %) y el
+     * histograma ocupa siempre lo mismo.
+     */
+    public static class Operacion implements OperacionMXBean {
+
+        private static final int BITS_SUBGRUPO = 3;
+        private static final int SUBGRUPOS = 1 << BITS_SUBGRUPO;
+        private static final int GRUPOS = (64 - BITS_SUBGRUPO) * SUBGRUPOS;
+
+        private final String nombre;
+        private final LongAdder llamadas = new LongAdder();
+        private final LongAdder errores = new LongAdder();
+        private final LongAdder nsTotal = new LongAdder();
+        private final LongAccumulator nsMaximo = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray histograma = new AtomicLongArray(GRUPOS);
+
+        private Operacion(String nombre) {
+            this.nombre = nombre;
+        }
+
+        /**
+         * Anota una llamada.
+         *
+         * @param ns Duración de la llamada en nanosegundos.
+         * @param correcta false si la llamada ha fallado.
+         */
+        public void anotar(long ns, boolean correcta) {
+            long duracion = Math.max(ns, 0);
+            llamadas.increment();
+            if (!correcta) {
+                errores.increment();
+            }
+            nsTotal.add(duracion);
+            nsMaximo.accumulate(duracion);
+            histograma.incrementAndGet(grupo(duracion));
+        }
+
+        public String getNombre() {
+            return nombre;
+        }
+
+        @Override
+        public long getLlamadas() {
+            return llamadas.sum();
+        }
+
+        @Override
+        public long getErrores() {
+            return errores.sum();
+        }
+
+        @Override
+        public double getMediaMs() {
+            long n = llamadas.sum();
+            return n == 0 ? 0 : nsTotal.sum() / (double) n / 1e6;
+        }
+
+        @Override
+        public double getP50Ms() {
+            return percentil(0.50) / 1e6;
+        }
+
+        @Override
+        public double getP99Ms() {
+            return percentil(0.99) / 1e6;
+        }
+
+        @Override
+        public double getMaximoMs() {
+            return nsMaximo.get() / 1e6;
+        }
+
+        @Override
+        public void reiniciar() {
+            llamadas.reset();
+            errores.reset();
+            nsTotal.reset();
+            nsMaximo.reset();
+            for (int i = 0; i < GRUPOS; i++) {
+                histograma.set(i, 0);
+            }
+        }
+
+        /**
+         * @param fraccion Fracción de las llamadas (0.5 para la mediana).
+         * @return Nanosegundos por debajo de los cuales queda esa fracción de
+         * las llamadas (límite superior de su grupo, sin pasar del máximo).
+         */
+        private long percentil(double fraccion) {
+            long[] cuentas = new long[GRUPOS];
+            long total = 0;
+            for (int i = 0; i < GRUPOS; i++) {
+                cuentas[i] = histograma.get(i);
+                total += cuentas[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long objetivo = Math.max(1, (long) Math.ceil(total * fraccion));
+            long acumulado = 0;
+            for (int i = 0; i < GRUPOS; i++) {
+                acumulado += cuentas[i];
+                if (acumulado >= objetivo) {
+                    return Math.min(limiteSuperior(i), nsMaximo.get());
+                }
+            }
+            return nsMaximo.get();
+        }
+
+        private static int grupo(long ns) {
+            if (ns < SUBGRUPOS) {
+                return (int) ns;
+            }
+            int exponente = 63 - Long.numberOfLeadingZeros(ns);
+            int sub = (int) (ns >>> (exponente - BITS_SUBGRUPO)) & (SUBGRUPOS - 1);
+            return (exponente - BITS_SUBGRUPO + 1) * SUBGRUPOS + sub;
+        }
+
+        private static long limiteSuperior(int grupo) {
+            if (grupo < SUBGRUPOS) {
+                return grupo;
+            }
+            int exponente = grupo / SUBGRUPOS + BITS_SUBGRUPO - 1;
+            long sub = grupo % SUBGRUPOS;
+            return ((SUBGRUPOS + sub + 1) << (exponente - BITS_SUBGRUPO)) - 1;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-28s %9d %7d %10.3f %10.3f %10.3f %10.3f", nombre, getLlamadas(), getErrores(),
+                    getMediaMs(), getP50Ms(), getP99Ms(), getMaximoMs());
+        }
+    }
+
+    /**
+     * Empieza a medir una llamada a una operación.
+     *
+     * @param nombre Nombre de la operación.
+     * @return Medición, que debe cerrarse al terminar la llamada.
+     */
+    public static Medicion medir(String nombre) {
+        return new Medicion(getOperacion(nombre));
+    }
+
+    /**
+     * Devuelve las métricas de una operación, creándolas (y publicándolas por
+     * JMX) la primera vez.
+     *
+     * @param nombre Nombre de la operación.
+     * @return Métricas de la operación.
+     */
+    public static Operacion getOperacion(String nombre) {
+        return operaciones.computeIfAbsent(nombre, clave -> {
+            Operacion operacion = new Operacion(clave);
+            registrar(DOMINIO_JMX + ":type=Operacion,name=" + ObjectName.quote(clave), operacion, OperacionMXBean.class);
+            return operacion;
+        });
+    }
+
+    /**
+     * Registra un indicador (y lo publica por JMX), sustituyendo al que
+     * hubiera con el mismo nombre.
+     *
+     * @param nombre Nombre del indicador.
+     * @param valor Función que da su valor actual.
+     */
+    public static void indicador(String nombre, LongSupplier valor) {
+        Indicador indicador = new Indicador(valor);
+        String nombreJmx = nombreIndicador(nombre);
+        if (indicadores.put(nombre, indicador) != null) {
+            desregistrar(nombreJmx);
+        }
+        registrar(nombreJmx, indicador, IndicadorMXBean.class);
+    }
+
+    /**
+     * Quita un indicador registrado con indicador().
+     *
+     * @param nombre Nombre del indicador.
+     */
+    public static void quitarIndicador(String nombre) {
+        if (indicadores.remove(nombre) != null) {
+            desregistrar(nombreIndicador(nombre));
+        }
+    }
+
+    private static String nombreIndicador(String nombre) {
+        return DOMINIO_JMX + ":type=Indicador,name=" + ObjectName.quote(nombre);
+    }
+
+    /**
+     * @return Las métricas de todas las operaciones como texto, una línea por
+     * operación ordenadas por nombre, seguidas de los indicadores.
+     */
+    public static String volcar() {
+        StringBuilder texto = new StringBuilder(String.format("%-28s %9s %7s %10s %10s %10s %10s%n",
+                "Operación", "Llamadas", "Errores", "Media ms", "p50 ms", "p99 ms", "Máx ms"));
+        for (Operacion operacion : new TreeMap<>(operaciones).values()) {
+            texto.append(operacion).append(System.lineSeparator());
+        }
+        if (!indicadores.isEmpty()) {
+            texto.append(System.lineSeparator()).append(String.format("%-28s %9s%n", "Indicador", "Valor"));
+            for (Map.Entry<String, Indicador> entrada : new TreeMap<>(indicadores).entrySet()) {
+                texto.append(String.format("%-28s %9d%n", entrada.getKey(), entrada.getValue().getValor()));
+            }
+        }
+        return texto.toString();
+    }
+
+    /**
+     * Pone a cero las métricas de todas las operaciones.
+     */
+    public static void reiniciar() {
+        for (Operacion operacion : operaciones.values()) {
+            operacion.reiniciar();
+        }
+    }
+
+    private static <T> void registrar(String nombre, T objeto, Class<T> interfaz) {
+        try {
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            ObjectName nombreJmx = new ObjectName(nombre);
+            if (!servidor.isRegistered(nombreJmx)) {
+                servidor.registerMBean(new StandardMBean(objeto, interfaz, true), nombreJmx);
+            }
+        }
+        catch (JMException | RuntimeException ex) {
+            // Sin JMX las métricas siguen disponibles con volcar().
+            System.err.printf("No se han podido publicar las métricas por JMX (%s)\n", ex.getMessage());
+        }
+    }
+
+    private static void desregistrar(String nombre) {
+        try {
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            ObjectName nombreJmx = new ObjectName(nombre);
+            if (servidor.isRegistered(nombreJmx)) {
+                servidor.unregisterMBean(nombreJmx);
+            }
+        }
+        catch (JMException | RuntimeException ex) {
+            System.err.printf("No se ha podido retirar la métrica %s de JMX (%s)\n", nombre, ex.getMessage());
+        }
+    }
+
+    /**
+     * Indicador cuyo valor se lee al consultarlo.
+     */
+    private static class Indicador implements IndicadorMXBean {
+
+        private final LongSupplier valor;
+
+        private Indicador(LongSupplier valor) {
+            this.valor = valor;
+        }
+
+        @Override
+        public long getValor() {
+            return valor.getAsLong();
+        }
+    }
+
+    /**
+     * Implementación de la vista JMX del conjunto.
+     */
+    private static class Resumen implements ResumenMXBean {
+
+        @Override
+        public String volcar() {
+            return Metricas.volcar();
+        }
+
+        @Override
+        public void reiniciar() {
+            Metricas.reiniciar();
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package utilidades;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pool acotado de conexiones JDBC. Mantiene entre un mínimo y un máximo de
+ * conexiones abiertas contra la misma URL, de forma que varias operaciones
+ * puedan trabajar a la vez sin compartir una única conexión.
+ *
+ * Las conexiones que entrega el pool son envoltorios: al llamar a close() la
+ * conexión física no se cierra, sino que vuelve al pool. Además:
+ *
+ * - Antes de entregar una conexión se comprueba que sigue siendo válida. - Las
+ * conexiones ociosas durante más tiempo del indicado se cierran, sin bajar
+ * nunca del mínimo. - Si no hay conexiones libres y se ha llegado al máximo,
+ * se espera como mucho el tiempo de adquisición indicado. - Las conexiones
+ * prestadas durante más tiempo del umbral de fugas se avisan por la salida de
+ * error, junto con el punto del programa en el que se pidieron. - Cada
+ * conexión física guarda sus sentencias preparadas (CacheSentencias), de forma
+ * que preparar otra vez el mismo SQL no obliga a analizarlo de nuevo. - El
+ * tiempo que se tarda en obtener cada conexión se anota en Metricas, junto
+ * con indicadores de las conexiones abiertas y en uso y de los aciertos de
+ * las cachés de sentencias. - Si se
+ * indica un registro de consultas lentas, todas las sentencias se miden con
+ * él.
+ *
+ * @author Jose Cabello
+ */
+public class PoolConexiones implements AutoCloseable {
+
+    /**
+     * Segundos de espera al validar una conexión antes de entregarla.
+     */
+    private static final int SEGUNDOS_VALIDACION = 2;
+    /**
+     * Nombre de la métrica del tiempo de espera por una conexión.
+     */
+    public static final String METRICA_OBTENER = "pool.obtenerConexion";
+    /**
+     * Prefijo de los indicadores del pool en Metricas.
+     */
+    private static final String PREFIJO_INDICADORES = "pool.";
+
+    private final String url;
+    private final String usuario;
+    private final String password;
+    private final int minimo;
+    private final int maximo;
+    private final long msOcioso;
+    private final long msAdquisicion;
+    private final long msFuga;
+    private final int sentenciasPorConexion;
+
+    /**
+     * Conexiones físicas libres, la más recientemente devuelta al principio.
+     */
+    private final Deque<ConexionLibre> libres = new ArrayDeque<>();
+    /**
+     * Conexiones prestadas en este momento, con los datos de su préstamo.
+     */
+    private final Map<Connection, Prestamo> prestadas = new ConcurrentHashMap<>();
+    /**
+     * Caché de sentencias preparadas de cada conexión física abierta.
+     */
+    private final Map<Connection, CacheSentencias> caches = new ConcurrentHashMap<>();
+
+    private final ReentrantLock cerrojo = new ReentrantLock();
+    private final Condition hayLibre = cerrojo.newCondition();
+    private final ScheduledExecutorService mantenimiento;
+    /**
+     * Registro en el que se miden las sentencias, o null si no se miden.
+     */
+    private volatile RegistroConsultasLentas registroConsultas = null;
+
+    /**
+     * Número total de conexiones físicas abiertas (libres + prestadas).
+     */
+    private int abiertas = 0;
+    private boolean cerrado = false;
+
+    /**
+     * Crea el pool y abre las conexiones mínimas.
+     *
+     * @param url URL JDBC completa (incluyendo opciones de conexión).
+     * @param usuario Usuario de la base de datos.
+     * @param password Contraseña de la base de datos.
+     * @param minimo Número de conexiones que se mantienen siempre abiertas.
+     * @param maximo Número máximo de conexiones abiertas a la vez.
+     * @param msOcioso Milisegundos que puede estar libre una conexión por
+     * encima del mínimo antes de cerrarse.
+     * @param msAdquisicion Milisegundos máximos de espera por una conexión.
+     * @param msFuga Milisegundos de préstamo a partir de los cuales se avisa
+     * de una posible fuga. Con 0 no se comprueban fugas.
+     * @param sentenciasPorConexion Sentencias preparadas que se guardan por
+     * cada conexión. Con 0 no se guardan.
+     * @throws SQLException Si no pueden abrirse las conexiones mínimas.
+     * @throws IllegalArgumentException Si los tamaños no son coherentes.
+     */
+    public PoolConexiones(String url, String usuario, String password, int minimo, int maximo,
+            long msOcioso, long msAdquisicion, long msFuga, int sentenciasPorConexion) throws SQLException {
+
+        if (minimo < 0 || maximo < 1 || minimo > maximo) {
+            throw new IllegalArgumentException("Tamaños de pool imposibles: mínimo " + minimo + ", máximo " + maximo);
+        }
+        this.url = url;
+        this.usuario = usuario;
+        this.password = password;
+        this.minimo = minimo;
+        this.maximo = maximo;
+        this.msOcioso = msOcioso;
+        this.msAdquisicion = msAdquisicion;
+        this.msFuga = msFuga;
+        this.sentenciasPorConexion = sentenciasPorConexion;
+
+        try {
+            for (int i = 0; i < minimo; i++) {
+                libres.push(new ConexionLibre(abrirFisica()));
+                abiertas++;
+            }
+        }
+        catch (SQLException ex) {
+            cerrarLibres();
+            throw ex;
+        }
+
+        mantenimiento = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "pool-conexiones-mantenimiento");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        long periodo = Math.max(1000, Math.min(msOcioso, msFuga > 0 ? msFuga : msOcioso) / 2);
+        mantenimiento.scheduleWithFixedDelay(this::mantener, periodo, periodo, TimeUnit.MILLISECONDS);
+
+        Metricas.indicador(PREFIJO_INDICADORES + "abiertas", this::getAbiertas);
+        Metricas.indicador(PREFIJO_INDICADORES + "enUso", this::getEnUso);
+        Metricas.indicador(PREFIJO_INDICADORES + "maximo", () -> maximo);
+        Metricas.indicador(PREFIJO_INDICADORES + "sentencias.aciertos", this::getAciertosSentencias);
+        Metricas.indicador(PREFIJO_INDICADORES + "sentencias.fallos", this::getFallosSentencias);
+    }
+
+    /**
+     * Obtiene una conexión del pool. Debe cerrarse (preferiblemente con
+     * try-with-resources) para devolverla al pool.
+     *
+     * @return Conexión válida lista para usar.
+     * @throws SQLException Si el pool está cerrado, si no se consigue una
+     * conexión en el tiempo de adquisición o si falla la apertura.
+     */
+    public Connection obtenerConexion() throws SQLException {
+        try (Metricas.Medicion medicion = Metricas.medir(METRICA_OBTENER)) {
+            Connection con = esperarConexion();
+            medicion.correcta();
+            return con;
+        }
+    }
+
+    /**
+     * Toma una conexión libre, abre una nueva o espera a que se devuelva
+     * alguna.
+     */
+    private Connection esperarConexion() throws SQLException {
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(msAdquisicion);
+
+        while (true) {
+            Connection fisica = null;
+            boolean abrirNueva = false;
+
+            cerrojo.lock();
+            try {
+                while (fisica == null && !abrirNueva) {
+                    if (cerrado) {
+                        throw new SQLException("El pool de conexiones está cerrado.");
+                    }
+                    if (!libres.isEmpty()) {
+                        fisica = libres.pop().conexion;
+                    }
+                    else if (abiertas < maximo) {
+                        abiertas++;
+                        abrirNueva = true;
+                    }
+                    else {
+                        long restante = limite - System.nanoTime();
+                        if (restante <= 0) {
+                            throw new SQLException("Tiempo agotado esperando una conexión libre ("
+                                    + msAdquisicion + " ms, " + maximo + " conexiones en uso).");
+                        }
+                        try {
+                            hayLibre.awaitNanos(restante);
+                        }
+                        catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            throw new SQLException("Interrumpido esperando una conexión libre.", ex);
+                        }
+                    }
+                }
+            }
+            finally {
+                cerrojo.unlock();
+            }
+
+            if (abrirNueva) {
+                try {
+                    fisica = abrirFisica();
+                }
+                catch (SQLException ex) {
+                    descontarAbierta();
+                    throw ex;
+                }
+            }
+            else if (!esValida(fisica)) {
+                // La conexión se ha caído mientras estaba libre: se descarta y se vuelve a intentar.
+                cerrarFisica(fisica);
+                descontarAbierta();
+                continue;
+            }
+
+            prestadas.put(fisica, new Prestamo(msFuga > 0 ? new Throwable("Conexión obtenida aquí") : null));
+            return envolver(fisica);
+        }
+    }
+
+    /**
+     * Indica el registro de consultas lentas con el que se medirán las
+     * sentencias que se creen a partir de ahora con las conexiones del pool.
+     *
+     * @param registro Registro a usar o null para no medir.
+     */
+    public void setRegistroConsultas(RegistroConsultasLentas registro) {
+        this.registroConsultas = registro;
+    }
+
+    /**
+     * Número de conexiones físicas abiertas en este momento.
+     *
+     * @return Conexiones libres más prestadas.
+     */
+    public int getAbiertas() {
+        cerrojo.lock();
+        try {
+            return abiertas;
+        }
+        finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Número de preparaciones de sentencias que se han servido desde las
+     * cachés de las conexiones abiertas.
+     *
+     * @return Aciertos de caché.
+     */
+    public long getAciertosSentencias() {
+        return caches.values().stream().mapToLong(CacheSentencias::getAciertos).sum();
+    }
+
+    /**
+     * Número de preparaciones de sentencias que han tenido que ir al driver
+     * en las conexiones abiertas.
+     *
+     * @return Fallos de caché.
+     */
+    public long getFallosSentencias() {
+        return caches.values().stream().mapToLong(CacheSentencias::getFallos).sum();
+    }
+
+    /**
+     * Número de conexiones prestadas en este momento.
+     *
+     * @return Conexiones en uso.
+     */
+    public int getEnUso() {
+        return prestadas.size();
+    }
+
+    /**
+     * Cierra el pool y todas las conexiones libres. Las conexiones prestadas se
+     * cierran cuando se devuelvan.
+     */
+    @Override
+    public void close() {
+        cerrojo.lock();
+        try {
+            cerrado = true;
+            cerrarLibres();
+            hayLibre.signalAll();
+        }
+        finally {
+            cerrojo.unlock();
+        }
+        mantenimiento.shutdownNow();
+
+        for (String indicador : new String[]{"abiertas", "enUso", "maximo", "sentencias.aciertos", "sentencias.fallos"}) {
+            Metricas.quitarIndicador(PREFIJO_INDICADORES + indicador);
+        }
+    }
+
+    /**
+     * Devuelve una conexión física al pool tras cerrar el envoltorio.
+     */
+    private void devolver(Connection fisica) {
+        prestadas.remove(fisica);
+
+        boolean reutilizable = esValida(fisica);
+        if (reutilizable) {
+            try {
+                // Se deja la conexión como estaba al entregarla.
+                if (!fisica.getAutoCommit()) {
+                    fisica.rollback();
+                    fisica.setAutoCommit(true);
+                }
+            }
+            catch (SQLException ex) {
+                reutilizable = false;
+            }
+        }
+
+        cerrojo.lock();
+        try {
+            if (reutilizable && !cerrado) {
+                libres.push(new ConexionLibre(fisica));
+                hayLibre.signal();
+                return;
+            }
+        }
+        finally {
+            cerrojo.unlock();
+        }
+        cerrarFisica(fisica);
+        descontarAbierta();
+    }
+
+    /**
+     * Tarea periódica: cierra conexiones ociosas y avisa de posibles fugas.
+     */
+    private void mantener() {
+        long ahora = System.currentTimeMillis();
+
+        cerrojo.lock();
+        try {
+            // Las más antiguas están al final de la cola.
+            Iterator<ConexionLibre> it = libres.descendingIterator();
+            while (it.hasNext() && abiertas > minimo) {
+                ConexionLibre libre = it.next();
+                if (ahora - libre.desde >= msOcioso) {
+                    it.remove();
+                    abiertas--;
+                    cerrarFisica(libre.conexion);
+                }
+            }
+        }
+        finally {
+            cerrojo.unlock();
+        }
+
+        if (msFuga > 0) {
+            for (Prestamo prestamo : prestadas.values()) {
+                if (!prestamo.avisado && ahora - prestamo.desde >= msFuga) {
+                    prestamo.avisado = true;
+                    System.err.printf("Posible fuga de conexión: prestada hace %d ms sin devolver.\n", ahora - prestamo.desde);
+                    prestamo.origen.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private Connection abrirFisica() throws SQLException {
+        Connection fisica = DriverManager.getConnection(url, usuario, password);
+        if (sentenciasPorConexion > 0) {
+            caches.put(fisica, new CacheSentencias(fisica, sentenciasPorConexion));
+        }
+        return fisica;
+    }
+
+    private static boolean esValida(Connection fisica) {
+        try {
+            return fisica.isValid(SEGUNDOS_VALIDACION);
+        }
+        catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private void cerrarFisica(Connection fisica) {
+        CacheSentencias cache = caches.remove(fisica);
+        if (cache != null) {
+            cache.cerrar();
+        }
+        try {
+            fisica.close();
+        }
+        catch (SQLException ex) {
+            // La conexión se descarta igualmente.
+        }
+    }
+
+    private void descontarAbierta() {
+        cerrojo.lock();
+        try {
+            abiertas--;
+            hayLibre.signal();
+        }
+        finally {
+            cerrojo.unlock();
+        }
+    }
+
+    private void cerrarLibres() {
+        while (!libres.isEmpty()) {
+            cerrarFisica(libres.pop().conexion);
+            abiertas--;
+        }
+    }
+
+    /**
+     * Crea el envoltorio que se entrega al usuario del pool. close() devuelve
+     * la conexión física y cualquier uso posterior falla.
+     */
+    private Connection envolver(Connection fisica) {
+        InvocationHandler manejador = new InvocationHandler() {
+            private boolean devuelta = false;
+
+            @Override
+            public Object invoke(Object proxy, Method metodo, Object[] args) throws Throwable {
+                switch (metodo.getName()) {
+                    case "close":
+                        if (!devuelta) {
+                            devuelta = true;
+                            devolver(fisica);
+                        }
+                        return null;
+                    case "isClosed":
+                        return devuelta || fisica.isClosed();
+                    case "unwrap":
+                        if (((Class<?>) args[0]).isInstance(fisica)) {
+                            return fisica;
+                        }
+                        break;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "Conexión del pool (" + fisica + ")";
+                    default:
+                        break;
+                }
+                if (devuelta) {
+                    throw new SQLException("La conexión ya se ha devuelto al pool.");
+                }
+                Object resultado = null;
+                if (metodo.getName().equals("prepareStatement") && args.length == 1) {
+                    CacheSentencias cache = caches.get(fisica);
+                    if (cache != null) {
+                        resultado = cache.preparar((String) args[0], (Connection) proxy);
+                    }
+                }
+                if (resultado == null) {
+                    try {
+                        resultado = metodo.invoke(fisica, args);
+                    }
+                    catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                }
+
+                RegistroConsultasLentas registro = registroConsultas;
+                if (registro != null) {
+                    if (metodo.getName().equals("prepareStatement")) {
+                        resultado = registro.envolver((PreparedStatement) resultado, (String) args[0]);
+                    }
+                    else if (metodo.getName().equals("createStatement")) {
+                        resultado = registro.envolver((Statement) resultado);
+                    }
+                }
+                return resultado;
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(PoolConexiones.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, manejador);
+    }
+
+    /**
+     * Conexión física libre y momento en el que se devolvió.
+     */
+    private static class ConexionLibre {
+
+        private final Connection conexion;
+        private final long desde = System.currentTimeMillis();
+
+        private ConexionLibre(Connection conexion) {
+            this.conexion = conexion;
+        }
+    }
+
+    /**
+     * Datos de un préstamo, para la detección de fugas.
+     */
+    private static class Prestamo {
+
+        private final long desde = System.currentTimeMillis();
+        private final Throwable origen;
+        private volatile boolean avisado = false;
+
+        private Prestamo(Throwable origen) {
+            this.origen = origen;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package utilidades;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Registro de consultas lentas. Envuelve las sentencias JDBC para medir cada
+ * ejecución y anota en un archivo las que tardan más del umbral indicado, con
+ * sus parámetros y el plan de ejecución de H2. También se anotan las
+ * sentencias que fallan, con el mensaje de error.
+ *
+ * El plan de un SELECT se obtiene con EXPLAIN ANALYZE, que vuelve a ejecutar
+ * la consulta y muestra las filas leídas de cada tabla; el de un INSERT,
+ * UPDATE, DELETE o MERGE, con EXPLAIN, que no la ejecuta. Para no duplicar una
+ * y otra vez el coste de la misma consulta lenta, el plan de cada SQL se
+ * obtiene como mucho una vez por minuto.
+ *
+ * El archivo se rota por tamaño (java.util.logging.FileHandler): cuando llega
+ * al límite se pasa al siguiente y se conservan los últimos indicados.
+ *
+ * @author Jose Cabello
+ */
+public class RegistroConsultasLentas implements AutoCloseable {
+
+    /**
+     * Milisegundos mínimos entre dos planes del mismo SQL.
+     */
+    private static final long MS_ENTRE_PLANES = 60_000;
+    /**
+     * Caracteres como mucho de cada parámetro en el registro.
+     */
+    private static final int MAX_PARAMETRO = 200;
+    private static final DateTimeFormatter FORMATO_FECHA
+            = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private final long nsUmbral;
+    private final String patronArchivo;
+    private final int bytesArchivo;
+    private final int archivos;
+    private final Logger registro = Logger.getAnonymousLogger();
+    /**
+     * Momento del último plan obtenido de cada SQL.
+     */
+    private final Map<String, Long> ultimoPlan = new ConcurrentHashMap<>();
+    /**
+     * Marca los hilos que están obteniendo un plan, para no medir el EXPLAIN.
+     */
+    private final ThreadLocal<Boolean> explicando = ThreadLocal.withInitial(() -> false);
+    private FileHandler archivo = null;
+    private boolean sinArchivo = false;
+
+    /**
+     * Crea el registro. El archivo no se abre hasta que hay algo que anotar.
+     *
+     * @param msUmbral Milisegundos a partir de los cuales una sentencia se
+     * considera lenta.
+     * @param patronArchivo Patrón del nombre de los archivos, con %g para el
+     * número de archivo (por ejemplo "consultas-lentas.%g.log").
+     * @param bytesArchivo Tamaño a partir del cual se pasa al siguiente
+     * archivo.
+     * @param archivos Número de archivos que se conservan.
+     */
+    public RegistroConsultasLentas(long msUmbral, String patronArchivo, int bytesArchivo, int archivos) {
+        this.nsUmbral = TimeUnit.MILLISECONDS.toNanos(msUmbral);
+        this.patronArchivo = patronArchivo;
+        this.bytesArchivo = bytesArchivo;
+        this.archivos = archivos;
+        registro.setUseParentHandlers(false);
+    }
+
+    /**
+     * Envuelve una sentencia preparada para medir sus ejecuciones.
+     *
+     * @param sentencia Sentencia a envolver.
+     * @param sql SQL con el que se preparó.
+     * @return Sentencia envuelta.
+     */
+    public PreparedStatement envolver(PreparedStatement sentencia, String sql) {
+        return (PreparedStatement) envolver(sentencia, sql, PreparedStatement.class);
+    }
+
+    /**
+     * Envuelve una sentencia sin preparar para medir sus ejecuciones.
+     *
+     * @param sentencia Sentencia a envolver.
+     * @return Sentencia envuelta.
+     */
+    public Statement envolver(Statement sentencia) {
+        return (Statement) envolver(sentencia, null, Statement.class);
+    }
+
+    /**
+     * Cierra el archivo del registro.
+     */
+    @Override
+    public synchronized void close() {
+        if (archivo != null) {
+            registro.removeHandler(archivo);
+            archivo.close();
+            archivo = null;
+        }
+    }
+
+    private Object envolver(Statement sentencia, String sqlPreparado, Class<?> interfaz) {
+        Map<Integer, Object> parametros = new TreeMap<>();
+        int[] lote = {0};
+
+        return Proxy.newProxyInstance(RegistroConsultasLentas.class.getClassLoader(), new Class<?>[]{interfaz}, (proxy, metodo, args) -> {
+            String nombre = metodo.getName();
+            if (sqlPreparado != null && nombre.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                parametros.put((Integer) args[0], nombre.equals("setNull") ? null : args[1]);
+            }
+            else if (nombre.equals("clearParameters")) {
+                parametros.clear();
+            }
+            else if (nombre.equals("addBatch")) {
+                lote[0]++;
+            }
+            else if (nombre.equals("clearBatch")) {
+                lote[0] = 0;
+            }
+            else if (nombre.equals("equals")) {
+                return proxy == args[0];
+            }
+            else if (nombre.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+
+            if (!nombre.startsWith("execute") || explicando.get()) {
+                return invocar(metodo, sentencia, args);
+            }
+
+            String sql = sqlPreparado != null ? sqlPreparado : (args != null && args.length > 0 ? (String) args[0] : null);
+            boolean esLote = nombre.contains("Batch");
+            int filasLote = lote[0];
+            if (esLote) {
+                lote[0] = 0;
+            }
+
+            long inicio = System.nanoTime();
+            try {
+                Object resultado = invocar(metodo, sentencia, args);
+                long ns = System.nanoTime() - inicio;
+                if (ns >= nsUmbral && sql != null) {
+                    anotarLenta(sentencia, sql, esLote ? null : parametros, filasLote, ns);
+                }
+                return resultado;
+            }
+            catch (SQLException ex) {
+                anotar(String.format("ERROR tras %d ms [%s]%n  SQL: %s%n%s  Error: %s%n",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio), Thread.currentThread().getName(),
+                        sql, describirParametros(esLote ? null : parametros, filasLote), ex.getMessage()));
+                throw ex;
+            }
+        });
+    }
+
+    private static Object invocar(Method metodo, Object destino, Object[] args) throws Throwable {
+        try {
+            return metodo.invoke(destino, args);
+        }
+        catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Anota una sentencia lenta y, si toca, su plan de ejecución.
+     */
+    private void anotarLenta(Statement sentencia, String sql, Map<Integer, Object> parametros, int filasLote, long ns) {
+        StringBuilder texto = new StringBuilder();
+        texto.append(String.format("LENTA %d ms [%s]%n  SQL: %s%n", TimeUnit.NANOSECONDS.toMillis(ns),
+                Thread.currentThread().getName(), sql));
+        texto.append(describirParametros(parametros, filasLote));
+
+        String consultaPlan = consultaPlan(sql);
+        long ahora = System.currentTimeMillis();
+        Long anterior = ultimoPlan.get(sql);
+        if (consultaPlan != null && (anterior == null || ahora - anterior >= MS_ENTRE_PLANES)) {
+            ultimoPlan.put(sql, ahora);
+            texto.append("  Plan:").append(System.lineSeparator());
+            texto.append(obtenerPlan(sentencia, consultaPlan, parametros));
+        }
+        anotar(texto.toString());
+    }
+
+    /**
+     * @return EXPLAIN adecuado para el SQL o null si no tiene plan (DDL,
+     * lotes...).
+     */
+    private static String consultaPlan(String sql) {
+        String inicio = sql.stripLeading().toUpperCase(Locale.ROOT);
+        if (inicio.startsWith("SELECT") || inicio.startsWith("WITH")) {
+            return "EXPLAIN ANALYZE " + sql;
+        }
+        if (inicio.startsWith("INSERT") || inicio.startsWith("UPDATE") || inicio.startsWith("DELETE") || inicio.startsWith("MERGE")) {
+            return "EXPLAIN " + sql;
+        }
+        return null;
+    }
+
+    private String obtenerPlan(Statement sentencia, String consultaPlan, Map<Integer, Object> parametros) {
+        if (parametros == null) {
+            return "    (lote: sin plan)" + System.lineSeparator();
+        }
+
+        StringBuilder plan = new StringBuilder();
+        explicando.set(true);
+        try {
+            Connection con = sentencia.getConnection();
+            try (PreparedStatement explicacion = con.prepareStatement(consultaPlan) ) {
+                for (Map.Entry<Integer, Object> parametro : parametros.entrySet()) {
+                    explicacion.setObject(parametro.getKey(), parametro.getValue());
+                }
+                try (ResultSet resultado = explicacion.executeQuery() ) {
+                    while (resultado.next() ) {
+                        for (String linea : resultado.getString(1).split("\\R")) {
+                            plan.append("    ").append(linea).append(System.lineSeparator());
+                        }
+                    }
+                }
+            }
+        }
+        catch (SQLException ex) {
+            plan.append("    (no se pudo obtener el plan: ").append(ex.getMessage()).append(')').append(System.lineSeparator());
+        }
+        finally {
+            explicando.set(false);
+        }
+        return plan.toString();
+    }
+
+    private static String describirParametros(Map<Integer, Object> parametros, int filasLote) {
+        if (parametros == null) {
+            return String.format("  Lote de %d filas%n", filasLote);
+        }
+        if (parametros.isEmpty()) {
+            return "";
+        }
+        StringBuilder texto = new StringBuilder("  Parámetros:");
+        for (Map.Entry<Integer, Object> parametro : parametros.entrySet()) {
+            Object valor = parametro.getValue();
+            String descripcion = valor instanceof Object[] ? Arrays.deepToString((Object[]) valor) : String.valueOf(valor);
+            if (descripcion.length() > MAX_PARAMETRO) {
+                descripcion = descripcion.substring(0, MAX_PARAMETRO) + "...";
+            }
+            texto.append(' ').append(parametro.getKey()).append('=').append(descripcion);
+        }
+        return texto.append(System.lineSeparator()).toString();
+    }
+
+    /**
+     * Escribe una entrada en el archivo, abriéndolo la primera vez.
+     */
+    private synchronized void anotar(String entrada) {
+        if (archivo == null && !sinArchivo) {
+            try {
+                archivo = new FileHandler(patronArchivo, bytesArchivo, archivos, true);
+                archivo.setFormatter(new Formatter() {
+                    @Override
+                    public String format(LogRecord entrada) {
+                        return FORMATO_FECHA.format(Instant.ofEpochMilli(entrada.getMillis())) + " " + entrada.getMessage();
+                    }
+                });
+                registro.addHandler(archivo);
+            }
+            catch (IOException | SecurityException ex) {
+                sinArchivo = true;
+                System.err.printf("No se puede escribir el registro de consultas lentas (%s)\n", ex.getMessage());
+            }
+        }
+        if (archivo != null) {
+            registro.log(Level.INFO, entrada);
+        }
+    }
+}
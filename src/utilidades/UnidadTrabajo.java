@@ -0,0 +1,135 @@
+package utilidades;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Unidad de trabajo sobre una conexión: las escrituras que se ejecutan con
+ * ella forman una sola transacción, que se confirma de una vez con
+ * confirmar(). Así varias escrituras cuestan un único commit (y una única
+ * escritura a disco del archivo de H2) en lugar de uno cada una.
+ *
+ * Si la unidad se cierra sin confirmar, se deshacen todas sus escrituras. Al
+ * cerrarla la conexión vuelve al modo de confirmación que tenía.
+ *
+ * Uso:
+ *
+ * try (UnidadTrabajo unidad = new UnidadTrabajo(con)) { unidad.ejecutar(...);
+ * unidad.ejecutar(...); unidad.confirmar(); }
+ *
+ * @author Jose Cabello
+ */
+public class UnidadTrabajo implements AutoCloseable {
+
+    /**
+     * Escritura que se ejecuta dentro de una transacción.
+     *
+     * @param <T> Tipo del resultado de la escritura.
+     */
+    public interface Escritura<T> {
+
+        /**
+         * @param con Conexión con la transacción abierta. La escritura no
+         * debe confirmarla ni deshacerla.
+         * @return Resultado de la escritura (por ejemplo, filas afectadas).
+         * @throws SQLException Si falla la escritura.
+         */
+        T escribir(Connection con) throws SQLException;
+    }
+
+    private final Connection con;
+    private final boolean autoCommit;
+    private int escrituras = 0;
+    private boolean terminada = false;
+
+    /**
+     * Abre una unidad de trabajo sobre la conexión.
+     *
+     * @param con Conexión a la BD
+     * @throws SQLException Si no se puede iniciar la transacción.
+     */
+    public UnidadTrabajo(Connection con) throws SQLException {
+        this.con = con;
+        this.autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+    }
+
+    /**
+     * Ejecuta una escritura dentro de la transacción de la unidad.
+     *
+     * @param <T> Tipo del resultado.
+     * @param escritura Escritura a ejecutar.
+     * @return Resultado de la escritura.
+     * @throws SQLException Si falla la escritura. La unidad sigue abierta y
+     * quien la usa decide si confirma lo anterior o lo deshace todo.
+     * @throws IllegalStateException Si la unidad ya se ha confirmado o
+     * deshecho.
+     */
+    public <T> T ejecutar(Escritura<T> escritura) throws SQLException {
+        comprobarAbierta();
+        T resultado = escritura.escribir(con);
+        escrituras++;
+        return resultado;
+    }
+
+    /**
+     * Confirma todas las escrituras de la unidad con un solo commit.
+     *
+     * @throws SQLException Si falla la confirmación. En ese caso se deshacen
+     * todas las escrituras.
+     */
+    public void confirmar() throws SQLException {
+        comprobarAbierta();
+        terminada = true;
+        try {
+            con.commit();
+        }
+        catch (SQLException ex) {
+            con.rollback();
+            throw ex;
+        }
+    }
+
+    /**
+     * Deshace todas las escrituras de la unidad.
+     *
+     * @throws SQLException Si falla la vuelta atrás.
+     */
+    public void deshacer() throws SQLException {
+        comprobarAbierta();
+        terminada = true;
+        con.rollback();
+    }
+
+    /**
+     * @return Escrituras ejecutadas con éxito en la unidad.
+     */
+    public int getEscrituras() {
+        return escrituras;
+    }
+
+    /**
+     * Deshace las escrituras si no se ha confirmado la unidad y devuelve la
+     * conexión a su modo de confirmación anterior.
+     *
+     * @throws SQLException Si falla la vuelta atrás.
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (!terminada) {
+                terminada = true;
+                con.rollback();
+            }
+        }
+        finally {
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
+    private void comprobarAbierta() {
+        if (terminada) {
+            throw new IllegalStateException("La unidad de trabajo ya está terminada.");
+        }
+    }
+}
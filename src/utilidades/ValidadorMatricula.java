@@ -0,0 +1,110 @@
+package utilidades;
+
+/**
+ * Comprobación del formato de las matrículas: 4 cifras seguidas de 3
+ * consonantes (sin vocales), por ejemplo 2879GHT. La comprobación se hace
+ * carácter a carácter, sin expresiones regulares y sin crear objetos, porque
+ * se usa también en cargas masivas de millones de matrículas.
+ *
+ * @author Jose Cabello
+ */
+public class ValidadorMatricula {
+
+    /**
+     * Longitud de una matrícula válida.
+     */
+    public static final int LONGITUD = 7;
+    /**
+     * Número de cifras al principio de la matrícula.
+     */
+    private static final int CIFRAS = 4;
+
+    /**
+     * Consonantes admitidas, indexadas por letra - 'A'. Equivale a la clase
+     * [B-DF-HJ-NP-TV-Z].
+     */
+    private static final boolean[] CONSONANTE = new boolean[26];
+
+    static {
+        for (char c = 'A'; c <= 'Z'; c++) {
+            CONSONANTE[c - 'A'] = "AEIOU".indexOf(c) < 0;
+        }
+    }
+
+    /**
+     * Comprueba si una matrícula tiene el formato válido. Se admiten las
+     * consonantes en mayúsculas o en minúsculas, pero no espacios alrededor.
+     *
+     * @param matricula Matrícula a comprobar.
+     * @return true si la matrícula es válida.
+     */
+    public static boolean esValida(CharSequence matricula) {
+        return matricula != null && esValida(matricula, 0, matricula.length());
+    }
+
+    /**
+     * Comprueba si el trozo [desde, hasta) de una cadena es una matrícula
+     * válida.
+     */
+    private static boolean esValida(CharSequence texto, int desde, int hasta) {
+        if (hasta - desde != LONGITUD) {
+            return false;
+        }
+        for (int i = desde; i < desde + CIFRAS; i++) {
+            char c = texto.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        for (int i = desde + CIFRAS; i < hasta; i++) {
+            char c = texto.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                c -= 'a' - 'A';
+            }
+            if (c < 'A' || c > 'Z' || !CONSONANTE[c - 'A']) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Normaliza una matrícula (quita los espacios de alrededor y pasa las
+     * letras a mayúsculas) y comprueba que sea válida. Si ya estaba
+     * normalizada se devuelve la misma cadena, sin crear una nueva.
+     *
+     * @param matricula Matrícula a normalizar.
+     * @return La matrícula normalizada o null si no es válida.
+     */
+    public static String normalizar(String matricula) {
+        if (matricula == null) {
+            return null;
+        }
+
+        int desde = 0;
+        int hasta = matricula.length();
+        while (desde < hasta && matricula.charAt(desde) <= ' ') {
+            desde++;
+        }
+        while (hasta > desde && matricula.charAt(hasta - 1) <= ' ') {
+            hasta--;
+        }
+        if (!esValida(matricula, desde, hasta)) {
+            return null;
+        }
+
+        boolean enMayusculas = true;
+        for (int i = desde + CIFRAS; i < hasta && enMayusculas; i++) {
+            enMayusculas = matricula.charAt(i) <= 'Z';
+        }
+        if (enMayusculas && desde == 0 && hasta == matricula.length()) {
+            return matricula;
+        }
+
+        char[] letras = new char[LONGITUD];
+        for (int i = 0; i < LONGITUD; i++) {
+            letras[i] = Character.toUpperCase(matricula.charAt(desde + i));
+        }
+        return new String(letras);
+    }
+}